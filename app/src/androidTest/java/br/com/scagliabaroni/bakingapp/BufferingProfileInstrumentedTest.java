@@ -0,0 +1,213 @@
+/*
+ * Copyright (c) 2017 Igor Scaglia.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package br.com.scagliabaroni.bakingapp;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.google.android.exoplayer2.ExoPlaybackException;
+import com.google.android.exoplayer2.ExoPlayer;
+import com.google.android.exoplayer2.ExoPlayerFactory;
+import com.google.android.exoplayer2.PlaybackParameters;
+import com.google.android.exoplayer2.SimpleExoPlayer;
+import com.google.android.exoplayer2.Timeline;
+import com.google.android.exoplayer2.extractor.DefaultExtractorsFactory;
+import com.google.android.exoplayer2.source.ExtractorMediaSource;
+import com.google.android.exoplayer2.source.TrackGroupArray;
+import com.google.android.exoplayer2.trackselection.DefaultTrackSelector;
+import com.google.android.exoplayer2.trackselection.TrackSelectionArray;
+import com.google.android.exoplayer2.upstream.DefaultDataSourceFactory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import br.com.scagliabaroni.bakingapp.common.RecipesBufferingProfile;
+import br.com.scagliabaroni.bakingapp.common.RecipesLoadControl;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measure the startup latency and the peak buffer memory of each buffering profile playing
+ * clips served by a local stand-in HTTP server, so no internet connection is needed. The clips
+ * are PCM WAV files built by the test, a short one and one longer than any buffer.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BufferingProfileInstrumentedTest {
+    private static final String TAG = "BufferingProfileTest";
+    private static final int[] CLIP_SECONDS = {5, 30};
+    private static final int SAMPLE_RATE = 48000;
+    private static final int CHANNELS = 2;
+    private static final int BYTES_PER_SAMPLE = 2;
+    private static final long READY_TIMEOUT_SECONDS = 10;
+    // How long each clip plays after it started, so the buffer grows
+    private static final long PLAY_MS = 3000;
+    // Loading is checked between reads, so the buffer may overshoot the cap a little
+    private static final int MEMORY_CAP_TOLERANCE_BYTES = 1024 * 1024;
+    private Context mTestContext;
+    private MockWebServer mServer;
+
+    @Before
+    public void setUp() throws Exception {
+        this.mTestContext = InstrumentationRegistry.getContext();
+        this.mServer = new MockWebServer();
+        // Every request gets the clip of its path, the player may ask for it more than once
+        this.mServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                int seconds = Integer.parseInt(request.getPath().replaceAll("\\D", ""));
+                return new MockResponse().setBody(buildClip(seconds))
+                        .setHeader("Content-Type", "audio/wav");
+            }
+        });
+        this.mServer.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        this.mServer.shutdown();
+    }
+
+    @Test
+    public void eachProfileStartsAndRespectsItsMemoryCap() throws Exception {
+
+        for (RecipesBufferingProfile profile : RecipesBufferingProfile.values()) {
+
+            for (int seconds : CLIP_SECONDS) {
+                this.measure(profile,
+                        Uri.parse(this.mServer.url("/clip" + seconds + ".wav").toString()));
+            }
+        }
+    }
+
+    /**
+     * A silent 16-bit PCM WAV file. The content doesn't matter, only its size and bitrate.
+     */
+    private static Buffer buildClip(int seconds) {
+        int dataLength = seconds * SAMPLE_RATE * CHANNELS * BYTES_PER_SAMPLE;
+        Buffer clip = new Buffer();
+        clip.writeUtf8("RIFF").writeIntLe(36 + dataLength).writeUtf8("WAVE");
+        // The format chunk, PCM
+        clip.writeUtf8("fmt ").writeIntLe(16).writeShortLe(1).writeShortLe(CHANNELS)
+                .writeIntLe(SAMPLE_RATE).writeIntLe(SAMPLE_RATE * CHANNELS * BYTES_PER_SAMPLE)
+                .writeShortLe(CHANNELS * BYTES_PER_SAMPLE).writeShortLe(BYTES_PER_SAMPLE * 8);
+        clip.writeUtf8("data").writeIntLe(dataLength);
+        clip.write(new byte[dataLength]);
+        return clip;
+    }
+
+    private void measure(RecipesBufferingProfile profile, final Uri uri) throws Exception {
+        final RecipesLoadControl loadControl = new RecipesLoadControl(profile);
+        final SimpleExoPlayer[] player = new SimpleExoPlayer[1];
+        final CountDownLatch readyLatch = new CountDownLatch(1);
+        final long[] preparedAt = new long[1];
+        final long[] readyAt = new long[1];
+
+        // The player is driven from main thread, like in the app
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                player[0] = ExoPlayerFactory.newSimpleInstance(
+                        InstrumentationRegistry.getTargetContext(), new DefaultTrackSelector(),
+                        loadControl);
+                player[0].addListener(new ReadyListener(readyLatch, readyAt));
+                preparedAt[0] = SystemClock.elapsedRealtime();
+                player[0].prepare(new ExtractorMediaSource(uri,
+                        new DefaultDataSourceFactory(mTestContext, TAG),
+                        new DefaultExtractorsFactory(), null, null));
+                player[0].setPlayWhenReady(true);
+            }
+        });
+        try {
+            assertTrue(uri + " didn't start with " + profile,
+                    readyLatch.await(READY_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+            SystemClock.sleep(PLAY_MS);
+            int peakAllocatedBytes = loadControl.getPeakAllocatedBytes();
+            Log.i(TAG, String.format("%s %s: startup %d ms, peak buffer %d bytes", profile,
+                    uri.getLastPathSegment(), readyAt[0] - preparedAt[0], peakAllocatedBytes));
+            assertTrue(peakAllocatedBytes <=
+                    profile.getMemoryCapBytes() + MEMORY_CAP_TOLERANCE_BYTES);
+        } finally {
+            InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    player[0].release();
+                }
+            });
+        }
+    }
+
+    /**
+     * Count down when the player is ready to play for the first time.
+     */
+    private static class ReadyListener implements ExoPlayer.EventListener {
+        private final CountDownLatch mReadyLatch;
+        private final long[] mReadyAt;
+
+        ReadyListener(CountDownLatch readyLatch, long[] readyAt) {
+            this.mReadyLatch = readyLatch;
+            this.mReadyAt = readyAt;
+        }
+
+        @Override
+        public void onPlayerStateChanged(boolean playWhenReady, int playbackState) {
+
+            if (playbackState == ExoPlayer.STATE_READY && this.mReadyLatch.getCount() > 0) {
+                this.mReadyAt[0] = SystemClock.elapsedRealtime();
+                this.mReadyLatch.countDown();
+            }
+        }
+
+        @Override
+        public void onTimelineChanged(Timeline timeline, Object manifest) {
+        }
+
+        @Override
+        public void onTracksChanged(TrackGroupArray trackGroups,
+                                    TrackSelectionArray trackSelections) {
+        }
+
+        @Override
+        public void onLoadingChanged(boolean isLoading) {
+        }
+
+        @Override
+        public void onPlayerError(ExoPlaybackException error) {
+        }
+
+        @Override
+        public void onPositionDiscontinuity() {
+        }
+
+        @Override
+        public void onPlaybackParametersChanged(PlaybackParameters playbackParameters) {
+        }
+    }
+}
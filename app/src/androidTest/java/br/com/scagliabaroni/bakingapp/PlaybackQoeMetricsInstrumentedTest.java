@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2017 Igor Scaglia.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package br.com.scagliabaroni.bakingapp;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Bundle;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import br.com.scagliabaroni.bakingapp.activity.RecipeDetailStepActivity;
+import br.com.scagliabaroni.bakingapp.common.PlaybackQoeMetrics;
+import br.com.scagliabaroni.bakingapp.common.RecipesExoPlayerManager;
+import br.com.scagliabaroni.bakingapp.common.RecipesPlaybackSession;
+import br.com.scagliabaroni.bakingapp.common.TargetContentIntent;
+import br.com.scagliabaroni.bakingapp.model.Step;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Each step prepared in the player must hand exactly one session to the metrics sink, even when
+ * the player moves to another step before the previous one was played.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PlaybackQoeMetricsInstrumentedTest {
+    private final List<PlaybackQoeMetrics.Session> mSessions = new ArrayList<>();
+    private MockWebServer mServer;
+
+    @Before
+    public void setUp() throws Exception {
+        this.mServer = new MockWebServer();
+        this.mServer.start();
+        PlaybackQoeMetrics.getInstance().setSink(new PlaybackQoeMetrics.Sink() {
+            @Override
+            public void onSessionFinished(PlaybackQoeMetrics.Session session) {
+                synchronized (mSessions) {
+                    mSessions.add(session);
+                }
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        // Back to the log
+        PlaybackQoeMetrics.getInstance().setSink(null);
+        this.mServer.shutdown();
+    }
+
+    @Test
+    public void eachPreparedStepFinishesOneSession() throws Exception {
+        final Context appContext = InstrumentationRegistry.getTargetContext();
+        // The content isn't a real video, the sessions are recorded anyway
+        this.mServer.enqueue(new MockResponse().setBody("first"));
+        this.mServer.enqueue(new MockResponse().setBody("second"));
+        final Step firstStep = this.buildStep(1, "/first.mp4");
+        final Step secondStep = this.buildStep(2, "/second.mp4");
+        final TargetContentIntent targetContentIntent = new TargetContentIntent() {
+            @Override
+            public Class getActivityClass() {
+                return RecipeDetailStepActivity.class;
+            }
+
+            @Override
+            public Bundle getExtras() {
+                return new Bundle();
+            }
+        };
+
+        // The player lives on main thread
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                RecipesPlaybackSession playbackSession = new RecipesPlaybackSession(appContext);
+                RecipesExoPlayerManager manager = new RecipesExoPlayerManager(appContext, null,
+                        playbackSession);
+                manager.initializePlayer(firstStep, Uri.parse(firstStep.getVideoURL()),
+                        "Recipe", "First", targetContentIntent);
+                manager.initializePlayer(secondStep, Uri.parse(secondStep.getVideoURL()),
+                        "Recipe", "Second", targetContentIntent);
+                manager.destroy();
+                playbackSession.release();
+            }
+        });
+
+        synchronized (this.mSessions) {
+            assertEquals(2, this.mSessions.size());
+            assertEquals(Integer.valueOf(1), this.mSessions.get(0).getIdStep());
+            assertEquals(Integer.valueOf(2), this.mSessions.get(1).getIdStep());
+        }
+    }
+
+    private Step buildStep(int idStep, String path) {
+        Step step = new Step();
+        step.setId(idStep);
+        step.setVideoURL(this.mServer.url(path).toString());
+        return step;
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2017 Igor Scaglia.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package br.com.scagliabaroni.bakingapp;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import br.com.scagliabaroni.bakingapp.common.RecipesCatalogLoader;
+import br.com.scagliabaroni.bakingapp.common.RecipesCircuitBreaker;
+import br.com.scagliabaroni.bakingapp.database.DatabaseContract;
+import br.com.scagliabaroni.bakingapp.provider.RecipesProvider;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.SocketPolicy;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Load the recipes catalog from a local stand-in HTTP server that fails on purpose, to check
+ * the retries and that the local recipes are only replaced by a complete download.
+ */
+@RunWith(AndroidJUnit4.class)
+public class RecipesCatalogLoaderInstrumentedTest {
+    private static final String CATALOG = "[" +
+            "{\"id\":1,\"name\":\"Cake\",\"servings\":8,\"image\":\"\"," +
+            "\"ingredients\":[{\"quantity\":2,\"measure\":\"CUP\",\"ingredient\":\"flour\"}]," +
+            "\"steps\":[{\"id\":0,\"shortDescription\":\"Intro\",\"description\":\"Intro\"," +
+            "\"videoURL\":\"\",\"thumbnailURL\":\"\"}]}," +
+            "{\"id\":2,\"name\":\"Pie\",\"servings\":6,\"image\":\"\"," +
+            "\"ingredients\":[],\"steps\":[]}]";
+    private Context mContext;
+    private MockWebServer mServer;
+
+    @Before
+    public void setUp() throws Exception {
+        this.mContext = InstrumentationRegistry.getTargetContext();
+        // Start from an empty list and a closed circuit
+        this.mContext.getContentResolver().delete(RecipesProvider.Recipe.CONTENT_URI, null, null);
+        RecipesCatalogLoader.getCircuitBreaker(this.mContext).onSuccess();
+        this.mServer = new MockWebServer();
+        this.mServer.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        this.mServer.shutdown();
+    }
+
+    @Test
+    public void serverErrorIsRetried() {
+        this.mServer.enqueue(new MockResponse().setResponseCode(503));
+        this.mServer.enqueue(new MockResponse().setBody(CATALOG));
+
+        assertEquals(2, this.newLoader(false).load());
+        assertEquals(2, this.mServer.getRequestCount());
+        assertEquals(2, this.countRecipes());
+    }
+
+    @Test
+    public void brokenDownloadKeepsLocalRecipes() {
+        ContentValues values = new ContentValues();
+        values.put(DatabaseContract.RecipeEntry.COLUMN_NAME, "Local");
+        values.put(DatabaseContract.RecipeEntry.COLUMN_SERVINGS, 1);
+        this.mContext.getContentResolver().insert(RecipesProvider.Recipe.CONTENT_URI, values);
+        int maxAttempts = this.mContext.getResources().getInteger(R.integer.sync_max_attempts);
+
+        // Every attempt drops the connection in the middle of the catalog
+        for (int i = 0; i < maxAttempts; i++) {
+            this.mServer.enqueue(new MockResponse().setBody(CATALOG)
+                    .setSocketPolicy(SocketPolicy.DISCONNECT_DURING_RESPONSE_BODY));
+        }
+
+        assertEquals(0, this.newLoader(true).load());
+        assertEquals(maxAttempts, this.mServer.getRequestCount());
+        assertEquals(1, this.countRecipes());
+    }
+
+    @Test
+    public void partialCommitIsReplacedByRetry() {
+        // Whatever was committed before the connection dropped is replaced by the retry
+        this.mServer.enqueue(new MockResponse().setBody(CATALOG)
+                .setSocketPolicy(SocketPolicy.DISCONNECT_DURING_RESPONSE_BODY));
+        this.mServer.enqueue(new MockResponse().setBody(CATALOG));
+
+        assertEquals(2, this.newLoader(false).load());
+        assertEquals(2, this.countRecipes());
+    }
+
+    @Test
+    public void objectInsteadOfCatalogIsRetried() {
+        // A 200 with an error object, like the ones some proxies send, is not the catalog
+        this.mServer.enqueue(new MockResponse().setBody("{\"error\":\"maintenance\"}"));
+        this.mServer.enqueue(new MockResponse().setBody(CATALOG));
+
+        assertEquals(2, this.newLoader(false).load());
+        assertEquals(2, this.mServer.getRequestCount());
+        assertEquals(RecipesCircuitBreaker.State.CLOSED,
+                RecipesCatalogLoader.getCircuitBreaker(this.mContext).getState());
+    }
+
+    private RecipesCatalogLoader newLoader(boolean replace) {
+        return new RecipesCatalogLoader(this.mContext, this.mServer.url("/").toString(), replace);
+    }
+
+    private int countRecipes() {
+        Cursor cursor = this.mContext.getContentResolver().query(
+                RecipesProvider.Recipe.CONTENT_URI, new String[]{"count(*)"}, null, null, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
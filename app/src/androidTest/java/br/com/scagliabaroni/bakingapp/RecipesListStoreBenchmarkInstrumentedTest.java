@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2017 Igor Scaglia.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package br.com.scagliabaroni.bakingapp;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Build;
+import android.os.Debug;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+import android.support.test.filters.SdkSuppress;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import br.com.scagliabaroni.bakingapp.common.RecipesListStore;
+import br.com.scagliabaroni.bakingapp.database.DatabaseContract;
+import br.com.scagliabaroni.bakingapp.model.Recipe;
+import br.com.scagliabaroni.bakingapp.provider.RecipesProvider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compare reading every row of the recipes list from the cursor, as the adapter did, and from
+ * the mapped list store, on a catalog much bigger than the real one.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class RecipesListStoreBenchmarkInstrumentedTest {
+    private static final String TAG = "RecipesListBenchmark";
+    private static final int RECIPES = 50000;
+    private Context mContext;
+
+    @Before
+    public void setUp() throws Exception {
+        this.mContext = InstrumentationRegistry.getTargetContext();
+        this.mContext.getContentResolver().delete(RecipesProvider.Recipe.CONTENT_URI, null, null);
+        ContentValues[] recipes = new ContentValues[RECIPES];
+
+        for (int i = 0; i < RECIPES; i++) {
+            recipes[i] = new ContentValues();
+            recipes[i].put(DatabaseContract.RecipeEntry.COLUMN_NAME, "Recipe number " + i);
+            recipes[i].put(DatabaseContract.RecipeEntry.COLUMN_SERVINGS, i % 12 + 1);
+            recipes[i].put(DatabaseContract.RecipeEntry.COLUMN_IMAGE, "");
+        }
+        this.mContext.getContentResolver().bulkInsert(RecipesProvider.Recipe.CONTENT_URI, recipes);
+        RecipesListStore.getInstance(this.mContext).rebuild();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        this.mContext.getContentResolver().delete(RecipesProvider.Recipe.CONTENT_URI, null, null);
+        RecipesListStore.getInstance(this.mContext).rebuild();
+    }
+
+    /**
+     * The allocated bytes are counted for the whole process, as the runtime stats are only
+     * available from Marshmallow on.
+     */
+    @Test
+    @SdkSuppress(minSdkVersion = Build.VERSION_CODES.M)
+    public void mappedListReadsWithoutAllocating() {
+        Cursor cursor = this.mContext.getContentResolver()
+                .query(RecipesProvider.Recipe.CONTENT_URI, null, null, null, null);
+        assertNotNull(cursor);
+        RecipesListStore.Reader reader = RecipesListStore.getInstance(this.mContext).getReader();
+        assertNotNull(reader);
+        assertTrue(reader.matches(cursor));
+        char[] name = new char[64];
+        long checksum = 0;
+
+        // Cursor path, one recipe per row like the adapter did
+        long allocatedBefore = getAllocatedBytes();
+        long start = System.nanoTime();
+
+        for (int i = 0; i < RECIPES; i++) {
+            cursor.moveToPosition(i);
+            Recipe recipe = Recipe.from(cursor);
+            checksum += recipe.getName().length() + recipe.getServings();
+        }
+        long cursorNanos = System.nanoTime() - start;
+        long cursorBytes = getAllocatedBytes() - allocatedBefore;
+
+        // Mapped path, straight from the mapped pages
+        allocatedBefore = getAllocatedBytes();
+        start = System.nanoTime();
+
+        for (int i = 0; i < RECIPES; i++) {
+            checksum -= reader.getName(i, name) + reader.getServings(i);
+        }
+        long mappedNanos = System.nanoTime() - start;
+        long mappedBytes = getAllocatedBytes() - allocatedBefore;
+        cursor.close();
+
+        Log.i(TAG, String.format("%d rows, cursor %d ms and %d bytes allocated, " +
+                        "mapped %d ms and %d bytes allocated", RECIPES, cursorNanos / 1000000,
+                cursorBytes, mappedNanos / 1000000, mappedBytes));
+        // Both paths read the same rows
+        assertEquals(0, checksum);
+        assertTrue(mappedBytes < cursorBytes);
+    }
+
+    private static long getAllocatedBytes() {
+        return Long.parseLong(Debug.getRuntimeStat("art.gc.bytes-allocated"));
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright (c) 2017 Igor Scaglia.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package br.com.scagliabaroni.bakingapp;
+
+import android.content.ContentProviderOperation;
+import android.content.Context;
+import android.database.Cursor;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import br.com.scagliabaroni.bakingapp.common.RecipesCatalogLoader;
+import br.com.scagliabaroni.bakingapp.database.DatabaseContract;
+import br.com.scagliabaroni.bakingapp.model.Ingredient;
+import br.com.scagliabaroni.bakingapp.model.Recipe;
+import br.com.scagliabaroni.bakingapp.model.Step;
+import br.com.scagliabaroni.bakingapp.provider.RecipesProvider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Search a catalog much bigger than the real one, ingested the way the loader does, through
+ * the full-text index of the provider.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class RecipesSearchBenchmarkInstrumentedTest {
+    private static final String TAG = "RecipesSearchBenchmark";
+    private static final int RECIPES = 50000;
+    private static final int RECIPES_PER_BATCH = 500;
+    private static final int PAGE_SIZE = 50;
+    private static final String[] DISHES = {"Chocolate Cake", "Lemon Pie", "Banana Bread",
+            "Cheesecake", "Brownies", "Apple Crumble"};
+    private Context mContext;
+
+    @Before
+    public void setUp() throws Exception {
+        this.mContext = InstrumentationRegistry.getTargetContext();
+        this.mContext.getContentResolver().delete(RecipesProvider.Recipe.CONTENT_URI, null, null);
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        long start = System.nanoTime();
+
+        for (int i = 0; i < RECIPES; i++) {
+            RecipesCatalogLoader.addRecipeOperations(recipe(i), operations);
+
+            if ((i + 1) % RECIPES_PER_BATCH == 0) {
+                this.mContext.getContentResolver()
+                        .applyBatch(RecipesProvider.AUTHORITY, operations);
+                operations.clear();
+            }
+        }
+        Log.i(TAG, String.format("%d recipes ingested in %d ms", RECIPES,
+                (System.nanoTime() - start) / 1000000));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        this.mContext.getContentResolver().delete(RecipesProvider.Recipe.CONTENT_URI, null, null);
+    }
+
+    @Test
+    public void prefixSearchIsRankedAndPaged() {
+        String matchQuery = RecipesProvider.Search.matchQuery("choc");
+        long start = System.nanoTime();
+        List<String> firstPage = this.searchNames(matchQuery, 0);
+        long firstPageNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        List<String> secondPage = this.searchNames(matchQuery, PAGE_SIZE);
+        long secondPageNanos = System.nanoTime() - start;
+
+        Log.i(TAG, String.format("%d recipes, first page %d ms, second page %d ms", RECIPES,
+                firstPageNanos / 1000000, secondPageNanos / 1000000));
+        assertEquals(PAGE_SIZE, firstPage.size());
+        assertEquals(PAGE_SIZE, secondPage.size());
+
+        // Chocolate only in the ingredients of other dishes, the names rank first
+        for (String name : firstPage) {
+            assertTrue(name, name.startsWith("Chocolate"));
+        }
+        // Pages don't repeat results
+        Set<String> names = new HashSet<>(firstPage);
+        names.addAll(secondPage);
+        assertEquals(PAGE_SIZE * 2, names.size());
+    }
+
+    @Test
+    public void shortPrefixRanksEveryRecipe() {
+        // Every recipe is baked, so all of them are ranked before the page is taken
+        String matchQuery = RecipesProvider.Search.matchQuery("b");
+        long start = System.nanoTime();
+        List<String> firstPage = this.searchNames(matchQuery, 0);
+        long firstPageNanos = System.nanoTime() - start;
+
+        Log.i(TAG, String.format("%d recipes, first page of \"b\" %d ms", RECIPES,
+                firstPageNanos / 1000000));
+        assertEquals(PAGE_SIZE, firstPage.size());
+
+        // The names matching rank first
+        for (String name : firstPage) {
+            assertTrue(name, name.startsWith("Banana Bread") || name.startsWith("Brownies"));
+        }
+    }
+
+    @Test
+    public void everyWordMustMatch() {
+        // Cheesecake is a name word and butter an ingredient of every third recipe
+        List<String> names =
+                this.searchNames(RecipesProvider.Search.matchQuery("chees butt"), 0);
+        assertFalse(names.isEmpty());
+
+        for (String name : names) {
+            assertTrue(name, name.startsWith("Cheesecake"));
+        }
+        // Steps are indexed too
+        assertFalse(this.searchNames(RecipesProvider.Search.matchQuery("preheat"), 0).isEmpty());
+        // No lemon pie has chocolate chips
+        assertTrue(this.searchNames(RecipesProvider.Search.matchQuery("lemon chip"), 0)
+                .isEmpty());
+    }
+
+    @Test
+    public void deletedRecipesLeaveTheIndex() {
+        this.mContext.getContentResolver().delete(RecipesProvider.Recipe.CONTENT_URI, null, null);
+        assertTrue(this.searchNames(RecipesProvider.Search.matchQuery("choc"), 0).isEmpty());
+    }
+
+    @Test
+    public void textBecomesPrefixQuery() {
+        assertEquals("choc* cake*", RecipesProvider.Search.matchQuery("  Choc-CAKE! "));
+        assertEquals("nutella* or*", RecipesProvider.Search.matchQuery("\"nutella\" OR"));
+        assertNull(RecipesProvider.Search.matchQuery(" *-\" "));
+        assertNull(RecipesProvider.Search.matchQuery(null));
+        Locale defaultLocale = Locale.getDefault();
+        try {
+            // The Turkish lower case of I is a dotless i
+            Locale.setDefault(new Locale("tr", "TR"));
+            assertEquals("pie*", RecipesProvider.Search.matchQuery("PIE"));
+        } finally {
+            Locale.setDefault(defaultLocale);
+        }
+    }
+
+    private List<String> searchNames(String matchQuery, int offset) {
+        Cursor cursor = this.mContext.getContentResolver().query(
+                RecipesProvider.Search.RECIPES_URI, RecipesProvider.Recipe.PROJECTION,
+                RecipesProvider.Search.SELECTION, new String[]{matchQuery},
+                RecipesProvider.Search.rankedPage(matchQuery, offset, PAGE_SIZE));
+        assertNotNull(cursor);
+        List<String> names = new ArrayList<>(cursor.getCount());
+
+        while (cursor.moveToNext()) {
+            names.add(cursor.getString(
+                    cursor.getColumnIndex(DatabaseContract.RecipeEntry.COLUMN_NAME)));
+        }
+        cursor.close();
+        return names;
+    }
+
+    /**
+     * A dish of the list, every third one with chocolate chips and butter in it.
+     */
+    private static Recipe recipe(int i) {
+        Recipe recipe = new Recipe();
+        recipe.setName(DISHES[i % DISHES.length] + " " + i);
+        recipe.setServings(i % 12 + 1);
+        recipe.setImage("");
+        List<Ingredient> ingredients = new ArrayList<>();
+        ingredients.add(ingredient("sugar"));
+        ingredients.add(ingredient("flour"));
+
+        if (i % 3 == 0) {
+            ingredients.add(ingredient("chocolate chips"));
+            ingredients.add(ingredient("butter"));
+        }
+        recipe.setIngredients(ingredients);
+        List<Step> steps = new ArrayList<>();
+
+        for (int j = 0; j < 2; j++) {
+            Step step = new Step();
+            step.setShortDescription(j == 0 ? "Preheat" : "Bake");
+            step.setDescription(j == 0 ? "Preheat the oven." : "Bake until golden.");
+            step.setVideoURL("");
+            step.setThumbnailURL("");
+            steps.add(step);
+        }
+        recipe.setSteps(steps);
+        return recipe;
+    }
+
+    private static Ingredient ingredient(String name) {
+        Ingredient ingredient = new Ingredient();
+        ingredient.setIngredient(name);
+        ingredient.setMeasure("CUP");
+        ingredient.setQuantity(1.0);
+        return ingredient;
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2017 Igor Scaglia.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package br.com.scagliabaroni.bakingapp;
+
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import br.com.scagliabaroni.bakingapp.common.RecipesSnapshotCodec;
+import br.com.scagliabaroni.bakingapp.model.Ingredient;
+import br.com.scagliabaroni.bakingapp.model.Recipe;
+import br.com.scagliabaroni.bakingapp.model.Step;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compare decoding a catalog much bigger than the real one from the snapshot and from JSON, on
+ * the device. The times are logged, they vary too much between devices to be asserted.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class RecipesSnapshotBenchmarkInstrumentedTest {
+    private static final String TAG = "RecipesSnapshotBenchmark";
+    private static final int RECIPES = 5000;
+    private static final int ROUNDS = 10;
+
+    @Test
+    public void decodeSnapshotAndJson() throws Exception {
+        List<Recipe> recipes = catalog(RECIPES);
+        Gson gson = new Gson();
+        String json = gson.toJson(recipes);
+        byte[] encoded = RecipesSnapshotCodec.encode(recipes);
+        // Direct, like the memory-mapped file
+        ByteBuffer snapshot = ByteBuffer.allocateDirect(encoded.length);
+        snapshot.put(encoded);
+        long snapshotNanos = Long.MAX_VALUE;
+        long jsonNanos = Long.MAX_VALUE;
+
+        // The best round of each, the first ones run before the JIT warms up
+        for (int i = 0; i < ROUNDS; i++) {
+            snapshot.rewind();
+            long start = System.nanoTime();
+            assertEquals(RECIPES, RecipesSnapshotCodec.decode(snapshot).size());
+            snapshotNanos = Math.min(snapshotNanos, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            List<Recipe> decoded = gson.fromJson(json, new TypeToken<List<Recipe>>() {
+            }.getType());
+            assertEquals(RECIPES, decoded.size());
+            jsonNanos = Math.min(jsonNanos, System.nanoTime() - start);
+        }
+        Log.i(TAG, String.format("%d recipes, snapshot %d bytes in %d ms, JSON %d bytes in %d ms",
+                RECIPES, encoded.length, snapshotNanos / 1000000, json.length(),
+                jsonNanos / 1000000));
+    }
+
+    /**
+     * Recipes shaped like the real ones, sharing measures, ingredients and thumbnails.
+     */
+    private static List<Recipe> catalog(int size) {
+        String[] measures = {"CUP", "TBLSP", "TSP", "K", "G", "OZ", "UNIT"};
+        List<Recipe> recipes = new ArrayList<>(size);
+
+        for (int i = 0; i < size; i++) {
+            Recipe recipe = new Recipe();
+            recipe.setId(i + 1);
+            recipe.setName("Recipe " + i);
+            recipe.setServings(8);
+            recipe.setImage("");
+            List<Ingredient> ingredients = new ArrayList<>();
+
+            for (int j = 0; j < 9; j++) {
+                Ingredient ingredient = new Ingredient();
+                ingredient.setQuantity(j * 0.5);
+                ingredient.setMeasure(measures[j % measures.length]);
+                ingredient.setIngredient("ingredient " + (i + j) % 40);
+                ingredients.add(ingredient);
+            }
+            recipe.setIngredients(ingredients);
+            List<Step> steps = new ArrayList<>();
+
+            for (int j = 0; j < 10; j++) {
+                Step step = new Step();
+                step.setId(j);
+                step.setShortDescription("Step " + j);
+                step.setDescription(j + ". Mix the ingredients of recipe " + i + " well.");
+                step.setVideoURL(j % 3 == 0 ? "" : "https://example.com/" + i + "/" + j + ".mp4");
+                step.setThumbnailURL("");
+                steps.add(step);
+            }
+            recipe.setSteps(steps);
+            recipes.add(recipe);
+        }
+        return recipes;
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2017 Igor Scaglia.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package br.com.scagliabaroni.bakingapp;
+
+import android.content.Context;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Random;
+
+import br.com.scagliabaroni.bakingapp.common.RecipesVideoCache;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okio.Buffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Read a media file served by a local stand-in HTTP server through the video cache, so no
+ * internet connection is needed.
+ */
+@RunWith(AndroidJUnit4.class)
+public class VideoCacheInstrumentedTest {
+    private static final int MEDIA_LENGTH = 512 * 1024;
+    private MockWebServer mServer;
+    private byte[] mMedia;
+
+    @Before
+    public void setUp() throws Exception {
+        // Fake media file, the cache doesn't care about its content
+        this.mMedia = new byte[MEDIA_LENGTH];
+        new Random(42).nextBytes(this.mMedia);
+        this.mServer = new MockWebServer();
+        this.mServer.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        this.mServer.shutdown();
+    }
+
+    @Test
+    public void secondReadComesFromCache() throws Exception {
+        Context appContext = InstrumentationRegistry.getTargetContext();
+        RecipesVideoCache videoCache = RecipesVideoCache.getInstance(appContext);
+        // Each run gets a new port, so a new cache key
+        Uri uri = Uri.parse(this.mServer.url("/step.mp4").toString());
+        this.mServer.enqueue(new MockResponse().setBody(new Buffer().write(this.mMedia)));
+        RecipesVideoCache.Metrics before = videoCache.getMetrics();
+
+        // First read downloads and writes the cache, second read should only hit the cache
+        assertArrayEquals(this.mMedia, this.read(videoCache.getDataSourceFactory(), uri));
+        assertArrayEquals(this.mMedia, this.read(videoCache.getDataSourceFactory(), uri));
+
+        RecipesVideoCache.Metrics after = videoCache.getMetrics();
+        // Only one request has reached the server
+        assertEquals(1, this.mServer.getRequestCount());
+        assertEquals(MEDIA_LENGTH, after.networkBytesRead - before.networkBytesRead);
+        assertEquals(MEDIA_LENGTH, after.cachedBytesRead - before.cachedBytesRead);
+        assertTrue(after.cacheReads > before.cacheReads);
+    }
+
+    private byte[] read(DataSource.Factory factory, Uri uri) throws Exception {
+        DataSource dataSource = factory.createDataSource();
+        byte[] result = new byte[MEDIA_LENGTH];
+        int offset = 0;
+        try {
+            dataSource.open(new DataSpec(uri, 0, MEDIA_LENGTH, null));
+            int read;
+
+            while (offset < MEDIA_LENGTH && (read = dataSource
+                    .read(result, offset, MEDIA_LENGTH - offset)) != C.RESULT_END_OF_INPUT) {
+                offset += read;
+            }
+        } finally {
+            dataSource.close();
+        }
+        assertEquals(MEDIA_LENGTH, offset);
+        return result;
+    }
+}
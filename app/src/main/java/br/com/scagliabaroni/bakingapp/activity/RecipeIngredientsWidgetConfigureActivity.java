@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2017 Igor Scaglia.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package br.com.scagliabaroni.bakingapp.activity;
+
+import android.appwidget.AppWidgetManager;
+import android.content.Intent;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.support.v4.app.LoaderManager;
+import android.support.v4.content.Loader;
+import android.support.v7.app.AppCompatActivity;
+import android.view.View;
+import android.widget.AdapterView;
+import android.widget.ListView;
+import android.widget.SimpleCursorAdapter;
+import android.widget.TextView;
+
+import br.com.scagliabaroni.bakingapp.R;
+import br.com.scagliabaroni.bakingapp.common.ContentObserverAsyncTaskLoader;
+import br.com.scagliabaroni.bakingapp.common.RecipesTaskExecutor;
+import br.com.scagliabaroni.bakingapp.database.DatabaseContract;
+import br.com.scagliabaroni.bakingapp.model.Recipe;
+import br.com.scagliabaroni.bakingapp.provider.RecipesProvider;
+import br.com.scagliabaroni.bakingapp.service.RecipesLoadIntentService;
+import br.com.scagliabaroni.bakingapp.widget.RecipeIngredientsWidgetStore;
+import br.com.scagliabaroni.bakingapp.widget.RecipeIngredientsWidgetUpdateQueue;
+import butterknife.BindView;
+import butterknife.ButterKnife;
+import timber.log.Timber;
+
+/**
+ * Opened by the launcher when an ingredients widget is added, to choose the recipe it shows.
+ */
+public class RecipeIngredientsWidgetConfigureActivity extends AppCompatActivity implements
+        LoaderManager.LoaderCallbacks<Cursor>,
+        AdapterView.OnItemClickListener {
+    private static final int LOADER_ID = 0;
+    private int mAppWidgetId = AppWidgetManager.INVALID_APPWIDGET_ID;
+    private SimpleCursorAdapter mRecipesAdapter;
+    @BindView(R.id.WidgetConfigureListView)
+    ListView mWidgetConfigureListView;
+    @BindView(R.id.WidgetConfigureEmptyTextView)
+    TextView mWidgetConfigureEmptyTextView;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        // If the user goes back the widget must not be added
+        this.setResult(RESULT_CANCELED);
+        setContentView(R.layout.activity_recipe_ingredients_widget_configure);
+        // Enable ButterKnife
+        ButterKnife.bind(this);
+
+        if (this.getIntent().getExtras() != null) {
+            this.mAppWidgetId = this.getIntent().getExtras().getInt(
+                    AppWidgetManager.EXTRA_APPWIDGET_ID, AppWidgetManager.INVALID_APPWIDGET_ID);
+        }
+
+        // Nothing to configure
+        if (this.mAppWidgetId == AppWidgetManager.INVALID_APPWIDGET_ID) {
+            this.finish();
+            return;
+        }
+        // One line with the name of each recipe
+        this.mRecipesAdapter = new SimpleCursorAdapter(this,
+                android.R.layout.simple_list_item_1, null,
+                new String[]{DatabaseContract.RecipeEntry.COLUMN_NAME},
+                new int[]{android.R.id.text1}, 0);
+        this.mWidgetConfigureListView.setAdapter(this.mRecipesAdapter);
+        this.mWidgetConfigureListView.setEmptyView(this.mWidgetConfigureEmptyTextView);
+        this.mWidgetConfigureListView.setOnItemClickListener(this);
+        // Create loader for recipes list
+        this.getSupportLoaderManager().initLoader(LOADER_ID, null, this);
+        // The app may never have been opened, so make sure there are recipes to choose
+        RecipesLoadIntentService.startRecipesLoadStopWhenDataExists(this);
+    }
+
+    @Override
+    public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
+        Cursor cursor = this.mRecipesAdapter.getCursor();
+
+        if (cursor == null || !cursor.moveToPosition(position)) {
+            return;
+        }
+        Recipe recipe = Recipe.from(cursor);
+        // Bind this widget to the recipe and build it, with its rows
+        RecipeIngredientsWidgetStore.setRecipe(this, this.mAppWidgetId, recipe.getName());
+        RecipeIngredientsWidgetUpdateQueue.getInstance(this).requestUpdate(this.mAppWidgetId);
+        // Tell the launcher the widget is ready
+        Intent resultValue = new Intent()
+                .putExtra(AppWidgetManager.EXTRA_APPWIDGET_ID, this.mAppWidgetId);
+        this.setResult(RESULT_OK, resultValue);
+        this.finish();
+    }
+
+    @Override
+    public Loader<Cursor> onCreateLoader(int id, Bundle args) {
+        // Get the recipes from database, reloading when they change
+        return new ContentObserverAsyncTaskLoader<Cursor>(this,
+                RecipesTaskExecutor.PRIORITY_NORMAL, RecipesProvider.Recipe.CONTENT_URI) {
+
+            @Override
+            public Cursor loadInBackground() {
+                try {
+                    return getContentResolver().query(RecipesProvider.Recipe.CONTENT_URI,
+                            RecipesProvider.Recipe.PROJECTION, null, null, null);
+                } catch (Exception e) {
+                    Timber.d(e);
+                }
+                return null;
+            }
+
+            @Override
+            protected void onCanceled(Cursor data) {
+
+                // A canceled load is never delivered, so we release its cursor here
+                if (data != null) {
+                    data.close();
+                }
+            }
+        };
+    }
+
+    @Override
+    public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
+        this.mRecipesAdapter.swapCursor(data);
+    }
+
+    @Override
+    public void onLoaderReset(Loader<Cursor> loader) {
+        this.mRecipesAdapter.swapCursor(null);
+    }
+}
@@ -17,27 +17,37 @@
 package br.com.scagliabaroni.bakingapp.activity;
 
 import android.content.BroadcastReceiver;
+import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.database.Cursor;
 import android.support.v4.app.LoaderManager;
-import android.support.v4.content.AsyncTaskLoader;
 import android.support.v4.content.Loader;
 import android.support.v4.content.LocalBroadcastManager;
 import android.support.v7.app.AppCompatActivity;
 import android.os.Bundle;
+import android.os.Handler;
+import android.support.v4.view.MenuItemCompat;
 import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SearchView;
 import android.support.v7.widget.Toolbar;
+import android.text.TextUtils;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
 import android.widget.ProgressBar;
 
 import br.com.scagliabaroni.bakingapp.adapter.RecipesAdapter;
+import br.com.scagliabaroni.bakingapp.common.ContentObserverAsyncTaskLoader;
 import br.com.scagliabaroni.bakingapp.common.RecipeClickListener;
 import br.com.scagliabaroni.bakingapp.common.RecipeLongClickListener;
+import br.com.scagliabaroni.bakingapp.common.RecipesListStore;
+import br.com.scagliabaroni.bakingapp.common.RecipesSyncCoordinator;
+import br.com.scagliabaroni.bakingapp.common.RecipesSyncScheduler;
+import br.com.scagliabaroni.bakingapp.common.RecipesTaskExecutor;
 import br.com.scagliabaroni.bakingapp.common.RecipesUtils;
 import br.com.scagliabaroni.bakingapp.provider.RecipesProvider;
-import br.com.scagliabaroni.bakingapp.service.RecipeIngredientsWidgetIntentService;
 import br.com.scagliabaroni.bakingapp.service.RecipesLoadIntentService;
 import br.com.scagliabaroni.bakingapp.R;
 import br.com.scagliabaroni.bakingapp.model.Recipe;
@@ -51,15 +61,39 @@ import timber.log.Timber;
 public class RecipesActivity extends AppCompatActivity implements
         RecipeClickListener,
         RecipeLongClickListener,
-        LoaderManager.LoaderCallbacks<Cursor> {
+        LoaderManager.LoaderCallbacks<Cursor>,
+        SearchView.OnQueryTextListener {
     private static final int LOADER_ID = 0;
     private static final String PARCELABLE_RECYCLERVIEW_LAYOUT_STATE = "recyclerview_layout_state";
+    private static final String SEARCH_TEXT_STATE = "search_text_state";
+    private static final String SEARCH_LIMIT_STATE = "search_limit_state";
+    private static final String LOADER_ARG_MATCH_QUERY = "match_query";
+    private static final String LOADER_ARG_LIMIT = "limit";
     private RecipesLoadBroadcastReceiver mRecipesLoadBroadcastReceiver;
     private RecipesAdapter mRecipesAdapter;
+    private boolean mListStoreEnabled;
+    private final Handler mSearchHandler = new Handler();
+    private int mSearchDebounceMs;
+    private int mSearchPageSize;
+    private String mSearchText;
+    private String mMatchQuery;
+    // Rows of search results asked so far, by the loader and the pages appended after it
+    private int mSearchLimit;
+    // If the next page of search results is being queried
+    private boolean mSearchPageLoading;
+    // Runs the search once the user stops typing
+    private final Runnable mSearchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            search(mSearchText);
+        }
+    };
     @BindView(R.id.MainToolbar)
     Toolbar mMainToolbar;
     @BindView(R.id.MainProgressBar)
     ProgressBar mMainProgressBar;
+    @BindView(R.id.MainLoadProgressBar)
+    ProgressBar mMainLoadProgressBar;
     @BindView(R.id.RecipesRecyclerView)
     RecyclerView mRecipesRecyclerView;
 
@@ -87,6 +121,8 @@ public class RecipesActivity extends AppCompatActivity implements
         ButterKnife.bind(this);
         // Set the toolbar as an action bar
         setSupportActionBar(this.mMainToolbar);
+        // The list may read a mapped copy of the recipes instead of the cursor
+        this.mListStoreEnabled = this.getResources().getBoolean(R.bool.recipes_list_mapped_store);
         // Initialize adapter with null cursor
         this.mRecipesAdapter = new RecipesAdapter(this, null);
         // Set the default click recipe listener
@@ -97,14 +133,42 @@ public class RecipesActivity extends AppCompatActivity implements
         this.mRecipesRecyclerView.setAdapter(this.mRecipesAdapter);
         // Changes shouldn't affect the size of the RecyclerView
         this.mRecipesRecyclerView.setHasFixedSize(true);
-        // Create loader for recipes list
-        this.getSupportLoaderManager().initLoader(LOADER_ID, null, this);
+        this.mSearchDebounceMs = this.getResources().getInteger(R.integer.search_debounce_ms);
+        this.mSearchPageSize = this.getResources().getInteger(R.integer.search_page_size);
+        // Load the next page of search results when the list reaches its end
+        this.mRecipesRecyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+
+                if (dy > 0 && !recyclerView.canScrollVertically(1)) {
+                    loadNextSearchPage();
+                }
+            }
+        });
+        this.mSearchLimit = this.mSearchPageSize;
+
+        // A search survives the rotation, with the pages already loaded
+        if (savedInstanceState != null) {
+            this.mSearchText = savedInstanceState.getString(SEARCH_TEXT_STATE);
+            this.mMatchQuery = RecipesProvider.Search.matchQuery(this.mSearchText);
+            this.mSearchLimit = savedInstanceState.getInt(SEARCH_LIMIT_STATE, this.mSearchLimit);
+        }
+        // Create loader for recipes list. The loader kept along the rotation only has the first
+        // page of a search, the pages appended after it are queried again at once.
+        if (this.mSearchLimit > this.mSearchPageSize) {
+            this.getSupportLoaderManager()
+                    .restartLoader(LOADER_ID, this.createLoaderArgs(), this);
+        } else {
+            this.getSupportLoaderManager().initLoader(LOADER_ID, this.createLoaderArgs(), this);
+        }
         // Create the BroadcastReceiver
         this.mRecipesLoadBroadcastReceiver = new RecipesLoadBroadcastReceiver();
-        // Starts visual working indicator
-        this.mMainProgressBar.setVisibility(View.VISIBLE);
-        // Starts the RecipesLoadIntentService, get online recipes data and record it in database.
-        RecipesLoadIntentService.startRecipesLoad(this);
+
+        // The loader serves the recipes in database at once, the server is only asked again
+        // when they are stale. A rotation is not a launch.
+        if (savedInstanceState == null) {
+            RecipesSyncScheduler.getInstance(this).onAppLaunch();
+        }
     }
 
     @Override
@@ -113,9 +177,18 @@ public class RecipesActivity extends AppCompatActivity implements
         // Set the BroadcastReceiver
         IntentFilter receiverFilter =
                 new IntentFilter(RecipesLoadIntentService.ACTION_BROADCAST_RESULT);
+        receiverFilter.addAction(RecipesLoadIntentService.ACTION_BROADCAST_PROGRESS);
         // Register the RecipesLoadBroadcastReceiver
         LocalBroadcastManager.getInstance(this)
                 .registerReceiver(this.mRecipesLoadBroadcastReceiver, receiverFilter);
+
+        // Show the working indicator only while a load runs, not while a sync waits for the
+        // network, which may take hours
+        if (!RecipesSyncCoordinator.getInstance(this).isRunning()) {
+            this.hideLoadProgress();
+        } else if (this.mMainLoadProgressBar.getVisibility() != View.VISIBLE) {
+            this.mMainProgressBar.setVisibility(View.VISIBLE);
+        }
     }
 
     /**
@@ -131,6 +204,46 @@ public class RecipesActivity extends AppCompatActivity implements
                 .unregisterReceiver(this.mRecipesLoadBroadcastReceiver);
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        // A pending search has no list to go anymore
+        this.mSearchHandler.removeCallbacks(this.mSearchRunnable);
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        this.getMenuInflater().inflate(R.menu.menu_recipes, menu);
+        MenuItem searchMenuItem = menu.findItem(R.id.SearchMenuItem);
+        SearchView searchView = (SearchView) MenuItemCompat.getActionView(searchMenuItem);
+
+        // Show again the search restored with the activity
+        if (!TextUtils.isEmpty(this.mSearchText)) {
+            MenuItemCompat.expandActionView(searchMenuItem);
+            searchView.setQuery(this.mSearchText, false);
+        }
+        searchView.setOnQueryTextListener(this);
+        return super.onCreateOptionsMenu(menu);
+    }
+
+    @Override
+    public boolean onQueryTextChange(String newText) {
+        this.mSearchText = newText;
+        // Only the last text typed in a burst is searched
+        this.mSearchHandler.removeCallbacks(this.mSearchRunnable);
+        this.mSearchHandler.postDelayed(this.mSearchRunnable, this.mSearchDebounceMs);
+        return true;
+    }
+
+    @Override
+    public boolean onQueryTextSubmit(String query) {
+        this.mSearchText = query;
+        // No reason to wait, the user is done
+        this.mSearchHandler.removeCallbacks(this.mSearchRunnable);
+        this.search(query);
+        return true;
+    }
+
     /**
      * Called when activity begins to stop.
      */
@@ -139,6 +252,9 @@ public class RecipesActivity extends AppCompatActivity implements
         // Save the recipes recyclerview instance state
         savedInstanceState.putParcelable(PARCELABLE_RECYCLERVIEW_LAYOUT_STATE,
                 this.mRecipesRecyclerView.getLayoutManager().onSaveInstanceState());
+        // Save the search being shown
+        savedInstanceState.putString(SEARCH_TEXT_STATE, this.mSearchText);
+        savedInstanceState.putInt(SEARCH_LIMIT_STATE, this.mSearchLimit);
         super.onSaveInstanceState(savedInstanceState);
     }
 
@@ -158,30 +274,36 @@ public class RecipesActivity extends AppCompatActivity implements
 
     @Override
     public Loader<Cursor> onCreateLoader(int id, Bundle args) {
+        // Without a query it's the whole list, otherwise the page of search results
+        final String matchQuery = args.getString(LOADER_ARG_MATCH_QUERY);
+        final int limit = args.getInt(LOADER_ARG_LIMIT);
         // Create a new async loader anonymous class for get the recipes from database
-        // by contentprovider. It could be a CursorLoader either.
-        return new AsyncTaskLoader<Cursor>(this) {
-            // This will hold all data and act as cache
-            Cursor mCursor = null;
-
-            @Override
-            protected void onStartLoading() {
-                // If is not null then there is data already loaded in mCursor
-                if (mCursor != null) {
-                    // Delivers loaded data immediately
-                    deliverResult(mCursor);
-                } else {
-                    // Force a new load
-                    forceLoad();
-                }
-            }
+        // by contentprovider. It reloads by itself when the recipes change.
+        return new ContentObserverAsyncTaskLoader<Cursor>(this,
+                RecipesTaskExecutor.PRIORITY_NORMAL, RecipesProvider.Recipe.CONTENT_URI) {
 
             @Override
             public Cursor loadInBackground() {
                 try {
+
+                    // The search reads the full-text index, ranked
+                    if (matchQuery != null) {
+                        return getContentResolver().query(RecipesProvider.Search.RECIPES_URI,
+                                RecipesProvider.Recipe.PROJECTION,
+                                RecipesProvider.Search.SELECTION, new String[]{matchQuery},
+                                RecipesProvider.Search.rankedPage(matchQuery, 0, limit));
+                    }
+
                     // Get and return all recipes from database
-                    return getContentResolver()
+                    Cursor cursor = getContentResolver()
                             .query(RecipesProvider.Recipe.CONTENT_URI, null, null, null, null);
+
+                    // Map the list copy here, off the main thread, and hand it with the cursor
+                    if (mListStoreEnabled && cursor != null) {
+                        return new RecipesListStore.ReaderCursor(cursor,
+                                RecipesListStore.getInstance(getContext()).getReader());
+                    }
+                    return cursor;
                 } catch (Exception e) {
                     Timber.d(e);
                 }
@@ -189,18 +311,29 @@ public class RecipesActivity extends AppCompatActivity implements
             }
 
             @Override
-            public void deliverResult(Cursor data) {
-                // Set the cache and deliver it
-                mCursor = data;
-                super.deliverResult(mCursor);
+            protected void onCanceled(Cursor data) {
+
+                // A canceled load is never delivered, so we release its cursor here
+                if (data != null) {
+                    data.close();
+                }
             }
         };
     }
 
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-        // Set new dataset for adapter
-        this.mRecipesAdapter.swapCursor(data);
+
+        // The loader queries whole pages, so a full last page means there may be more. A reload
+        // after a change only brings the loader pages back, not the ones appended to them.
+        if (this.mMatchQuery != null && data != null) {
+            int pages = (data.getCount() + this.mSearchPageSize - 1) / this.mSearchPageSize;
+            this.mSearchLimit = Math.max(1, pages) * this.mSearchPageSize;
+        }
+        // Set new dataset for adapter, read from the mapped list copy the loader brought when
+        // it's up to date. The copy only has the whole list, never the search results.
+        this.mRecipesAdapter.swapCursor(data, data instanceof RecipesListStore.ReaderCursor ?
+                ((RecipesListStore.ReaderCursor) data).getReader() : null);
     }
 
     @Override
@@ -218,31 +351,134 @@ public class RecipesActivity extends AppCompatActivity implements
 
     @Override
     public void onRecipeLongSelected(Recipe recipe) {
-        // Update the widget with the ingredients summary text
-        RecipeIngredientsWidgetIntentService
-                .startUpdateIngredientsSummary(this.getBaseContext(), recipe);
+        // Update the widget with the ingredients summary text. Repeated long presses are
+        // coalesced by the widget update queue, so only the last recipe is pushed.
+        RecipesUtils.updateIngredientsSummaryWidget(this, recipe);
+    }
+
+    /**
+     * Show the recipes matching the text, or all of them when the text has no word.
+     */
+    private void search(String text) {
+        String matchQuery = RecipesProvider.Search.matchQuery(text);
+
+        // Same words, same results
+        if (TextUtils.equals(matchQuery, this.mMatchQuery)) {
+            return;
+        }
+        this.mMatchQuery = matchQuery;
+        this.mSearchLimit = this.mSearchPageSize;
+        this.getSupportLoaderManager().restartLoader(LOADER_ID, this.createLoaderArgs(), this);
+        this.mRecipesRecyclerView.scrollToPosition(0);
+    }
+
+    private void loadNextSearchPage() {
+
+        // Only a search is paged, one page at a time, and a short page means there is no more
+        // results
+        if (this.mMatchQuery == null || this.mSearchPageLoading ||
+                this.mRecipesAdapter.getItemCount() < this.mSearchLimit) {
+            return;
+        }
+        this.mSearchPageLoading = true;
+        final ContentResolver contentResolver = this.getContentResolver();
+        final String matchQuery = this.mMatchQuery;
+        final int offset = this.mRecipesAdapter.getItemCount();
+        final int limit = this.mSearchPageSize;
+        // Only the next page is queried, then appended to the results shown
+        RecipesTaskExecutor.getInstance().execute(RecipesTaskExecutor.LaneType.UI_CRITICAL,
+                RecipesTaskExecutor.PRIORITY_NORMAL, new Runnable() {
+                    @Override
+                    public void run() {
+                        Cursor page = null;
+                        try {
+                            page = contentResolver.query(RecipesProvider.Search.RECIPES_URI,
+                                    RecipesProvider.Recipe.PROJECTION,
+                                    RecipesProvider.Search.SELECTION, new String[]{matchQuery},
+                                    RecipesProvider.Search.rankedPage(matchQuery, offset, limit));
+
+                            // Fill the cursor window here, off the main thread
+                            if (page != null) {
+                                page.getCount();
+                            }
+                        } catch (Exception e) {
+                            Timber.d(e);
+                        }
+                        final Cursor result = page;
+                        mSearchHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                onSearchPageLoaded(matchQuery, offset, result);
+                            }
+                        });
+                    }
+                });
+    }
+
+    private void onSearchPageLoaded(String matchQuery, int offset, Cursor page) {
+        this.mSearchPageLoading = false;
+
+        // Not this list anymore, the search changed or the results were loaded again
+        if (page == null || this.isDestroyed() || !TextUtils.equals(matchQuery, this.mMatchQuery)
+                || offset != this.mRecipesAdapter.getItemCount()) {
+
+            if (page != null) {
+                page.close();
+            }
+            return;
+        }
+        this.mSearchLimit = offset + this.mSearchPageSize;
+        this.mRecipesAdapter.appendCursor(page);
+    }
+
+    private Bundle createLoaderArgs() {
+        Bundle args = new Bundle();
+        args.putString(LOADER_ARG_MATCH_QUERY, this.mMatchQuery);
+        args.putInt(LOADER_ARG_LIMIT, this.mSearchLimit);
+        return args;
+    }
+
+    private void hideLoadProgress() {
+        this.mMainProgressBar.setVisibility(View.INVISIBLE);
+        this.mMainLoadProgressBar.setVisibility(View.GONE);
     }
 
     /**
-     * This {@link BroadcastReceiver} execute UI update request if needed after
-     * a database has been loaded with new recipes
+     * This {@link BroadcastReceiver} follows a load of the recipes. Once the first recipes are
+     * in database the list shows them, so the working indicator gives place to the download
+     * progress, which stops after a database has been loaded with new recipes. The list itself
+     * is refreshed by the loader content observer.
      */
     public class RecipesLoadBroadcastReceiver extends BroadcastReceiver {
 
         @Override
         // Reminder that onReceive is executed on main thread, so we have to be quickly
         public void onReceive(Context context, Intent intent) {
-            // Hold the total of recipes loaded
-            final int totalRecipesLoaded = intent
-                    .getIntExtra(RecipesLoadIntentService.EXTENDED_DATA_TOTAL_RECIPES_LOADED, 0);
-
-            // If greater than 0 restart loader to update UI
-            if (totalRecipesLoaded > 0) {
-                // Refresh de UI by restarting loader
-                getSupportLoaderManager().restartLoader(LOADER_ID, null, RecipesActivity.this);
+
+            if (!RecipesLoadIntentService.ACTION_BROADCAST_PROGRESS.equals(intent.getAction())) {
+                // Stops visual working indicator
+                hideLoadProgress();
+                return;
+            }
+
+            // Still nothing to show in the list
+            if (intent.getIntExtra(RecipesLoadIntentService.EXTENDED_DATA_RECIPES_COMMITTED,
+                    0) == 0) {
+                return;
             }
-            // Stops visual working indicator
             mMainProgressBar.setVisibility(View.INVISIBLE);
+            mMainLoadProgressBar.setVisibility(View.VISIBLE);
+            long bytesTotal = intent
+                    .getLongExtra(RecipesLoadIntentService.EXTENDED_DATA_BYTES_TOTAL, -1);
+
+            // Without the size of the download we only show it goes on
+            if (bytesTotal > 0) {
+                long bytesRead = intent
+                        .getLongExtra(RecipesLoadIntentService.EXTENDED_DATA_BYTES_READ, 0);
+                mMainLoadProgressBar.setIndeterminate(false);
+                mMainLoadProgressBar.setMax(100);
+                mMainLoadProgressBar.setProgress((int) (bytesRead * 100 / bytesTotal));
+            }
         }
     }
 }
\ No newline at end of file
@@ -17,7 +17,7 @@
 package br.com.scagliabaroni.bakingapp.adapter;
 
 import android.content.Context;
-import android.database.Cursor;
+import android.support.v7.util.DiffUtil;
 import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -25,7 +25,10 @@ import android.view.ViewGroup;
 import android.widget.ImageView;
 import android.widget.TextView;
 
+import java.util.List;
+
 import br.com.scagliabaroni.bakingapp.common.RecipeDetailClickListener;
+import br.com.scagliabaroni.bakingapp.model.RecipeDetailSection;
 import br.com.scagliabaroni.bakingapp.model.Step;
 import br.com.scagliabaroni.bakingapp.R;
 import butterknife.BindView;
@@ -34,16 +37,16 @@ import butterknife.ButterKnife;
 /**
  * This adapter is used by RecipeDetailRecyclerView in order to show the ingredients and the
  * steps of a chosen recipe.
- * We differentiate the first element of the list loading recipe_ingredients_item layout and then
- * recipe_step_item for the remain items. By this way, we are accomplishing the requirements.
+ * Each {@link RecipeDetailSection} tells us its type, so the ingredients header loads the
+ * recipe_ingredients_item layout and the steps load the recipe_step_item layout.
  */
 public class RecipeDetailAdapter extends
         RecyclerView.Adapter<RecipeDetailAdapter.RecipeDetailViewHolder> {
-    private static final int VIEW_INGREDIENTS = 0;
-    private static final int VIEW_STEP = 1;
+    private static final int VIEW_INGREDIENTS = RecipeDetailSection.TYPE_INGREDIENTS;
+    private static final int VIEW_STEP = RecipeDetailSection.TYPE_STEP;
     private Context mContext;
     // Data container
-    private Cursor mCursor;
+    private List<RecipeDetailSection> mSections;
     // Click Listener
     private RecipeDetailClickListener mRecipeDetailClickListener;
 
@@ -56,9 +59,9 @@ public class RecipeDetailAdapter extends
         this.mRecipeDetailClickListener = recipeDetailClickListener;
     }
 
-    public RecipeDetailAdapter(Context context, Cursor cursor) {
+    public RecipeDetailAdapter(Context context, List<RecipeDetailSection> sections) {
         this.mContext = context;
-        this.mCursor = cursor;
+        this.mSections = sections;
     }
 
     @Override
@@ -96,41 +99,62 @@ public class RecipeDetailAdapter extends
     @Override
     public int getItemCount() {
 
-        // If cursor is null then item count is 0
-        if (mCursor == null) return 0;
-        return mCursor.getCount();
+        // If sections is null then item count is 0
+        if (mSections == null) return 0;
+        return mSections.size();
     }
 
     /**
-     * Based on position we back the correct layout id that we want that our view holder load up.
+     * Based on section type we back the correct layout id that we want that our view holder
+     * load up.
      */
     @Override
     public int getItemViewType(int position) {
-
-        // If 0 then we want load recipe_ingredients_item, otherwise, recipe_step_item layout.
-        if (position == 0) {
-            return VIEW_INGREDIENTS;
-        } else {
-            return VIEW_STEP;
-        }
+        return mSections.get(position).getType();
     }
 
     /**
-     * Load a new cursor inside this adapter.
+     * Load a new sections list inside this adapter. Only the sections that really changed are
+     * notified to the RecyclerView.
      *
-     * @param newCursor The new dataset that will be exchanged
+     * @param newSections The new dataset that will be exchanged
      */
-    public void swapCursor(Cursor newCursor) {
+    public void swapSections(final List<RecipeDetailSection> newSections) {
 
-        if (this.mCursor != null) {
-            this.mCursor.close();
-        }
-        this.mCursor = newCursor;
-
-        if (this.mCursor != null) {
+        // If there is nothing to compare with, just refresh everything
+        if (this.mSections == null || newSections == null) {
+            this.mSections = newSections;
             // Force the RecyclerView to refresh
             this.notifyDataSetChanged();
+            return;
         }
+        final List<RecipeDetailSection> oldSections = this.mSections;
+        // Calculate the differences section by section
+        DiffUtil.DiffResult diffResult = DiffUtil.calculateDiff(new DiffUtil.Callback() {
+            @Override
+            public int getOldListSize() {
+                return oldSections.size();
+            }
+
+            @Override
+            public int getNewListSize() {
+                return newSections.size();
+            }
+
+            @Override
+            public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+                return oldSections.get(oldItemPosition)
+                        .isSameSection(newSections.get(newItemPosition));
+            }
+
+            @Override
+            public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+                return oldSections.get(oldItemPosition)
+                        .hasSameContents(newSections.get(newItemPosition));
+            }
+        });
+        this.mSections = newSections;
+        diffResult.dispatchUpdatesTo(this);
     }
 
     /**
@@ -156,10 +180,8 @@ public class RecipeDetailAdapter extends
 
             // If has a listener
             if (mRecipeDetailClickListener != null) {
-                // Go to the right position
-                mCursor.moveToPosition(this.getAdapterPosition());
-                // Get the step from cursor
-                Step step = Step.from(mCursor);
+                // Get the step from the right position
+                Step step = mSections.get(this.getAdapterPosition()).getStep();
                 // Call listener
                 mRecipeDetailClickListener.onStepSelected(step);
             }
@@ -183,9 +205,7 @@ public class RecipeDetailAdapter extends
 
         @Override
         public void bind(int position) {
-            // We just sync the cursor moving it to the cursor to the new position. All texts are
-            // set in xml layout.
-            mCursor.moveToPosition(position);
+            // Nothing to do here. All texts are set in xml layout.
         }
     }
 
@@ -208,12 +228,10 @@ public class RecipeDetailAdapter extends
 
         @Override
         public void bind(int position) {
-            // We just move to the cursor to the new position
-            mCursor.moveToPosition(position);
-            // Get the step from cursor
-            Step step = Step.from(mCursor);
-            // Just add one in position is enough to set correct step number
-            this.mStepNumberTextView.setText(String.valueOf(position));
+            // Get the step from the section
+            Step step = mSections.get(position).getStep();
+            // The step position is the step number
+            this.mStepNumberTextView.setText(String.valueOf(step.getPosition()));
             // Set short description step
             this.mStepTitleTextView.setText(step.getShortDescription());
         }
@@ -18,8 +18,10 @@ package br.com.scagliabaroni.bakingapp.adapter;
 
 import android.content.Context;
 import android.database.Cursor;
+import android.database.MergeCursor;
 import android.graphics.drawable.Drawable;
 import android.support.v7.widget.RecyclerView;
+import android.util.SparseArray;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -28,9 +30,14 @@ import android.widget.TextView;
 
 import com.squareup.picasso.Picasso;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import br.com.scagliabaroni.bakingapp.R;
 import br.com.scagliabaroni.bakingapp.common.RecipeClickListener;
 import br.com.scagliabaroni.bakingapp.common.RecipeLongClickListener;
+import br.com.scagliabaroni.bakingapp.common.RecipesListStore;
+import br.com.scagliabaroni.bakingapp.common.RecipesOfflineStore;
 import br.com.scagliabaroni.bakingapp.model.Recipe;
 import butterknife.BindView;
 import butterknife.ButterKnife;
@@ -43,6 +50,11 @@ public class RecipesAdapter extends RecyclerView.Adapter<RecipesAdapter.RecipeVi
     private Context mContext;
     // Data container
     private Cursor mCursor;
+    // The pages read by mCursor, when pages were appended to the first one
+    private final List<Cursor> mPages = new ArrayList<>();
+    // The same recipes read from the mapped list, when it is available
+    private RecipesListStore.Reader mListReader;
+    private final SparseArray<String> mSummaries = new SparseArray<>();
     // Click Listener
     private RecipeClickListener mRecipeClickListener;
     private RecipeLongClickListener mRecipeLongClickListener;
@@ -78,17 +90,33 @@ public class RecipesAdapter extends RecyclerView.Adapter<RecipesAdapter.RecipeVi
 
     @Override
     public void onBindViewHolder(RecipeViewHolder holder, int position) {
-        // Move to the cursor to the new position
-        mCursor.moveToPosition(position);
-        // Get the recipe from cursor
-        Recipe recipe = Recipe.from(this.mCursor);
-        // Set recipe item name
-        holder.mRecipeNameTextView.setText(recipe.getName());
-        // Set summary with plurals
-        holder.mRecipeSummaryTextView.setText(this.mContext.getResources()
-                .getQuantityString(R.plurals.recipe_card_item_summary,
-                        recipe.getServings(),
-                        recipe.getServings()));
+        String image;
+
+        // The mapped list is read without creating a recipe
+        if (this.mListReader != null) {
+            int nameLength = this.mListReader.getNameLength(position);
+
+            if (holder.mNameChars.length < nameLength) {
+                holder.mNameChars = new char[nameLength];
+            }
+            this.mListReader.getName(position, holder.mNameChars);
+            // Set recipe item name
+            holder.mRecipeNameTextView.setText(holder.mNameChars, 0, nameLength);
+            // Set summary with plurals
+            holder.mRecipeSummaryTextView
+                    .setText(this.getSummary(this.mListReader.getServings(position)));
+            image = this.mListReader.getImage(position);
+        } else {
+            // Move to the cursor to the new position
+            mCursor.moveToPosition(position);
+            // Get the recipe from cursor
+            Recipe recipe = Recipe.from(this.mCursor);
+            // Set recipe item name
+            holder.mRecipeNameTextView.setText(recipe.getName());
+            // Set summary with plurals
+            holder.mRecipeSummaryTextView.setText(this.getSummary(recipe.getServings()));
+            image = recipe.getImage();
+        }
         // Below we arrange to get the correct image based on localized settings
         String imageName = this.mContext.getString(R.string.no_image_available);
         int localizableResourceId = this.mContext
@@ -96,9 +124,9 @@ public class RecipesAdapter extends RecyclerView.Adapter<RecipesAdapter.RecipeVi
                 .getIdentifier(imageName, "drawable", this.mContext.getPackageName());
         Drawable correctDrawableImage = this.mContext.getDrawable(localizableResourceId);
         try {
-            // Load recipe image with Picasso
+            // Load recipe image with Picasso, from its local copy if the recipe is kept offline
             Picasso.with(this.mContext)
-                    .load(recipe.getImage())
+                    .load(RecipesOfflineStore.getInstance(this.mContext).resolve(image))
                     .error(correctDrawableImage)
                     .into(holder.mRecipePreviewImageView);
         } catch (IllegalArgumentException e) {
@@ -121,11 +149,23 @@ public class RecipesAdapter extends RecyclerView.Adapter<RecipesAdapter.RecipeVi
      * Load a new cursor inside this adapter.
      */
     public void swapCursor(Cursor newCursor) {
+        this.swapCursor(newCursor, null);
+    }
+
+    /**
+     * Load a new cursor inside this adapter, with the mapped list of its recipes, which is
+     * read instead of the cursor when it matches it.
+     */
+    public void swapCursor(Cursor newCursor, RecipesListStore.Reader listReader) {
 
+        // Closing the merged cursor closes every page
         if (this.mCursor != null) {
             this.mCursor.close();
         }
+        this.mPages.clear();
         this.mCursor = newCursor;
+        this.mListReader = listReader != null && listReader.matches(newCursor) ?
+                listReader : null;
 
         if (this.mCursor != null) {
             // Force the RecyclerView to refresh
@@ -133,6 +173,57 @@ public class RecipesAdapter extends RecyclerView.Adapter<RecipesAdapter.RecipeVi
         }
     }
 
+    /**
+     * Add a page of recipes after the ones shown, like the next page of search results. Only
+     * the new rows are bound.
+     */
+    public void appendCursor(Cursor page) {
+
+        // Nothing shown yet, the page is the whole list
+        if (this.mCursor == null) {
+            this.swapCursor(page);
+            return;
+        }
+
+        if (this.mPages.isEmpty()) {
+            this.mPages.add(this.mCursor);
+        }
+        this.mPages.add(page);
+        int positionStart = this.getItemCount();
+        this.mCursor = new MergeCursor(this.mPages.toArray(new Cursor[this.mPages.size()]));
+        // The mapped list never has the appended rows
+        this.mListReader = null;
+        this.notifyItemRangeInserted(positionStart, page.getCount());
+    }
+
+    /**
+     * The recipe of a position, when it's clicked.
+     */
+    private Recipe getRecipe(int position) {
+
+        if (this.mListReader != null) {
+            return this.mListReader.getRecipe(position);
+        }
+        // Go to the right position
+        this.mCursor.moveToPosition(position);
+        // Get the recipe from cursor
+        return Recipe.from(this.mCursor);
+    }
+
+    /**
+     * The summary of the servings, created once for each number of servings.
+     */
+    private String getSummary(int servings) {
+        String summary = this.mSummaries.get(servings);
+
+        if (summary == null) {
+            summary = this.mContext.getResources()
+                    .getQuantityString(R.plurals.recipe_card_item_summary, servings, servings);
+            this.mSummaries.put(servings, summary);
+        }
+        return summary;
+    }
+
     public class RecipeViewHolder extends RecyclerView.ViewHolder implements
             View.OnClickListener,
             View.OnLongClickListener {
@@ -142,6 +233,8 @@ public class RecipesAdapter extends RecyclerView.Adapter<RecipesAdapter.RecipeVi
         TextView mRecipeNameTextView;
         @BindView(R.id.RecipeSummaryTextView)
         TextView mRecipeSummaryTextView;
+        // The name read from the mapped list, kept by the name view until the next bind
+        char[] mNameChars = new char[32];
 
         public RecipeViewHolder(View itemView) {
             super(itemView);
@@ -158,10 +251,7 @@ public class RecipesAdapter extends RecyclerView.Adapter<RecipesAdapter.RecipeVi
 
             // If has a listener
             if (mRecipeClickListener != null) {
-                // Go to the right position
-                mCursor.moveToPosition(this.getAdapterPosition());
-                // Get the recipe from cursor
-                Recipe recipe = Recipe.from(mCursor);
+                Recipe recipe = getRecipe(this.getAdapterPosition());
                 // Call listener
                 mRecipeClickListener.onRecipeSelected(recipe);
             }
@@ -172,10 +262,7 @@ public class RecipesAdapter extends RecyclerView.Adapter<RecipesAdapter.RecipeVi
 
             // If has a listener
             if (mRecipeLongClickListener != null) {
-                // Go to the right position
-                mCursor.moveToPosition(this.getAdapterPosition());
-                // Get the recipe from cursor
-                Recipe recipe = Recipe.from(mCursor);
+                Recipe recipe = getRecipe(this.getAdapterPosition());
                 // Call listener
                 mRecipeLongClickListener.onRecipeLongSelected(recipe);
                 return true;
@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2017 Igor Scaglia.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package br.com.scagliabaroni.bakingapp.common;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+/**
+ * Base loader that caches its result and reloads by itself when the content provider notifies a
+ * change on any of the given URIs. A sync commits many batches and every one notifies, so the
+ * notifications are coalesced: the reload happens when no new notification arrives for
+ * {@link #COALESCE_DELAY_MS}, or {@link #MAX_WAIT_MS} after the first one of a burst that goes
+ * on. It runs on the UI critical lane of {@link RecipesTaskExecutor}.
+ *
+ * @param <D> The data type loaded.
+ */
+public abstract class ContentObserverAsyncTaskLoader<D> extends RecipesTaskLoader<D> {
+    // How long we wait for the notifications burst to end before reloading
+    private static final long COALESCE_DELAY_MS = 300;
+    // How long a burst of notifications may postpone the reload
+    private static final long MAX_WAIT_MS = 1000;
+    private final Uri[] mObservedUris;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final ContentObserver mContentObserver;
+    private final Runnable mReloadRunnable;
+    private boolean mObserverRegistered = false;
+    // When the first notification not reloaded yet arrived, 0 if there is none
+    private long mBurstStartMs = 0;
+    // This will hold all data and act as cache
+    private D mData;
+
+    public ContentObserverAsyncTaskLoader(Context context, int priority, Uri... observedUris) {
+        super(context, RecipesTaskExecutor.LaneType.UI_CRITICAL, priority);
+        this.mObservedUris = observedUris;
+        this.mReloadRunnable = new Runnable() {
+            @Override
+            public void run() {
+                mBurstStartMs = 0;
+                // Reload now if started, otherwise it will reload on the next start
+                onContentChanged();
+            }
+        };
+        this.mContentObserver = new ContentObserver(this.mHandler) {
+            @Override
+            public boolean deliverSelfNotifications() {
+                return true;
+            }
+
+            @Override
+            public void onChange(boolean selfChange) {
+                long now = SystemClock.uptimeMillis();
+
+                if (mBurstStartMs == 0) {
+                    mBurstStartMs = now;
+                }
+                // Postpone the reload until the burst of notifications ends, but not longer
+                // than the max wait, so a long sync still shows its progress
+                mHandler.removeCallbacks(mReloadRunnable);
+                mHandler.postDelayed(mReloadRunnable, Math.max(0,
+                        Math.min(COALESCE_DELAY_MS, mBurstStartMs + MAX_WAIT_MS - now)));
+            }
+        };
+    }
+
+    @Override
+    protected void onStartLoading() {
+        // Start observing the URIs we query
+        this.registerObserver();
+
+        // If is not null then there is data already loaded
+        if (this.mData != null) {
+            // Delivers loaded data immediately
+            this.deliverResult(this.mData);
+        }
+
+        // If there is no data yet or content has changed while stopped, force a new load
+        if (this.takeContentChanged() || this.mData == null) {
+            this.forceLoad();
+        }
+    }
+
+    @Override
+    protected void onStopLoading() {
+        // Attempt to cancel the current load task if possible
+        this.cancelLoad();
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        // Ensure the loader is stopped
+        this.onStopLoading();
+        // Stop observing and forget any pending reload
+        this.unregisterObserver();
+        this.mData = null;
+    }
+
+    @Override
+    public void deliverResult(D data) {
+        // Set the cache and deliver it
+        this.mData = data;
+
+        if (this.isStarted()) {
+            super.deliverResult(data);
+        }
+    }
+
+    private void registerObserver() {
+
+        if (!this.mObserverRegistered) {
+
+            for (Uri uri : this.mObservedUris) {
+                this.getContext().getContentResolver()
+                        .registerContentObserver(uri, true, this.mContentObserver);
+            }
+            this.mObserverRegistered = true;
+        }
+    }
+
+    private void unregisterObserver() {
+        this.mHandler.removeCallbacks(this.mReloadRunnable);
+        this.mBurstStartMs = 0;
+
+        if (this.mObserverRegistered) {
+            this.getContext().getContentResolver()
+                    .unregisterContentObserver(this.mContentObserver);
+            this.mObserverRegistered = false;
+        }
+    }
+}
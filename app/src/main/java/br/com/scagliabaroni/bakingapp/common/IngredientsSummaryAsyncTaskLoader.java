@@ -17,12 +17,12 @@
 package br.com.scagliabaroni.bakingapp.common;
 
 import android.content.Context;
-import android.support.v4.content.AsyncTaskLoader;
 
 /**
- * Responsible for manage the creation of ingredient summary text
+ * Responsible for manage the creation of ingredient summary text. It runs on the UI critical lane
+ * with a lower priority than step navigation, so a slow summary never delays a step.
  */
-public class IngredientsSummaryAsyncTaskLoader extends AsyncTaskLoader<String> {
+public class IngredientsSummaryAsyncTaskLoader extends RecipesTaskLoader<String> {
     // Starter recipe id
     private int mStarterIdRecipe = 0;
     // Cache the id
@@ -31,7 +31,8 @@ public class IngredientsSummaryAsyncTaskLoader extends AsyncTaskLoader<String> {
     private String mIngredientsSummary = "";
 
     public IngredientsSummaryAsyncTaskLoader(Context context, int idRecipe) {
-        super(context);
+        super(context, RecipesTaskExecutor.LaneType.UI_CRITICAL,
+                RecipesTaskExecutor.PRIORITY_LOW);
         this.mStarterIdRecipe = idRecipe;
     }
 
@@ -0,0 +1,29 @@
+/*
+ * Copyright (c) 2017 Igor Scaglia.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package br.com.scagliabaroni.bakingapp.common;
+
+import android.app.Notification;
+
+/**
+ * Informed each time the player manager posts its media notification, so a service can keep
+ * itself in foreground while playing, and when the playback pauses or ends, so it can stop.
+ */
+public interface PlaybackNotificationListener {
+    void onNotificationPosted(int notificationId, Notification notification, boolean playing);
+
+    void onPlaybackIdle();
+}
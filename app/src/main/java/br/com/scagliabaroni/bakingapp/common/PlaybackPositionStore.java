@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2017 Igor Scaglia.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package br.com.scagliabaroni.bakingapp.common;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.text.TextUtils;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import br.com.scagliabaroni.bakingapp.model.Step;
+
+/**
+ * Keeps where the video of each step stopped, so it can resume from there. Positions live in
+ * memory for fast reads and are written to a small preferences file, so they also survive the
+ * process being killed. They are kept by video url, since every load of the recipes renumbers
+ * the steps, and a video watched until the end is forgotten.
+ */
+public class PlaybackPositionStore {
+    private static final String PREFERENCES_NAME = "playback_positions";
+    private static final String KEY_PREFIX = "video_";
+    private static PlaybackPositionStore sInstance;
+    private final SharedPreferences mSharedPreferences;
+    private final Map<String, Long> mPositions = new HashMap<>();
+
+    private PlaybackPositionStore(Context context) {
+        this.mSharedPreferences = context
+                .getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+    }
+
+    public static synchronized PlaybackPositionStore getInstance(Context context) {
+
+        if (sInstance == null) {
+            sInstance = new PlaybackPositionStore(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * The saved position of the step video in milliseconds, or 0 when there is none.
+     */
+    public synchronized long getPosition(Step step) {
+        String key = keyFor(step);
+
+        // Steps without video, like the ingredients one, have no position
+        if (key == null) {
+            return 0;
+        }
+        Long position = this.mPositions.get(key);
+
+        // Not read yet, so go to disk once
+        if (position == null) {
+            position = this.mSharedPreferences.getLong(key, 0);
+            this.mPositions.put(key, position);
+        }
+        return position;
+    }
+
+    /**
+     * Save the position of the step video. Disk is only touched when the position changed.
+     */
+    public synchronized void savePosition(Step step, long positionMs) {
+        String key = keyFor(step);
+
+        if (key == null || positionMs < 0) {
+            return;
+        }
+        Long previous = this.mPositions.put(key, positionMs);
+
+        if (previous == null || previous != positionMs) {
+            // apply writes asynchronously, so it's safe on main thread
+            this.mSharedPreferences.edit().putLong(key, positionMs).apply();
+        }
+    }
+
+    /**
+     * Forget the position of a step, for example when its video was watched until the end.
+     */
+    public synchronized void clearPosition(Step step) {
+        String key = keyFor(step);
+
+        if (key == null) {
+            return;
+        }
+        this.mPositions.put(key, 0L);
+        this.mSharedPreferences.edit().remove(key).apply();
+    }
+
+    private static String keyFor(Step step) {
+
+        if (step == null || TextUtils.isEmpty(step.getVideoURL())) {
+            return null;
+        }
+        return KEY_PREFIX + step.getVideoURL();
+    }
+}
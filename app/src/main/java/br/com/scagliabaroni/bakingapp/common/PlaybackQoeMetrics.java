@@ -0,0 +1,341 @@
+/*
+ * Copyright (c) 2017 Igor Scaglia.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package br.com.scagliabaroni.bakingapp.common;
+
+import android.os.SystemClock;
+
+import com.google.android.exoplayer2.ExoPlayer;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.trackselection.TrackSelection;
+import com.google.android.exoplayer2.trackselection.TrackSelectionArray;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import timber.log.Timber;
+
+/**
+ * Quality of experience of the step videos. Each step playback is recorded as a
+ * {@link Session}: time to first frame, rebuffers, bytes loaded, dropped frames and errors.
+ * The last sessions and the totals are kept in memory and every finished session is handed to
+ * a {@link Sink}, by default the log, so slow media can be spotted in production.
+ */
+public class PlaybackQoeMetrics {
+    // How many finished sessions are kept in memory
+    private static final int MAX_SESSIONS = 50;
+    private static PlaybackQoeMetrics sInstance;
+    private final LinkedList<Session> mSessions = new LinkedList<>();
+    private Sink mSink = new TimberSink();
+    private long mTotalSessions;
+    private long mTotalSessionsWithError;
+    private long mTotalRebuffers;
+    private long mTotalRebufferMs;
+    private long mTotalBytesLoaded;
+    private long mTotalDroppedFrames;
+    private long mTotalTimeToFirstFrameMs;
+    private long mTotalSessionsWithFirstFrame;
+
+    private PlaybackQoeMetrics() {
+    }
+
+    public static synchronized PlaybackQoeMetrics getInstance() {
+
+        if (sInstance == null) {
+            sInstance = new PlaybackQoeMetrics();
+        }
+        return sInstance;
+    }
+
+    /**
+     * Where the finished sessions go, for example a remote collector. Null goes back to the log.
+     */
+    public synchronized void setSink(Sink sink) {
+        this.mSink = sink == null ? new TimberSink() : sink;
+    }
+
+    /**
+     * Start recording the playback of a step video.
+     */
+    public Session startSession(Integer idStep, String mediaUri) {
+        return new Session(idStep, mediaUri);
+    }
+
+    /**
+     * Stop recording a session, aggregate and publish it.
+     */
+    public void finishSession(Session session) {
+        Sink sink;
+
+        synchronized (this) {
+            session.finish();
+            this.mSessions.addFirst(session);
+
+            // Only the last sessions are kept
+            if (this.mSessions.size() > MAX_SESSIONS) {
+                this.mSessions.removeLast();
+            }
+            this.mTotalSessions++;
+            this.mTotalSessionsWithError += session.getErrorCount() > 0 ? 1 : 0;
+            this.mTotalRebuffers += session.getRebufferCount();
+            this.mTotalRebufferMs += session.getRebufferMs();
+            this.mTotalBytesLoaded += session.getBytesLoaded();
+            this.mTotalDroppedFrames += session.getDroppedFrames();
+
+            if (session.getTimeToFirstFrameMs() >= 0) {
+                this.mTotalTimeToFirstFrameMs += session.getTimeToFirstFrameMs();
+                this.mTotalSessionsWithFirstFrame++;
+            }
+            sink = this.mSink;
+        }
+
+        // The sink is called outside the lock, it may be slow
+        if (sink != null) {
+            sink.onSessionFinished(session);
+        }
+    }
+
+    /**
+     * The last finished sessions, the most recent first.
+     */
+    public synchronized List<Session> getSessions() {
+        return new ArrayList<>(this.mSessions);
+    }
+
+    /**
+     * The totals and the last sessions as text, to be shown in a debug screen or sent by the
+     * user in a bug report.
+     */
+    public synchronized String dump() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format("sessions=%1$d, with error=%2$d, rebuffers=%3$d (%4$d ms), " +
+                        "bytes loaded=%5$d, dropped frames=%6$d, average time to first " +
+                        "frame=%7$d ms", this.mTotalSessions, this.mTotalSessionsWithError,
+                this.mTotalRebuffers, this.mTotalRebufferMs, this.mTotalBytesLoaded,
+                this.mTotalDroppedFrames, this.mTotalSessionsWithFirstFrame == 0 ? 0 :
+                        this.mTotalTimeToFirstFrameMs / this.mTotalSessionsWithFirstFrame));
+
+        for (Session session : this.mSessions) {
+            builder.append('\n').append(session);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Receives each finished session.
+     */
+    public interface Sink {
+        void onSessionFinished(Session session);
+    }
+
+    /**
+     * Default sink, writes each session to the log.
+     */
+    private static class TimberSink implements Sink {
+        @Override
+        public void onSessionFinished(Session session) {
+            Timber.i("Playback QoE: %s", session);
+        }
+    }
+
+    /**
+     * The playback of one step video. Player events arrive on main thread, bytes loaded come
+     * from the loading thread.
+     */
+    public static class Session {
+        private final Integer mIdStep;
+        private final String mMediaUri;
+        private final long mStartedAt;
+        private final AtomicLong mBytesLoaded = new AtomicLong();
+        private long mDurationMs;
+        private long mTimeToFirstFrameMs = -1;
+        private boolean mStarted;
+        private long mRebufferStartedAt;
+        private int mRebufferCount;
+        private long mRebufferMs;
+        private int mDroppedFrames;
+        private int mErrorCount;
+        private String mLastError;
+        private String mVideoFormat;
+        private long mLoadingStartedAt;
+        private long mLoadingMs;
+        private int mTrackChanges;
+        private String mSelectedTracks;
+
+        private Session(Integer idStep, String mediaUri) {
+            this.mIdStep = idStep;
+            this.mMediaUri = mediaUri;
+            this.mStartedAt = SystemClock.elapsedRealtime();
+        }
+
+        public void onFirstFrame() {
+
+            if (this.mTimeToFirstFrameMs < 0) {
+                this.mTimeToFirstFrameMs = SystemClock.elapsedRealtime() - this.mStartedAt;
+            }
+        }
+
+        /**
+         * Buffering after the playback started is a rebuffer. Seeks are counted too, since
+         * the user waits the same way.
+         */
+        public void onPlaybackStateChanged(int playbackState) {
+
+            if (playbackState == ExoPlayer.STATE_READY) {
+                this.mStarted = true;
+                this.endRebuffer();
+            } else if (playbackState == ExoPlayer.STATE_BUFFERING && this.mStarted &&
+                    this.mRebufferStartedAt == 0) {
+                this.mRebufferStartedAt = SystemClock.elapsedRealtime();
+                this.mRebufferCount++;
+            } else {
+                this.endRebuffer();
+            }
+        }
+
+        private void endRebuffer() {
+
+            if (this.mRebufferStartedAt > 0) {
+                this.mRebufferMs += SystemClock.elapsedRealtime() - this.mRebufferStartedAt;
+                this.mRebufferStartedAt = 0;
+            }
+        }
+
+        public void addBytesLoaded(int bytes) {
+            this.mBytesLoaded.addAndGet(bytes);
+        }
+
+        public void addDroppedFrames(int count) {
+            this.mDroppedFrames += count;
+        }
+
+        public void onError(Exception error) {
+            this.mErrorCount++;
+            this.mLastError = error.getClass().getSimpleName() + ": " + error.getMessage();
+        }
+
+        public void setVideoFormat(Format format) {
+            this.mVideoFormat = String.format("%1$dx%2$d %3$d bps", format.width, format.height,
+                    format.bitrate);
+        }
+
+        /**
+         * The time spent loading media, whether or not the user was waiting for it.
+         */
+        public void onLoadingChanged(boolean isLoading) {
+
+            if (isLoading && this.mLoadingStartedAt == 0) {
+                this.mLoadingStartedAt = SystemClock.elapsedRealtime();
+            } else if (!isLoading) {
+                this.endLoading();
+            }
+        }
+
+        private void endLoading() {
+
+            if (this.mLoadingStartedAt > 0) {
+                this.mLoadingMs += SystemClock.elapsedRealtime() - this.mLoadingStartedAt;
+                this.mLoadingStartedAt = 0;
+            }
+        }
+
+        /**
+         * Count the track selections and remember the formats chosen by the last one.
+         */
+        public void onTracksChanged(TrackSelectionArray trackSelections) {
+            this.mTrackChanges++;
+            StringBuilder builder = new StringBuilder();
+
+            for (int i = 0; i < trackSelections.length; i++) {
+                TrackSelection trackSelection = trackSelections.get(i);
+
+                // Renderers without a selected track are left out
+                if (trackSelection != null) {
+                    Format format = trackSelection.getSelectedFormat();
+                    builder.append(builder.length() > 0 ? ", " : "")
+                            .append(format.sampleMimeType);
+                }
+            }
+            this.mSelectedTracks = builder.toString();
+        }
+
+        private void finish() {
+            this.endRebuffer();
+            this.endLoading();
+            this.mDurationMs = SystemClock.elapsedRealtime() - this.mStartedAt;
+        }
+
+        public Integer getIdStep() {
+            return mIdStep;
+        }
+
+        public String getMediaUri() {
+            return mMediaUri;
+        }
+
+        /**
+         * From the preparation until the first frame, or -1 when no frame was rendered.
+         */
+        public long getTimeToFirstFrameMs() {
+            return mTimeToFirstFrameMs;
+        }
+
+        public int getRebufferCount() {
+            return mRebufferCount;
+        }
+
+        public long getRebufferMs() {
+            return mRebufferMs;
+        }
+
+        public long getBytesLoaded() {
+            return mBytesLoaded.get();
+        }
+
+        public int getDroppedFrames() {
+            return mDroppedFrames;
+        }
+
+        public int getErrorCount() {
+            return mErrorCount;
+        }
+
+        public String getLastError() {
+            return mLastError;
+        }
+
+        public long getLoadingMs() {
+            return mLoadingMs;
+        }
+
+        public int getTrackChanges() {
+            return mTrackChanges;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("step=%1$s, duration=%2$d ms, first frame=%3$d ms, " +
+                            "rebuffers=%4$d (%5$d ms), bytes=%6$d, dropped frames=%7$d, " +
+                            "errors=%8$d (%9$s), format=%10$s, loading=%11$d ms, " +
+                            "track changes=%12$d (%13$s), uri=%14$s",
+                    mIdStep, mDurationMs, mTimeToFirstFrameMs, mRebufferCount, mRebufferMs,
+                    mBytesLoaded.get(), mDroppedFrames, mErrorCount, mLastError, mVideoFormat,
+                    mLoadingMs, mTrackChanges, mSelectedTracks, mMediaUri);
+        }
+    }
+}
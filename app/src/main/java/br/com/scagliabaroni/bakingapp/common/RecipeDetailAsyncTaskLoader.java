@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2017 Igor Scaglia.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package br.com.scagliabaroni.bakingapp.common;
+
+import android.content.Context;
+import android.net.Uri;
+
+import java.util.List;
+
+import br.com.scagliabaroni.bakingapp.model.RecipeDetailSection;
+import br.com.scagliabaroni.bakingapp.provider.RecipesProvider;
+import timber.log.Timber;
+
+/**
+ * Responsible for load the recipe detail sections (ingredients header and steps) of a recipe.
+ * The sections are fully materialized in background, so the adapter never touches a cursor.
+ * It reloads by itself when the steps or the recipe itself change.
+ */
+public class RecipeDetailAsyncTaskLoader
+        extends ContentObserverAsyncTaskLoader<List<RecipeDetailSection>> {
+    private Integer mIdRecipe;
+
+    public RecipeDetailAsyncTaskLoader(Context context, Integer idRecipe) {
+        super(context, RecipesTaskExecutor.PRIORITY_NORMAL, observedUris(idRecipe));
+        this.mIdRecipe = idRecipe;
+    }
+
+    /**
+     * Only the URIs of the shown recipe are observed, so a change in other recipes won't reload
+     * this screen.
+     */
+    private static Uri[] observedUris(Integer idRecipe) {
+
+        // If no recipe then there is nothing to observe
+        if (idRecipe == null) {
+            return new Uri[0];
+        }
+        return new Uri[]{
+                RecipesProvider.Step.fromRecipe(String.valueOf(idRecipe)),
+                RecipesProvider.Recipe.withId(idRecipe)};
+    }
+
+    @Override
+    public List<RecipeDetailSection> loadInBackground() {
+
+        // If no recipe then return null
+        if (this.mIdRecipe == null) {
+            return null;
+        }
+        Timber.i("All steps from recipe id: %s", this.mIdRecipe);
+        return RecipesUtils.getRecipeDetailSections(this.getContext(), this.mIdRecipe);
+    }
+}
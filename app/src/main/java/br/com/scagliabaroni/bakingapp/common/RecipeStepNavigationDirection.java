@@ -20,7 +20,20 @@ package br.com.scagliabaroni.bakingapp.common;
  * Responsible to inform what direction the user has been selecting in the navigation of the steps
  */
 public enum RecipeStepNavigationDirection {
-    NONE,
-    PREVIOUS,
-    NEXT
+    NONE(0),
+    PREVIOUS(-1),
+    NEXT(1);
+
+    private final int mOffset;
+
+    RecipeStepNavigationDirection(int offset) {
+        this.mOffset = offset;
+    }
+
+    /**
+     * How many positions this direction moves from the actual step
+     */
+    public int getOffset() {
+        return mOffset;
+    }
 }
\ No newline at end of file
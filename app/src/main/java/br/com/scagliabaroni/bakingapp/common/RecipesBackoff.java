@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2017 Igor Scaglia.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package br.com.scagliabaroni.bakingapp.common;
+
+import java.util.Random;
+
+/**
+ * Bounded exponential back off with jitter. The delay doubles after each failed attempt up to
+ * {@code maxDelayMs}, and half of it is random, so clients that failed together don't retry
+ * together.
+ */
+public class RecipesBackoff {
+    private final long mBaseDelayMs;
+    private final long mMaxDelayMs;
+    private final int mMaxAttempts;
+    private final Random mRandom;
+
+    public RecipesBackoff(long baseDelayMs, long maxDelayMs, int maxAttempts, Random random) {
+        this.mBaseDelayMs = baseDelayMs;
+        this.mMaxDelayMs = maxDelayMs;
+        this.mMaxAttempts = maxAttempts;
+        this.mRandom = random;
+    }
+
+    /**
+     * If another attempt may follow the given failed attempt, counted from 1.
+     */
+    public boolean canRetry(int attempt) {
+        return attempt < this.mMaxAttempts;
+    }
+
+    /**
+     * How long to wait after the given failed attempt, counted from 1.
+     */
+    public long getDelayMs(int attempt) {
+        // Shifting more than this would overflow, the cap is reached long before anyway
+        int exponent = Math.min(Math.max(attempt - 1, 0), 30);
+        long delay = Math.min(this.mMaxDelayMs, this.mBaseDelayMs << exponent);
+        long half = delay / 2;
+        return half + (long) (this.mRandom.nextDouble() * (delay - half));
+    }
+}
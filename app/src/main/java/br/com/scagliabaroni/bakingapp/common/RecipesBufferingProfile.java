@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2017 Igor Scaglia.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package br.com.scagliabaroni.bakingapp.common;
+
+import android.app.ActivityManager;
+import android.content.Context;
+
+import java.util.Locale;
+
+import br.com.scagliabaroni.bakingapp.R;
+
+/**
+ * Buffering profiles for the step videos. Recipe clips are short, so the player can start as soon
+ * as a little is buffered and doesn't need to keep minutes of video in memory like a long-form
+ * stream would.
+ */
+public enum RecipesBufferingProfile {
+    // Devices with little memory, buffer less and start earlier
+    LOW_RAM(5000, 15000, 1000, 2000, 4 * 1024 * 1024),
+    // Most devices
+    STANDARD(10000, 30000, 1500, 3000, 8 * 1024 * 1024),
+    // Devices with plenty of memory, buffer more to resist bad networks
+    HIGH(15000, 60000, 2500, 5000, 16 * 1024 * 1024);
+
+    // The memory class, in MB, from which a device gets the HIGH profile
+    private static final int HIGH_MEMORY_CLASS = 256;
+    private static final int LOW_MEMORY_CLASS = 96;
+    private static final String PROFILE_AUTO = "auto";
+    private final int mMinBufferMs;
+    private final int mMaxBufferMs;
+    private final long mBufferForPlaybackMs;
+    private final long mBufferForPlaybackAfterRebufferMs;
+    private final int mMemoryCapBytes;
+
+    RecipesBufferingProfile(int minBufferMs,
+                            int maxBufferMs,
+                            long bufferForPlaybackMs,
+                            long bufferForPlaybackAfterRebufferMs,
+                            int memoryCapBytes) {
+        this.mMinBufferMs = minBufferMs;
+        this.mMaxBufferMs = maxBufferMs;
+        this.mBufferForPlaybackMs = bufferForPlaybackMs;
+        this.mBufferForPlaybackAfterRebufferMs = bufferForPlaybackAfterRebufferMs;
+        this.mMemoryCapBytes = memoryCapBytes;
+    }
+
+    /**
+     * The player always tries to have at least this much media buffered.
+     */
+    public int getMinBufferMs() {
+        return mMinBufferMs;
+    }
+
+    /**
+     * The player stops loading once this much media is buffered.
+     */
+    public int getMaxBufferMs() {
+        return mMaxBufferMs;
+    }
+
+    /**
+     * Media buffered needed to start playing.
+     */
+    public long getBufferForPlaybackMs() {
+        return mBufferForPlaybackMs;
+    }
+
+    /**
+     * Media buffered needed to play again after the buffer ran out.
+     */
+    public long getBufferForPlaybackAfterRebufferMs() {
+        return mBufferForPlaybackAfterRebufferMs;
+    }
+
+    /**
+     * The player stops loading once its buffer takes this much memory, whatever its duration.
+     */
+    public int getMemoryCapBytes() {
+        return mMemoryCapBytes;
+    }
+
+    /**
+     * The profile configured in video_buffering_profile, or the one that fits this device when
+     * it's configured as auto.
+     */
+    public static RecipesBufferingProfile fromConfig(Context context) {
+        String configured = context.getResources().getString(R.string.video_buffering_profile);
+
+        if (PROFILE_AUTO.equals(configured)) {
+            return forDevice(context);
+        }
+        return valueOf(configured.toUpperCase(Locale.US));
+    }
+
+    /**
+     * Choose the profile by the device class, based on how much memory the app may use.
+     */
+    public static RecipesBufferingProfile forDevice(Context context) {
+        ActivityManager activityManager = (ActivityManager) context
+                .getSystemService(Context.ACTIVITY_SERVICE);
+
+        if (activityManager.isLowRamDevice() ||
+                activityManager.getMemoryClass() <= LOW_MEMORY_CLASS) {
+            return LOW_RAM;
+        } else if (activityManager.getMemoryClass() >= HIGH_MEMORY_CLASS) {
+            return HIGH;
+        }
+        return STANDARD;
+    }
+}
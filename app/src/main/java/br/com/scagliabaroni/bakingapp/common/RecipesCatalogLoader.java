@@ -0,0 +1,403 @@
+/*
+ * Copyright (c) 2017 Igor Scaglia.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package br.com.scagliabaroni.bakingapp.common;
+
+import android.content.ContentProviderOperation;
+import android.content.Context;
+import android.content.Intent;
+import android.content.OperationApplicationException;
+import android.content.res.Resources;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.support.v4.content.LocalBroadcastManager;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import br.com.scagliabaroni.bakingapp.R;
+import br.com.scagliabaroni.bakingapp.database.DatabaseContract;
+import br.com.scagliabaroni.bakingapp.model.Ingredient;
+import br.com.scagliabaroni.bakingapp.model.Recipe;
+import br.com.scagliabaroni.bakingapp.model.Step;
+import br.com.scagliabaroni.bakingapp.provider.RecipesProvider;
+import br.com.scagliabaroni.bakingapp.service.RecipesLoadIntentService;
+import okhttp3.OkHttpClient;
+import okhttp3.ResponseBody;
+import retrofit2.Response;
+import retrofit2.Retrofit;
+import retrofit2.converter.gson.GsonConverterFactory;
+import timber.log.Timber;
+
+/**
+ * Streams the recipes catalog from the server into the database. The JSON array is decoded one
+ * recipe at a time while it downloads. When the database is empty the recipes are committed in
+ * page-sized batches, so the list shows the first ones while the rest is still on the way. When
+ * it has recipes they are replaced in one batch at the end, so a broken download keeps them.
+ * Progress is broadcast after each batch of recipes and at the end.
+ * <p>
+ * Network failures, timeouts and server errors are retried with {@link RecipesBackoff}, and a
+ * {@link RecipesCircuitBreaker} shared by all loads stops calling the server while it keeps
+ * failing. A retry after a partial commit replaces those recipes in one batch, so only a
+ * complete download is ever reported as loaded.
+ */
+public class RecipesCatalogLoader {
+    private static OkHttpClient sHttpClient;
+    private static RecipesCircuitBreaker sCircuitBreaker;
+    private final Context mContext;
+    private final String mRecipesUrl;
+    private final int mChunkSize;
+    private final RecipesBackoff mBackoff;
+    // The operations of the batch not committed yet
+    private final ArrayList<ContentProviderOperation> mOperations = new ArrayList<>();
+    // The recipes of this attempt, for the snapshot
+    private final List<Recipe> mRecipes = new ArrayList<>();
+    private boolean mReplace;
+    private int mRecipesDecoded;
+    private int mRecipesCommitted;
+
+    /**
+     * @param replace True to delete the local recipes, along with the commit of the new ones.
+     */
+    public RecipesCatalogLoader(Context context, boolean replace) {
+        this(context, context.getResources().getString(R.string.recipes_url), replace);
+    }
+
+    /**
+     * @param recipesUrl The JSON recipes URL where are the recipes itself.
+     * @param replace    True to delete the local recipes, along with the commit of the new ones.
+     */
+    public RecipesCatalogLoader(Context context, String recipesUrl, boolean replace) {
+        Resources resources = context.getResources();
+        this.mContext = context;
+        this.mRecipesUrl = recipesUrl;
+        this.mReplace = replace;
+        this.mChunkSize = Math.max(1, resources.getInteger(R.integer.sync_chunk_recipes));
+        this.mBackoff = new RecipesBackoff(resources.getInteger(R.integer.sync_backoff_base_ms),
+                resources.getInteger(R.integer.sync_backoff_max_ms),
+                resources.getInteger(R.integer.sync_max_attempts), new Random());
+    }
+
+    /**
+     * The HTTP client of the catalog requests, with the timeouts set in config.xml.
+     */
+    public static synchronized OkHttpClient getHttpClient(Context context) {
+
+        if (sHttpClient == null) {
+            Resources resources = context.getResources();
+            sHttpClient = new OkHttpClient.Builder()
+                    .connectTimeout(resources.getInteger(R.integer.sync_connect_timeout_seconds),
+                            TimeUnit.SECONDS)
+                    .readTimeout(resources.getInteger(R.integer.sync_read_timeout_seconds),
+                            TimeUnit.SECONDS)
+                    .build();
+        }
+        return sHttpClient;
+    }
+
+    /**
+     * The circuit breaker of the catalog endpoint, shared by all loads.
+     */
+    public static synchronized RecipesCircuitBreaker getCircuitBreaker(Context context) {
+
+        if (sCircuitBreaker == null) {
+            Resources resources = context.getResources();
+            sCircuitBreaker = new RecipesCircuitBreaker(
+                    resources.getInteger(R.integer.sync_breaker_failure_threshold),
+                    TimeUnit.SECONDS.toMillis(
+                            resources.getInteger(R.integer.sync_breaker_open_seconds)));
+        }
+        return sCircuitBreaker;
+    }
+
+    /**
+     * Download and commit the catalog, on the calling thread.
+     *
+     * @return The total of recipes committed, 0 when the whole catalog could not be downloaded.
+     */
+    public int load() {
+        // Use default way to construct retrofit call
+        Retrofit retrofit = new Retrofit.Builder()
+                .baseUrl(this.mRecipesUrl)
+                .client(getHttpClient(this.mContext))
+                .addConverterFactory(GsonConverterFactory.create())
+                .build();
+        RecipesRetrofitContract service = retrofit.create(RecipesRetrofitContract.class);
+        RecipesCircuitBreaker circuitBreaker = getCircuitBreaker(this.mContext);
+
+        for (int attempt = 1; ; attempt++) {
+
+            if (!circuitBreaker.allowRequest(SystemClock.elapsedRealtime())) {
+                Timber.d("Recipes server is failing, request not sent");
+                return 0;
+            }
+            try {
+
+                boolean loaded = this.attempt(service);
+                // The server answered, even when it refused the request
+                circuitBreaker.onSuccess();
+
+                // The next cold start reads the catalog from the snapshot
+                if (loaded) {
+                    RecipesSnapshotStore.getInstance(this.mContext).write(this.mRecipes);
+                }
+                // A refused request won't change when asked again
+                return loaded ? this.mRecipesCommitted : 0;
+            } catch (IOException | JsonParseException | IllegalStateException e) {
+                // Gson reports a broken stream as a JsonParseException, and the reader a body
+                // that isn't the array of recipes, like an error object, as IllegalStateException
+                Timber.d(e, "Recipes attempt %d failed", attempt);
+                circuitBreaker.onFailure(SystemClock.elapsedRealtime());
+            } catch (RemoteException | OperationApplicationException e) {
+                // The database failed, not the server
+                Timber.d(e);
+                circuitBreaker.onSuccess();
+                return 0;
+            } catch (RuntimeException e) {
+                // The server answered before we broke, and the breaker must not be left waiting
+                // for the result of its trial request
+                circuitBreaker.onSuccess();
+                throw e;
+            }
+
+            if (!this.mBackoff.canRetry(attempt)) {
+                return 0;
+            }
+            try {
+                Thread.sleep(this.mBackoff.getDelayMs(attempt));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * One request for the whole catalog.
+     *
+     * @return False if the server refused the request.
+     * @throws IOException When the request failed in a way worth retrying.
+     */
+    private boolean attempt(RecipesRetrofitContract service)
+            throws IOException, RemoteException, OperationApplicationException {
+        // Recipes committed by a broken attempt are replaced along with the next one
+        if (this.mRecipesCommitted > 0) {
+            this.mReplace = true;
+        }
+        this.mOperations.clear();
+        this.mRecipes.clear();
+        this.mRecipesDecoded = 0;
+        ResponseBody body = null;
+        try {
+            Response<ResponseBody> response = service.getRecipesStream().execute();
+            body = response.body();
+
+            // Server errors and throttling are temporary
+            if (response.code() >= 500 || response.code() == 429) {
+                throw new IOException("Recipes request failed with HTTP " + response.code());
+            } else if (!response.isSuccessful() || body == null) {
+                Timber.d("Recipes request refused with HTTP %d", response.code());
+                return false;
+            }
+            this.read(body.byteStream(), body.contentLength());
+            // The rest of the batch, or the whole catalog when replacing
+            this.commit();
+            return true;
+        } finally {
+
+            if (body != null) {
+                body.close();
+            }
+        }
+    }
+
+    private void read(InputStream input, long bytesTotal)
+            throws IOException, RemoteException, OperationApplicationException {
+        CountingInputStream countingInput = new CountingInputStream(input);
+        JsonReader reader = new JsonReader(new InputStreamReader(countingInput, "UTF-8"));
+        Gson gson = new Gson();
+
+        // A replacement deletes the local recipes in the same batch as the new ones
+        if (this.mReplace) {
+            this.mOperations.add(ContentProviderOperation
+                    .newDelete(RecipesProvider.Recipe.CONTENT_URI).build());
+        }
+        reader.beginArray();
+
+        while (reader.hasNext()) {
+            Recipe recipe = gson.fromJson(reader, Recipe.class);
+            addRecipeOperations(recipe, this.mOperations);
+            this.mRecipes.add(recipe);
+            this.mRecipesDecoded++;
+
+            // One progress for each batch, an empty list also shows it as soon as it's committed
+            if (this.mRecipesDecoded % this.mChunkSize == 0) {
+
+                if (!this.mReplace) {
+                    this.commit();
+                }
+                this.publishProgress(countingInput.getCount(), bytesTotal);
+            }
+        }
+        reader.endArray();
+
+        // The last recipes, when they don't fill a batch
+        if (!this.mReplace) {
+            this.commit();
+        }
+        this.publishProgress(countingInput.getCount(), bytesTotal);
+    }
+
+    /**
+     * Add the inserts of the recipe, its ingredients, its steps and its search document to a
+     * batch.
+     */
+    public static void addRecipeOperations(Recipe recipe,
+                                           List<ContentProviderOperation> operations) {
+        // The ingredients and steps point to the recipe inserted by this operation
+        int recipeOperationIndex = operations.size();
+        operations.add(ContentProviderOperation
+                .newInsert(RecipesProvider.Recipe.CONTENT_URI)
+                .withValue(DatabaseContract.RecipeEntry.COLUMN_NAME, recipe.getName())
+                .withValue(DatabaseContract.RecipeEntry.COLUMN_SERVINGS, recipe.getServings())
+                .withValue(DatabaseContract.RecipeEntry.COLUMN_IMAGE, recipe.getImage())
+                .build());
+
+        for (Ingredient ingredient : recipe.getIngredients()) {
+            operations.add(ContentProviderOperation
+                    .newInsert(RecipesProvider.Ingredient.CONTENT_URI)
+                    .withValueBackReference(DatabaseContract.IngredientEntry.COLUMN_ID_RECIPE,
+                            recipeOperationIndex)
+                    .withValue(DatabaseContract.IngredientEntry.COLUMN_NAME,
+                            ingredient.getIngredient())
+                    .withValue(DatabaseContract.IngredientEntry.COLUMN_MEASURE,
+                            ingredient.getMeasure())
+                    .withValue(DatabaseContract.IngredientEntry.COLUMN_QUANTITY,
+                            ingredient.getQuantity())
+                    .build());
+        }
+        // To put a sequence in steps to facilitate the navigation between them
+        int position = 1;
+
+        for (Step step : recipe.getSteps()) {
+            operations.add(ContentProviderOperation
+                    .newInsert(RecipesProvider.Step.CONTENT_URI)
+                    .withValueBackReference(DatabaseContract.StepEntry.COLUMN_ID_RECIPE,
+                            recipeOperationIndex)
+                    .withValue(DatabaseContract.StepEntry.COLUMN_SHORT_DESCRIPTION,
+                            step.getShortDescription())
+                    .withValue(DatabaseContract.StepEntry.COLUMN_DESCRIPTION,
+                            step.getDescription())
+                    .withValue(DatabaseContract.StepEntry.COLUMN_VIDEO_URL, step.getVideoURL())
+                    .withValue(DatabaseContract.StepEntry.COLUMN_THUMBNAIL_URL,
+                            step.getThumbnailURL())
+                    .withValue(DatabaseContract.StepEntry.COLUMN_POSITION, position)
+                    .build());
+            position++;
+        }
+        // The search document of the recipe goes in the same batch, so the index follows
+        // every recipe committed
+        StringBuilder ingredientNames = new StringBuilder();
+
+        for (Ingredient ingredient : recipe.getIngredients()) {
+            ingredientNames.append(ingredient.getIngredient()).append(' ');
+        }
+        StringBuilder stepTexts = new StringBuilder();
+
+        for (Step step : recipe.getSteps()) {
+            stepTexts.append(step.getShortDescription()).append(' ')
+                    .append(step.getDescription()).append(' ');
+        }
+        operations.add(ContentProviderOperation
+                .newInsert(RecipesProvider.Search.CONTENT_URI)
+                .withValueBackReference(DatabaseContract.RecipeSearchEntry.DOCID,
+                        recipeOperationIndex)
+                .withValue(DatabaseContract.RecipeSearchEntry.COLUMN_RECIPE_NAME,
+                        recipe.getName())
+                .withValue(DatabaseContract.RecipeSearchEntry.COLUMN_INGREDIENT_NAMES,
+                        ingredientNames.toString())
+                .withValue(DatabaseContract.RecipeSearchEntry.COLUMN_STEP_TEXTS,
+                        stepTexts.toString())
+                .build());
+    }
+
+    private void commit() throws RemoteException, OperationApplicationException {
+
+        if (this.mOperations.isEmpty()) {
+            return;
+        }
+        // One transaction for the whole batch
+        this.mContext.getContentResolver().applyBatch(RecipesProvider.AUTHORITY, this.mOperations);
+        this.mOperations.clear();
+        this.mRecipesCommitted = this.mRecipesDecoded;
+    }
+
+    private void publishProgress(long bytesRead, long bytesTotal) {
+        Intent localIntent = new Intent(RecipesLoadIntentService.ACTION_BROADCAST_PROGRESS)
+                .putExtra(RecipesLoadIntentService.EXTENDED_DATA_RECIPES_DECODED,
+                        this.mRecipesDecoded)
+                .putExtra(RecipesLoadIntentService.EXTENDED_DATA_RECIPES_COMMITTED,
+                        this.mRecipesCommitted)
+                .putExtra(RecipesLoadIntentService.EXTENDED_DATA_BYTES_READ, bytesRead)
+                .putExtra(RecipesLoadIntentService.EXTENDED_DATA_BYTES_TOTAL, bytesTotal);
+        LocalBroadcastManager.getInstance(this.mContext).sendBroadcast(localIntent);
+    }
+
+    /**
+     * Counts the bytes read from the response, for the progress.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        private long mCount;
+
+        private CountingInputStream(InputStream input) {
+            super(input);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int result = super.read();
+
+            if (result != -1) {
+                this.mCount++;
+            }
+            return result;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int result = super.read(buffer, offset, length);
+
+            if (result != -1) {
+                this.mCount += result;
+            }
+            return result;
+        }
+
+        private long getCount() {
+            return this.mCount;
+        }
+    }
+}
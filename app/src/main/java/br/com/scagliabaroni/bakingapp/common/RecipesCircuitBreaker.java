@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2017 Igor Scaglia.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package br.com.scagliabaroni.bakingapp.common;
+
+/**
+ * Stops calling an endpoint that keeps failing. After {@code failureThreshold} failures in a
+ * row the circuit opens and requests are refused for {@code openDurationMs}. Then one trial
+ * request goes through: its success closes the circuit, its failure opens it again. Times are
+ * passed in by the caller, in any monotonic clock.
+ */
+public class RecipesCircuitBreaker {
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final int mFailureThreshold;
+    private final long mOpenDurationMs;
+    private State mState = State.CLOSED;
+    private int mConsecutiveFailures;
+    private long mOpenedAt;
+
+    public RecipesCircuitBreaker(int failureThreshold, long openDurationMs) {
+        this.mFailureThreshold = failureThreshold;
+        this.mOpenDurationMs = openDurationMs;
+    }
+
+    /**
+     * If a request may go to the endpoint now. An open circuit lets a single trial request
+     * through once it has been open long enough.
+     */
+    public synchronized boolean allowRequest(long nowMs) {
+
+        switch (this.mState) {
+            case OPEN:
+
+                if (nowMs - this.mOpenedAt < this.mOpenDurationMs) {
+                    return false;
+                }
+                this.mState = State.HALF_OPEN;
+                return true;
+            case HALF_OPEN:
+                // The trial request is still on the way
+                return false;
+            default:
+                return true;
+        }
+    }
+
+    public synchronized void onSuccess() {
+        this.mState = State.CLOSED;
+        this.mConsecutiveFailures = 0;
+    }
+
+    public synchronized void onFailure(long nowMs) {
+        this.mConsecutiveFailures++;
+
+        if (this.mState == State.HALF_OPEN ||
+                this.mConsecutiveFailures >= this.mFailureThreshold) {
+            this.mState = State.OPEN;
+            this.mOpenedAt = nowMs;
+        }
+    }
+
+    public synchronized State getState() {
+        return this.mState;
+    }
+}
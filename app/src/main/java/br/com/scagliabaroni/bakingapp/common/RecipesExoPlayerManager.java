@@ -16,24 +16,31 @@
 
 package br.com.scagliabaroni.bakingapp.common;
 
+import android.app.Notification;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
-import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.support.v4.media.session.MediaButtonReceiver;
 import android.support.v4.media.session.MediaSessionCompat;
 import android.support.v4.media.session.PlaybackStateCompat;
 import android.support.v7.app.NotificationCompat;
+import android.view.Surface;
 
 import com.google.android.exoplayer2.ExoPlaybackException;
 import com.google.android.exoplayer2.ExoPlayer;
 import com.google.android.exoplayer2.ExoPlayerFactory;
+import com.google.android.exoplayer2.Format;
 import com.google.android.exoplayer2.PlaybackParameters;
 import com.google.android.exoplayer2.SimpleExoPlayer;
 import com.google.android.exoplayer2.Timeline;
+import com.google.android.exoplayer2.decoder.DecoderCounters;
 import com.google.android.exoplayer2.extractor.DefaultExtractorsFactory;
+import com.google.android.exoplayer2.source.ConcatenatingMediaSource;
 import com.google.android.exoplayer2.source.ExtractorMediaSource;
 import com.google.android.exoplayer2.source.MediaSource;
 import com.google.android.exoplayer2.source.TrackGroupArray;
@@ -41,20 +48,36 @@ import com.google.android.exoplayer2.trackselection.DefaultTrackSelector;
 import com.google.android.exoplayer2.trackselection.TrackSelectionArray;
 import com.google.android.exoplayer2.trackselection.TrackSelector;
 import com.google.android.exoplayer2.ui.SimpleExoPlayerView;
-import com.google.android.exoplayer2.upstream.DefaultDataSourceFactory;
-import com.google.android.exoplayer2.util.Util;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.FileDataSource;
+import com.google.android.exoplayer2.video.VideoRendererEventListener;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Objects;
 
 import br.com.scagliabaroni.bakingapp.R;
+import br.com.scagliabaroni.bakingapp.model.Step;
+import timber.log.Timber;
 
 import static android.content.Context.NOTIFICATION_SERVICE;
 
 /**
- * Responsible to manage video player ExoPlayer library
+ * Responsible to manage video player ExoPlayer library. One player instance is kept alive by
+ * {@link br.com.scagliabaroni.bakingapp.service.RecipesPlaybackService}, beyond the step screen,
+ * and each step change just swaps its media source. The position of each step video is saved,
+ * so it resumes from there.
  */
 public class RecipesExoPlayerManager implements ExoPlayer.EventListener {
-    private static final String TAG = "BakingAppExoPlayerManager";
+    private static final int NOTIFICATION_ID = 1;
+    // The notification is not posted more often than this
+    private static final long NOTIFICATION_MIN_INTERVAL_MS = 500;
     private Context mContext;
-    private static MediaSessionCompat sMediaSession;
+    private RecipesPlaybackSession mPlaybackSession;
+    // MySessionCallback has methods that handle callbacks from a media controller.
+    private final MediaSessionCompat.Callback mSessionCallback = new MySessionCallback();
     private PlaybackStateCompat.Builder mStateBuilder;
     private SimpleExoPlayer mSimpleExoPlayer;
     private SimpleExoPlayerView mSimpleExoPlayerView;
@@ -62,169 +85,568 @@ public class RecipesExoPlayerManager implements ExoPlayer.EventListener {
     private String mNotificationTitle;
     private String mNotificationText;
     private TargetContentIntent mTargetContentIntent;
-
-    public RecipesExoPlayerManager(Context context, SimpleExoPlayerView simpleExoPlayerView) {
-        this.mContext = context;
+    private DataSource.Factory mDataSourceFactory;
+    // Reads the videos of the recipes kept offline
+    private DataSource.Factory mLocalDataSourceFactory;
+    // When the actual media source was prepared, to measure the time to first frame
+    private long mPreparedAt;
+    // If the actual media source was prepared in a player created for it
+    private boolean mPlayerCreatedForMedia;
+    // The step being played
+    private Step mStep;
+    // If the steps around the actual one still have to be prefetched
+    private boolean mPreloadPending;
+    // The steps played one after another, when playing the whole recipe
+    private List<Step> mPlaylist;
+    private int mPlaylistIndex;
+    private RecipePlaylistListener mPlaylistListener;
+    // The media prepared in the player, when playing a single step
+    private Uri mMediaUri;
+    private PlaybackPositionStore mPlaybackPositionStore;
+    private final RecipesBufferingProfile mBufferingProfile;
+    // Quality of experience of the actual step playback, bytes are added from the loading thread
+    private volatile PlaybackQoeMetrics.Session mQoeSession;
+    private final Handler mMediaSourceEventHandler = new Handler(Looper.getMainLooper());
+    // Notification parts built once and reused
+    private NotificationCompat.Action mPlayAction;
+    private NotificationCompat.Action mPauseAction;
+    private NotificationCompat.Action mRestartAction;
+    private PendingIntent mContentPendingIntent;
+    // What was published last, so equal updates are not posted again
+    private int mPublishedSessionState = -1;
+    private boolean mNotificationPublished;
+    private boolean mPublishedPlaying;
+    private TargetContentIntent mPublishedTargetContentIntent;
+    private String mPublishedTitle;
+    private String mPublishedText;
+    private long mLastNotificationAt;
+    private int mNotificationsPosted;
+    private PlaybackNotificationListener mNotificationListener;
+    private final Handler mNotificationHandler = new Handler(Looper.getMainLooper());
+    private final Runnable mNotificationRunnable = new Runnable() {
+        @Override
+        public void run() {
+            showNotification();
+        }
+    };
+
+    public RecipesExoPlayerManager(Context context, SimpleExoPlayerView simpleExoPlayerView,
+                                   RecipesPlaybackSession playbackSession) {
+        // The manager may outlive the activity, so never hold it
+        this.mContext = context.getApplicationContext();
+        this.mPlaybackPositionStore = PlaybackPositionStore.getInstance(this.mContext);
+        this.mBufferingProfile = RecipesBufferingProfile.fromConfig(this.mContext);
         this.mSimpleExoPlayerView = simpleExoPlayerView;
-        // Initialize Media Session
-        this.initializeMediaSession();
+        this.mNotificationManager = (NotificationManager) this.mContext
+                .getSystemService(NOTIFICATION_SERVICE);
+        // The media session is owned by the caller, this player attaches to it when it plays
+        this.mPlaybackSession = playbackSession;
+        this.initializePlaybackState();
+        this.initializeNotification();
     }
 
     /**
-     * Initializes the Media Session to be enabled with media buttons, transport controls, callbacks
-     * and media controller.
+     * Initializes the playback state with the actions the player supports.
      */
-    private void initializeMediaSession() {
-        // Create a MediaSessionCompat.
-        sMediaSession = new MediaSessionCompat(this.mContext, TAG);
-        // Enable callbacks from MediaButtons and TransportControls.
-        sMediaSession.setFlags(
-                MediaSessionCompat.FLAG_HANDLES_MEDIA_BUTTONS |
-                        MediaSessionCompat.FLAG_HANDLES_TRANSPORT_CONTROLS);
-        // Do not let MediaButtons restart the player when the app is not visible.
-        sMediaSession.setMediaButtonReceiver(null);
+    private void initializePlaybackState() {
         // Set an initial PlaybackState with ACTION_PLAY, so media buttons can start the player.
-        mStateBuilder = new PlaybackStateCompat.Builder()
+        this.mStateBuilder = new PlaybackStateCompat.Builder()
                 .setActions(PlaybackStateCompat.ACTION_PLAY |
                         PlaybackStateCompat.ACTION_PAUSE |
                         PlaybackStateCompat.ACTION_SKIP_TO_PREVIOUS |
                         PlaybackStateCompat.ACTION_PLAY_PAUSE);
-        sMediaSession.setPlaybackState(mStateBuilder.build());
-        // MySessionCallback has methods that handle callbacks from a media controller.
-        sMediaSession.setCallback(new MySessionCallback());
-        // Start the Media Session since the activity is active.
-        sMediaSession.setActive(true);
     }
 
-    public void initializePlayer(Uri mediaUri,
+    public void initializePlayer(Step step,
+                                 Uri mediaUri,
                                  String notificationTitle,
                                  String notificationText,
                                  TargetContentIntent targetContentIntent) {
 
+        this.mTargetContentIntent = targetContentIntent;
+        this.mNotificationTitle = notificationTitle;
+        this.mNotificationText = notificationText;
+
+        // The same video is already prepared, like after a rotation, so keep playing it with
+        // its buffer instead of starting over
+        if (this.isPrepared(mediaUri)) {
+            this.mStep = step;
+            return;
+        }
+        // Remember where the previous step stopped before leaving it
+        this.saveCurrentPosition();
+        this.mStep = step;
+        // A single step replaces any playlist
+        this.mPlaylist = null;
+        this.mPlaylistListener = null;
+        this.mMediaUri = null;
+        this.ensurePlayer();
+
+        // Steps without video, like the ingredients one, have nothing to play
+        if (Uri.EMPTY.equals(mediaUri)) {
+            this.mSimpleExoPlayer.stop();
+            return;
+        }
+        // Once it starts playing we prefetch the steps around it
+        this.mPreloadPending = true;
+        this.mMediaUri = mediaUri;
+        // Prepare the MediaSource, replacing the previous one.
+        this.prepare(this.buildMediaSource(mediaUri));
+        // Resume from where the step stopped last time
+        long resumePosition = this.mPlaybackPositionStore.getPosition(step);
+
+        if (resumePosition > 0) {
+            this.mSimpleExoPlayer.seekTo(resumePosition);
+        }
+    }
+
+    private boolean isPrepared(Uri mediaUri) {
+        return this.mSimpleExoPlayer != null && this.mPlaylist == null &&
+                mediaUri.equals(this.mMediaUri) &&
+                this.mSimpleExoPlayer.getPlaybackState() != ExoPlayer.STATE_IDLE;
+    }
+
+    /**
+     * Save the position of the step being played, so it can be resumed later.
+     */
+    public void saveCurrentPosition() {
+
+        // An ended video starts over, so there is nothing to save
+        if (this.mSimpleExoPlayer != null && this.mStep != null &&
+                this.mSimpleExoPlayer.getPlaybackState() != ExoPlayer.STATE_IDLE &&
+                this.mSimpleExoPlayer.getPlaybackState() != ExoPlayer.STATE_ENDED) {
+            this.mPlaybackPositionStore.savePosition(this.mStep,
+                    this.mSimpleExoPlayer.getCurrentPosition());
+        }
+    }
+
+    /**
+     * Show the player in a new view, for example after the activity was recreated by a
+     * configuration change.
+     */
+    public void attachView(SimpleExoPlayerView simpleExoPlayerView) {
+        this.detachView();
+        this.mSimpleExoPlayerView = simpleExoPlayerView;
+
         if (this.mSimpleExoPlayer != null) {
-            this.destroy();
-            this.initializeMediaSession();
+            this.mSimpleExoPlayerView.setPlayer(this.mSimpleExoPlayer);
+        }
+    }
+
+    /**
+     * Release the view before it's destroyed. The player keeps its media and buffer.
+     */
+    public void detachView() {
+
+        if (this.mSimpleExoPlayerView != null) {
+            this.mSimpleExoPlayerView.setPlayer(null);
+            this.mSimpleExoPlayerView = null;
         }
+    }
+
+    /**
+     * Play all given steps one after another, without preparing each one. The player buffers
+     * the next step while the actual one is playing.
+     *
+     * @param steps               The steps with video of a recipe, ordered by position.
+     * @param startIndex          The index of the step to start from.
+     * @param playlistListener    Informed each time the player moves to another step.
+     */
+    public void playPlaylist(List<Step> steps,
+                             int startIndex,
+                             String notificationTitle,
+                             TargetContentIntent targetContentIntent,
+                             RecipePlaylistListener playlistListener) {
+
+        // Nothing to play
+        if (steps.isEmpty()) {
+            return;
+        }
+        this.saveCurrentPosition();
+        this.mMediaUri = null;
+        this.mPlaylist = steps;
+        this.mPlaylistIndex = startIndex;
+        this.mPlaylistListener = playlistListener;
+        this.mStep = steps.get(startIndex);
         this.mTargetContentIntent = targetContentIntent;
         this.mNotificationTitle = notificationTitle;
-        this.mNotificationText = notificationText;
+        this.mNotificationText = this.mStep.getShortDescription();
+        this.ensurePlayer();
+        MediaSource[] mediaSources = new MediaSource[steps.size()];
+
+        // One media source for each step
+        for (int i = 0; i < steps.size(); i++) {
+            mediaSources[i] = this.buildMediaSource(Uri.parse(steps.get(i).getVideoURL()));
+        }
+        // The playlist buffers the next step by itself, so nothing to prefetch
+        this.mPreloadPending = false;
+        this.prepare(new ConcatenatingMediaSource(mediaSources));
+        this.mSimpleExoPlayer.seekTo(startIndex,
+                this.mPlaybackPositionStore.getPosition(this.mStep));
+    }
+
+    /**
+     * Informed each time the notification is posted.
+     */
+    public void setNotificationListener(PlaybackNotificationListener notificationListener) {
+        this.mNotificationListener = notificationListener;
+    }
+
+    /**
+     * If a video is playing or about to, as soon as it's buffered.
+     */
+    public boolean isPlaying() {
+        return this.mSimpleExoPlayer != null && this.mSimpleExoPlayer.getPlayWhenReady() &&
+                (this.mSimpleExoPlayer.getPlaybackState() == ExoPlayer.STATE_READY ||
+                        this.mSimpleExoPlayer.getPlaybackState() == ExoPlayer.STATE_BUFFERING);
+    }
+
+    /**
+     * Change the notification title, for example when the playlist moves to another step.
+     */
+    public void setNotificationTitle(String notificationTitle) {
+        this.mNotificationTitle = notificationTitle;
+
+        // Only an already shown notification needs to follow it
+        if (this.mNotificationPublished) {
+            this.requestNotification();
+        }
+    }
+
+    /**
+     * If the whole recipe is being played.
+     */
+    public boolean isPlayingPlaylist() {
+        return this.mPlaylist != null;
+    }
+
+    /**
+     * The player is created only once, then it's reused by all steps.
+     */
+    private void ensurePlayer() {
+        this.mPlayerCreatedForMedia = this.mSimpleExoPlayer == null;
+
+        if (this.mPlayerCreatedForMedia) {
+            this.createPlayer();
+        }
+        // Media buttons now go to this player
+        this.mPlaybackSession.activate(this.mSessionCallback, this.mStateBuilder.build());
+    }
+
+    private MediaSource buildMediaSource(Uri mediaUri) {
+        File localFile = RecipesOfflineStore.getInstance(this.mContext)
+                .getLocalFile(mediaUri.toString());
+        // A recipe kept offline is read from its file, without the network or the cache
+        DataSource.Factory dataSourceFactory = this.mDataSourceFactory;
+
+        if (localFile != null) {
+            mediaUri = Uri.fromFile(localFile);
+            dataSourceFactory = this.mLocalDataSourceFactory;
+        }
+        return new ExtractorMediaSource(mediaUri, dataSourceFactory,
+                new DefaultExtractorsFactory(), this.mMediaSourceEventHandler,
+                new ExtractorMediaSource.EventListener() {
+                    @Override
+                    public void onLoadError(IOException error) {
+                        // The load is retried, but the user is waiting anyway
+                        if (mQoeSession != null) {
+                            mQoeSession.onError(error);
+                        }
+                    }
+                });
+    }
+
+    private void prepare(MediaSource mediaSource) {
+        // The player blocks on the cache while the preloader holds it, so the prefetch stops
+        RecipesVideoPreloader.getInstance(this.mContext).cancel();
+        // Each preparation starts a new playback session
+        this.finishPlaybackSession();
+        this.finishQoeSession();
+        this.startQoeSession();
+        this.mPreparedAt = SystemClock.elapsedRealtime();
+        this.mSimpleExoPlayer.prepare(mediaSource, true, true);
+        this.mSimpleExoPlayer.setPlayWhenReady(true);
+    }
+
+    /**
+     * When playing a playlist, find out if the player moved to another step and inform it.
+     */
+    private void syncPlaylistStep() {
+
+        if (this.mPlaylist == null) {
+            return;
+        }
+        int windowIndex = this.mSimpleExoPlayer.getCurrentWindowIndex();
+
+        if (windowIndex != this.mPlaylistIndex && windowIndex < this.mPlaylist.size()) {
+            // The previous step was played until the end
+            this.mPlaybackPositionStore.clearPosition(this.mStep);
+            this.mPlaylistIndex = windowIndex;
+            this.mStep = this.mPlaylist.get(windowIndex);
+            // Each step of the playlist is a playback of its own
+            this.finishQoeSession();
+            this.startQoeSession();
+            this.mNotificationText = this.mStep.getShortDescription();
+
+            if (this.mPlaylistListener != null) {
+                this.mPlaylistListener.onPlaylistStepChanged(this.mStep);
+            }
+        }
+    }
+
+    /**
+     * Create the player, its renderers and track selector and attach it to the view.
+     */
+    private void createPlayer() {
         // Create an instance of the ExoPlayer.
         TrackSelector trackSelector = new DefaultTrackSelector();
-        // LoadControl is not supported anymore
-        this.mSimpleExoPlayer = ExoPlayerFactory.newSimpleInstance(this.mContext, trackSelector);
-        this.mSimpleExoPlayerView.setPlayer(this.mSimpleExoPlayer);
+        this.mSimpleExoPlayer = ExoPlayerFactory.newSimpleInstance(this.mContext, trackSelector,
+                new RecipesLoadControl(this.mBufferingProfile));
+        Timber.d("Player created with %s buffering profile", this.mBufferingProfile);
+
+        if (this.mSimpleExoPlayerView != null) {
+            this.mSimpleExoPlayerView.setPlayer(this.mSimpleExoPlayer);
+        }
         // Set the ExoPlayer.EventListener to this activity.
         this.mSimpleExoPlayer.addListener(this);
-        // Prepare the MediaSource.
-        String userAgent = Util.getUserAgent(this.mContext, this.mContext.getResources()
-                .getString(R.string.app_name));
-        MediaSource mediaSource = new ExtractorMediaSource(mediaUri,
-                new DefaultDataSourceFactory(this.mContext, userAgent),
-                new DefaultExtractorsFactory(), null, null);
-        this.mSimpleExoPlayer.prepare(mediaSource);
-        this.mSimpleExoPlayer.setPlayWhenReady(true);
+        // The view already listens the video events, so we use the debug listener to know when
+        // the first frame was rendered
+        this.mSimpleExoPlayer.setVideoDebugListener(new FirstFrameListener());
+        // The data source factory is reused by all media sources and reads through the
+        // shared video cache, counting the bytes loaded by each step playback
+        this.mDataSourceFactory = new QoeDataSourceFactory(
+                RecipesVideoCache.getInstance(this.mContext).getDataSourceFactory());
+        this.mLocalDataSourceFactory = new QoeDataSourceFactory(new DataSource.Factory() {
+            @Override
+            public DataSource createDataSource() {
+                return new FileDataSource();
+            }
+        });
     }
 
     /**
-     * Shows Media Style notification, with actions that depend on the current MediaSession
-     * PlaybackState.
-     *
-     * @param state The PlaybackState of the MediaSession.
+     * Build once the notification parts that never change.
      */
-    private void showNotification(PlaybackStateCompat state) {
-        int icon;
-        String play_pause;
-        NotificationCompat.Builder builder = new NotificationCompat.Builder(this.mContext);
-
-        if (state.getState() == PlaybackStateCompat.STATE_PLAYING) {
-            icon = R.drawable.exo_controls_pause;
-            play_pause = this.mContext.getResources().getString(R.string.pause);
-        } else {
-            icon = R.drawable.exo_controls_play;
-            play_pause = this.mContext.getResources().getString(R.string.play);
-        }
-        // Create a play/pause action onto notification
-        NotificationCompat.Action playPauseAction = new NotificationCompat.Action(icon,
-                play_pause,
+    private void initializeNotification() {
+        // Create a play action onto notification
+        this.mPlayAction = new NotificationCompat.Action(R.drawable.exo_controls_play,
+                this.mContext.getResources().getString(R.string.play),
+                MediaButtonReceiver.buildMediaButtonPendingIntent(this.mContext,
+                        PlaybackStateCompat.ACTION_PLAY_PAUSE));
+        // Create a pause action onto notification
+        this.mPauseAction = new NotificationCompat.Action(R.drawable.exo_controls_pause,
+                this.mContext.getResources().getString(R.string.pause),
                 MediaButtonReceiver.buildMediaButtonPendingIntent(this.mContext,
                         PlaybackStateCompat.ACTION_PLAY_PAUSE));
         // Create a restart action onto notification
-        NotificationCompat.Action restartAction =
+        this.mRestartAction =
                 new android.support.v4.app.NotificationCompat.Action(
                         R.drawable.exo_controls_previous,
                         this.mContext.getResources().getString(R.string.restart),
                         MediaButtonReceiver.buildMediaButtonPendingIntent(this.mContext,
                                 PlaybackStateCompat.ACTION_SKIP_TO_PREVIOUS));
-        // Create the intent that will start the activity to be opened. This task is delegated
-        // by implementations of TargetContentIntent interface
-        Intent recipeDetailStepIntent =
-                new Intent(this.mContext, this.mTargetContentIntent.getActivityClass());
-        recipeDetailStepIntent.putExtras(this.mTargetContentIntent.getExtras());
-        // The PendingIntent that holds the true intent
-        PendingIntent contentPendingIntent = PendingIntent.getActivity
-                (this.mContext, 0, recipeDetailStepIntent, 0);
+    }
+
+    /**
+     * Ask the notification to be published. Requests closer than
+     * {@link #NOTIFICATION_MIN_INTERVAL_MS} are merged into one, published with the latest state.
+     */
+    private void requestNotification() {
+        long wait = this.mLastNotificationAt + NOTIFICATION_MIN_INTERVAL_MS -
+                SystemClock.elapsedRealtime();
+        this.mNotificationHandler.removeCallbacks(this.mNotificationRunnable);
+
+        if (wait > 0) {
+            this.mNotificationHandler.postDelayed(this.mNotificationRunnable, wait);
+        } else {
+            this.showNotification();
+        }
+    }
+
+    /**
+     * Shows Media Style notification, with actions that depend on the current MediaSession
+     * PlaybackState. Nothing is posted when it would look the same as the last one.
+     */
+    private void showNotification() {
+        boolean playing = this.mPublishedSessionState == PlaybackStateCompat.STATE_PLAYING;
+
+        // Nothing changed since the last notification
+        if (this.mNotificationPublished && playing == this.mPublishedPlaying &&
+                this.mTargetContentIntent == this.mPublishedTargetContentIntent &&
+                Objects.equals(this.mNotificationTitle, this.mPublishedTitle) &&
+                Objects.equals(this.mNotificationText, this.mPublishedText)) {
+            return;
+        }
+
+        // The content intent only changes with the target
+        if (this.mTargetContentIntent != this.mPublishedTargetContentIntent) {
+            // Create the intent that will start the activity to be opened. This task is
+            // delegated by implementations of TargetContentIntent interface
+            Intent recipeDetailStepIntent =
+                    new Intent(this.mContext, this.mTargetContentIntent.getActivityClass());
+            recipeDetailStepIntent.putExtras(this.mTargetContentIntent.getExtras());
+            // The PendingIntent that holds the true intent, with the new extras
+            this.mContentPendingIntent = PendingIntent.getActivity(this.mContext, 0,
+                    recipeDetailStepIntent, PendingIntent.FLAG_UPDATE_CURRENT);
+        }
         // Set the notification by its builder
+        NotificationCompat.Builder builder = new NotificationCompat.Builder(this.mContext);
         builder.setContentTitle(this.mNotificationTitle)
                 .setContentText(this.mNotificationText)
-                .setContentIntent(contentPendingIntent)
+                .setContentIntent(this.mContentPendingIntent)
                 .setSmallIcon(R.drawable.ic_launcher)
                 .setVisibility(NotificationCompat.VISIBILITY_PUBLIC)
-                .addAction(restartAction)
-                .addAction(playPauseAction)
+                .addAction(this.mRestartAction)
+                .addAction(playing ? this.mPauseAction : this.mPlayAction)
                 .setStyle(new NotificationCompat.MediaStyle()
-                        .setMediaSession(sMediaSession.getSessionToken())
+                        .setMediaSession(this.mPlaybackSession.getSessionToken())
                         .setShowActionsInCompactView(0, 1));
-        this.mNotificationManager = (NotificationManager) this.mContext
-                .getSystemService(NOTIFICATION_SERVICE);
         // Show the notification
-        this.mNotificationManager.notify(0, builder.build());
+        Notification notification = builder.build();
+        this.mNotificationManager.notify(NOTIFICATION_ID, notification);
+
+        if (this.mNotificationListener != null) {
+            this.mNotificationListener.onNotificationPosted(NOTIFICATION_ID, notification,
+                    playing);
+        }
+        // Remember what was published
+        this.mNotificationPublished = true;
+        this.mPublishedPlaying = playing;
+        this.mPublishedTargetContentIntent = this.mTargetContentIntent;
+        this.mPublishedTitle = this.mNotificationTitle;
+        this.mPublishedText = this.mNotificationText;
+        this.mLastNotificationAt = SystemClock.elapsedRealtime();
+        this.mNotificationsPosted++;
+    }
+
+    private void startQoeSession() {
+        this.mQoeSession = PlaybackQoeMetrics.getInstance().startSession(
+                this.mStep == null ? null : this.mStep.getId(),
+                this.mStep == null ? null : this.mStep.getVideoURL());
+    }
+
+    private void finishQoeSession() {
+
+        if (this.mQoeSession != null) {
+            PlaybackQoeMetrics.getInstance().finishSession(this.mQoeSession);
+            this.mQoeSession = null;
+        }
+    }
+
+    /**
+     * Log and reset the notifications counter of the playback session that is ending.
+     */
+    private void finishPlaybackSession() {
+
+        if (this.mNotificationsPosted > 0) {
+            Timber.d("Notifications posted in playback session: %d", this.mNotificationsPosted);
+        }
+        this.mNotificationsPosted = 0;
     }
 
     public void destroy() {
+        this.mNotificationHandler.removeCallbacks(this.mNotificationRunnable);
         this.mNotificationManager.cancelAll();
-        this.mSimpleExoPlayer.stop();
-        this.mSimpleExoPlayer.release();
-        this.mSimpleExoPlayer = null;
-        sMediaSession.setActive(false);
+        this.mNotificationPublished = false;
+        this.mPublishedSessionState = -1;
+        this.finishPlaybackSession();
+        this.finishQoeSession();
+        this.saveCurrentPosition();
+        this.detachView();
+        this.mMediaUri = null;
+
+        if (this.mSimpleExoPlayer != null) {
+            this.mSimpleExoPlayer.stop();
+            this.mSimpleExoPlayer.release();
+            this.mSimpleExoPlayer = null;
+        }
+        this.mPlaybackSession.deactivate(this.mSessionCallback);
     }
 
     @Override
     public void onTimelineChanged(Timeline timeline, Object manifest) {
-
+        this.syncPlaylistStep();
     }
 
     @Override
     public void onTracksChanged(TrackGroupArray trackGroups, TrackSelectionArray trackSelections) {
 
+        if (this.mQoeSession != null) {
+            this.mQoeSession.onTracksChanged(trackSelections);
+        }
     }
 
     @Override
     public void onLoadingChanged(boolean isLoading) {
 
+        if (this.mQoeSession != null) {
+            this.mQoeSession.onLoadingChanged(isLoading);
+        }
     }
 
     @Override
     public void onPlayerStateChanged(boolean playWhenReady, int playbackState) {
 
+        if (this.mQoeSession != null) {
+            this.mQoeSession.onPlaybackStateChanged(playbackState);
+        }
+
         if ((playbackState == ExoPlayer.STATE_READY) && playWhenReady) {
             mStateBuilder.setState(PlaybackStateCompat.STATE_PLAYING,
                     this.mSimpleExoPlayer.getCurrentPosition(), 1f);
+
+            // The step started playing, so it's time to prefetch its neighbors
+            if (this.mPreloadPending) {
+                this.mPreloadPending = false;
+                RecipesVideoPreloader.getInstance(this.mContext).preloadAround(this.mStep);
+            }
         } else if ((playbackState == ExoPlayer.STATE_READY)) {
             mStateBuilder.setState(PlaybackStateCompat.STATE_PAUSED,
                     this.mSimpleExoPlayer.getCurrentPosition(), 1f);
+            // Paused, so it's a good moment to remember where
+            this.saveCurrentPosition();
+        } else if (playbackState == ExoPlayer.STATE_ENDED && this.mStep != null) {
+            // Watched until the end, next time it starts over
+            this.mPlaybackPositionStore.clearPosition(this.mStep);
+        }
+        PlaybackStateCompat playbackStateCompat = mStateBuilder.build();
+
+        // Buffering churn doesn't change what the clients see, so they are not bothered
+        if (playbackStateCompat.getState() != this.mPublishedSessionState) {
+            this.mPublishedSessionState = playbackStateCompat.getState();
+            this.mPlaybackSession.setPlaybackState(this.mSessionCallback, playbackStateCompat);
+        }
+        this.requestNotification();
+
+        // Paused or ended, nothing plays anymore
+        if (this.mNotificationListener != null && (playbackState == ExoPlayer.STATE_ENDED ||
+                (playbackState == ExoPlayer.STATE_READY && !playWhenReady))) {
+            this.mNotificationListener.onPlaybackIdle();
         }
-        sMediaSession.setPlaybackState(mStateBuilder.build());
-        this.showNotification(mStateBuilder.build());
     }
 
     @Override
     public void onPlayerError(ExoPlaybackException error) {
+        Timber.e(error);
 
+        if (this.mQoeSession != null) {
+            this.mQoeSession.onError(error);
+        }
     }
 
     @Override
     public void onPositionDiscontinuity() {
+        // Happens, among others, when the playlist moves to the next step
+        this.syncPlaylistStep();
 
+        // Clients keep the playback position only from the published state, so a seek is sent
+        if (this.mPublishedSessionState == PlaybackStateCompat.STATE_PLAYING ||
+                this.mPublishedSessionState == PlaybackStateCompat.STATE_PAUSED) {
+            mStateBuilder.setState(this.mPublishedSessionState,
+                    this.mSimpleExoPlayer.getCurrentPosition(), 1f);
+            this.mPlaybackSession.setPlaybackState(this.mSessionCallback,
+                    mStateBuilder.build());
+        }
     }
 
     @Override
@@ -233,36 +655,130 @@ public class RecipesExoPlayerManager implements ExoPlayer.EventListener {
     }
 
     /**
-     * Media Session Callbacks, where all external clients control the player.
+     * Measures the time from the media source preparation until its first frame is rendered.
      */
-    private class MySessionCallback extends MediaSessionCompat.Callback {
+    private class FirstFrameListener implements VideoRendererEventListener {
+
         @Override
-        public void onPlay() {
-            mSimpleExoPlayer.setPlayWhenReady(true);
+        public void onRenderedFirstFrame(Surface surface) {
+
+            // Only the first frame after a preparation is measured
+            if (mPreparedAt > 0) {
+                Timber.i("Time to first frame: %d ms (%s player)",
+                        SystemClock.elapsedRealtime() - mPreparedAt,
+                        mPlayerCreatedForMedia ? "new" : "reused");
+                mPreparedAt = 0;
+            }
+
+            if (mQoeSession != null) {
+                mQoeSession.onFirstFrame();
+            }
         }
 
         @Override
-        public void onPause() {
-            mSimpleExoPlayer.setPlayWhenReady(false);
+        public void onVideoEnabled(DecoderCounters counters) {
         }
 
         @Override
-        public void onSkipToPrevious() {
-            mSimpleExoPlayer.seekTo(0);
+        public void onVideoDecoderInitialized(String decoderName, long initializedTimestampMs,
+                                              long initializationDurationMs) {
+        }
+
+        @Override
+        public void onVideoInputFormatChanged(Format format) {
+
+            if (mQoeSession != null) {
+                mQoeSession.setVideoFormat(format);
+            }
+        }
+
+        @Override
+        public void onDroppedFrames(int count, long elapsedMs) {
+
+            if (mQoeSession != null) {
+                mQoeSession.addDroppedFrames(count);
+            }
+        }
+
+        @Override
+        public void onVideoSizeChanged(int width, int height, int unappliedRotationDegrees,
+                                       float pixelWidthHeightRatio) {
+        }
+
+        @Override
+        public void onVideoDisabled(DecoderCounters counters) {
+        }
+    }
+
+    /**
+     * Creates data sources that count the bytes loaded into the actual step playback.
+     */
+    private class QoeDataSourceFactory implements DataSource.Factory {
+        private final DataSource.Factory mUpstreamFactory;
+
+        QoeDataSourceFactory(DataSource.Factory upstreamFactory) {
+            this.mUpstreamFactory = upstreamFactory;
+        }
+
+        @Override
+        public DataSource createDataSource() {
+            final DataSource upstream = this.mUpstreamFactory.createDataSource();
+            return new DataSource() {
+                @Override
+                public long open(DataSpec dataSpec) throws IOException {
+                    return upstream.open(dataSpec);
+                }
+
+                @Override
+                public int read(byte[] buffer, int offset, int readLength) throws IOException {
+                    int read = upstream.read(buffer, offset, readLength);
+                    PlaybackQoeMetrics.Session session = mQoeSession;
+
+                    if (read > 0 && session != null) {
+                        session.addBytesLoaded(read);
+                    }
+                    return read;
+                }
+
+                @Override
+                public Uri getUri() {
+                    return upstream.getUri();
+                }
+
+                @Override
+                public void close() throws IOException {
+                    upstream.close();
+                }
+            };
         }
     }
 
     /**
-     * Broadcast Receiver registered to receive the MEDIA_BUTTON intent coming from clients.
+     * Media Session Callbacks, where all external clients control the player.
      */
-    public static class MediaReceiver extends BroadcastReceiver {
+    private class MySessionCallback extends MediaSessionCompat.Callback {
+        @Override
+        public void onPlay() {
 
-        public MediaReceiver() {
+            if (mSimpleExoPlayer != null) {
+                mSimpleExoPlayer.setPlayWhenReady(true);
+            }
         }
 
         @Override
-        public void onReceive(Context context, Intent intent) {
-            MediaButtonReceiver.handleIntent(sMediaSession, intent);
+        public void onPause() {
+
+            if (mSimpleExoPlayer != null) {
+                mSimpleExoPlayer.setPlayWhenReady(false);
+            }
+        }
+
+        @Override
+        public void onSkipToPrevious() {
+
+            if (mSimpleExoPlayer != null) {
+                mSimpleExoPlayer.seekTo(0);
+            }
         }
     }
 }
\ No newline at end of file
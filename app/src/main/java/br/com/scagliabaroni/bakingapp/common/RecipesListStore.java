@@ -0,0 +1,325 @@
+/*
+ * Copyright (c) 2017 Igor Scaglia.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package br.com.scagliabaroni.bakingapp.common;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.support.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import br.com.scagliabaroni.bakingapp.database.DatabaseContract;
+import br.com.scagliabaroni.bakingapp.model.Recipe;
+import br.com.scagliabaroni.bakingapp.provider.RecipesProvider;
+import timber.log.Timber;
+
+/**
+ * Read-only copy of the recipes list in a memory-mapped file, rebuilt after each change of the
+ * recipes. Each row has a fixed size and points into a pool of UTF-16 characters, so the list
+ * reads any row straight from the mapped pages, without a cursor window and without creating
+ * a {@link Recipe} or a String per bind:
+ * <pre>
+ * magic, version, row count, pool length in chars,
+ * (id, servings, name offset, name length, image offset, image length) per row,
+ * pool
+ * </pre>
+ * A null string has length -1.
+ */
+public class RecipesListStore {
+    private static final String FILE_NAME = "recipes_list.store";
+    private static final int MAGIC = 0x5243504c;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 4 * 4;
+    private static final int ROW_BYTES = 6 * 4;
+    private static final String[] PROJECTION = {
+            DatabaseContract.RecipeEntry._ID,
+            DatabaseContract.RecipeEntry.COLUMN_NAME,
+            DatabaseContract.RecipeEntry.COLUMN_SERVINGS,
+            DatabaseContract.RecipeEntry.COLUMN_IMAGE};
+    private static RecipesListStore sInstance;
+    private final Context mContext;
+    private final File mFile;
+    // The mapped file, dropped when the file is rebuilt
+    private volatile Reader mReader;
+
+    private RecipesListStore(Context context) {
+        this.mContext = context;
+        this.mFile = new File(context.getFilesDir(), FILE_NAME);
+    }
+
+    public static synchronized RecipesListStore getInstance(Context context) {
+
+        if (sInstance == null) {
+            sInstance = new RecipesListStore(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Write the file again from the recipes in database, in the order the list shows them.
+     */
+    public synchronized void rebuild() {
+        Cursor cursor = this.mContext.getContentResolver()
+                .query(RecipesProvider.Recipe.CONTENT_URI, PROJECTION, null, null, null);
+
+        if (cursor == null) {
+            return;
+        }
+        try {
+            this.write(cursor);
+        } catch (IOException e) {
+            Timber.d(e);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * The mapped list, mapped on the first call after a rebuild, so call it in background, like
+     * the list loader does with {@link ReaderCursor}.
+     *
+     * @return The list, or null when there is no file yet.
+     */
+    @Nullable
+    public Reader getReader() {
+        Reader reader = this.mReader;
+
+        if (reader != null) {
+            return reader;
+        }
+
+        synchronized (this) {
+
+            if (this.mReader == null && this.mFile.exists()) {
+                try {
+                    this.mReader = new Reader(this.map());
+                } catch (IOException e) {
+                    Timber.d(e);
+                }
+            }
+            return this.mReader;
+        }
+    }
+
+    private void write(Cursor cursor) throws IOException {
+        int idIndex = cursor.getColumnIndex(DatabaseContract.RecipeEntry._ID);
+        int nameIndex = cursor.getColumnIndex(DatabaseContract.RecipeEntry.COLUMN_NAME);
+        int servingsIndex = cursor.getColumnIndex(DatabaseContract.RecipeEntry.COLUMN_SERVINGS);
+        int imageIndex = cursor.getColumnIndex(DatabaseContract.RecipeEntry.COLUMN_IMAGE);
+        int rowCount = cursor.getCount();
+        ByteBuffer rows = ByteBuffer.allocate(HEADER_BYTES + rowCount * ROW_BYTES);
+        StringBuilder pool = new StringBuilder();
+        rows.position(HEADER_BYTES);
+
+        while (cursor.moveToNext()) {
+            rows.putInt(cursor.getInt(idIndex));
+            rows.putInt(cursor.getInt(servingsIndex));
+            appendString(rows, pool, cursor.getString(nameIndex));
+            appendString(rows, pool, cursor.getString(imageIndex));
+        }
+        rows.putInt(0, MAGIC);
+        rows.putInt(4, VERSION);
+        rows.putInt(8, rowCount);
+        rows.putInt(12, pool.length());
+        rows.flip();
+        ByteBuffer chars = ByteBuffer.allocate(pool.length() * 2);
+        chars.asCharBuffer().put(pool.toString());
+        // A reader never sees a half written file
+        File temporaryFile = new File(this.mFile.getPath() + ".tmp");
+
+        try (FileOutputStream output = new FileOutputStream(temporaryFile);
+             FileChannel channel = output.getChannel()) {
+
+            while (rows.hasRemaining()) {
+                channel.write(rows);
+            }
+
+            while (chars.hasRemaining()) {
+                channel.write(chars);
+            }
+            channel.force(false);
+        }
+
+        if (!temporaryFile.renameTo(this.mFile)) {
+            //noinspection ResultOfMethodCallIgnored
+            temporaryFile.delete();
+            throw new IOException("Could not replace " + this.mFile);
+        }
+        // Mapped again on the next use, the old mapping stays valid for who still reads it
+        this.mReader = null;
+    }
+
+    private static void appendString(ByteBuffer rows, StringBuilder pool, String value) {
+
+        if (value == null) {
+            rows.putInt(0);
+            rows.putInt(-1);
+        } else {
+            rows.putInt(pool.length());
+            rows.putInt(value.length());
+            pool.append(value);
+        }
+    }
+
+    private MappedByteBuffer map() throws IOException {
+
+        try (FileInputStream input = new FileInputStream(this.mFile);
+             FileChannel channel = input.getChannel()) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    /**
+     * The rows of one mapping of the file. Reads are absolute, so it can be shared.
+     */
+    public static class Reader {
+        private final ByteBuffer mBuffer;
+        private final CharBuffer mPool;
+        private final int mCount;
+
+        private Reader(ByteBuffer buffer) throws IOException {
+
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw new IOException("Not a recipes list store of version " + VERSION);
+            }
+            this.mBuffer = buffer;
+            this.mCount = buffer.getInt(8);
+            buffer.position(HEADER_BYTES + this.mCount * ROW_BYTES);
+            this.mPool = buffer.slice().asCharBuffer();
+        }
+
+        public int getCount() {
+            return this.mCount;
+        }
+
+        /**
+         * If the rows are the recipes of the cursor. A replacement of the recipes gives them new
+         * ids, so comparing the ends is enough to catch a file not rebuilt yet.
+         */
+        public boolean matches(Cursor cursor) {
+
+            if (cursor == null || cursor.getCount() != this.mCount) {
+                return false;
+            } else if (this.mCount == 0) {
+                return true;
+            }
+            int idIndex = cursor.getColumnIndex(DatabaseContract.RecipeEntry._ID);
+            return cursor.moveToFirst() && cursor.getInt(idIndex) == this.getId(0) &&
+                    cursor.moveToLast() && cursor.getInt(idIndex) == this.getId(this.mCount - 1);
+        }
+
+        public int getId(int position) {
+            return this.mBuffer.getInt(rowOffset(position));
+        }
+
+        public int getServings(int position) {
+            return this.mBuffer.getInt(rowOffset(position) + 4);
+        }
+
+        /**
+         * The length of the recipe name, to size the array given to
+         * {@link #getName(int, char[])}.
+         */
+        public int getNameLength(int position) {
+            return Math.max(0, this.mBuffer.getInt(rowOffset(position) + 12));
+        }
+
+        /**
+         * Copy the recipe name into the array, which must hold {@link #getNameLength(int)}
+         * characters.
+         *
+         * @return The length of the name.
+         */
+        public int getName(int position, char[] destination) {
+            int offset = this.mBuffer.getInt(rowOffset(position) + 8);
+            int length = this.getNameLength(position);
+
+            for (int i = 0; i < length; i++) {
+                destination[i] = this.mPool.get(offset + i);
+            }
+            return length;
+        }
+
+        /**
+         * The image URL. Creates a String, unlike the other getters, but only when there is an
+         * image.
+         */
+        @Nullable
+        public String getImage(int position) {
+            return this.getString(rowOffset(position) + 16);
+        }
+
+        /**
+         * The whole recipe of the row, for when it's clicked.
+         */
+        public Recipe getRecipe(int position) {
+            Recipe recipe = new Recipe();
+            recipe.setId(this.getId(position));
+            recipe.setServings(this.getServings(position));
+            recipe.setName(this.getString(rowOffset(position) + 8));
+            recipe.setImage(this.getImage(position));
+            return recipe;
+        }
+
+        private String getString(int fieldOffset) {
+            int offset = this.mBuffer.getInt(fieldOffset);
+            int length = this.mBuffer.getInt(fieldOffset + 4);
+
+            if (length < 0) {
+                return null;
+            } else if (length == 0) {
+                return "";
+            }
+            char[] chars = new char[length];
+
+            for (int i = 0; i < length; i++) {
+                chars[i] = this.mPool.get(offset + i);
+            }
+            return new String(chars);
+        }
+
+        private static int rowOffset(int position) {
+            return HEADER_BYTES + position * ROW_BYTES;
+        }
+    }
+
+    /**
+     * The recipes list cursor along with the mapped list read in the same background load, so
+     * the main thread never maps the file.
+     */
+    public static class ReaderCursor extends CursorWrapper {
+        private final Reader mReader;
+
+        public ReaderCursor(Cursor cursor, @Nullable Reader reader) {
+            super(cursor);
+            this.mReader = reader;
+        }
+
+        @Nullable
+        public Reader getReader() {
+            return this.mReader;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2017 Igor Scaglia.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package br.com.scagliabaroni.bakingapp.common;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.DefaultLoadControl;
+import com.google.android.exoplayer2.LoadControl;
+import com.google.android.exoplayer2.Renderer;
+import com.google.android.exoplayer2.source.TrackGroupArray;
+import com.google.android.exoplayer2.trackselection.TrackSelectionArray;
+import com.google.android.exoplayer2.upstream.Allocator;
+import com.google.android.exoplayer2.upstream.DefaultAllocator;
+
+/**
+ * LoadControl that buffers as a {@link RecipesBufferingProfile} says. The durations are handled
+ * by {@link DefaultLoadControl}, on top of it loading also stops when the buffer reaches the
+ * memory cap of the profile. The peak memory taken by the buffer is kept to measure profiles.
+ */
+public class RecipesLoadControl implements LoadControl {
+    private final RecipesBufferingProfile mBufferingProfile;
+    private final DefaultAllocator mAllocator;
+    private final DefaultLoadControl mDefaultLoadControl;
+    private int mPeakAllocatedBytes;
+
+    public RecipesLoadControl(RecipesBufferingProfile bufferingProfile) {
+        this.mBufferingProfile = bufferingProfile;
+        this.mAllocator = new DefaultAllocator(true, C.DEFAULT_BUFFER_SEGMENT_SIZE);
+        this.mDefaultLoadControl = new DefaultLoadControl(this.mAllocator,
+                bufferingProfile.getMinBufferMs(),
+                bufferingProfile.getMaxBufferMs(),
+                bufferingProfile.getBufferForPlaybackMs(),
+                bufferingProfile.getBufferForPlaybackAfterRebufferMs());
+    }
+
+    public RecipesBufferingProfile getBufferingProfile() {
+        return mBufferingProfile;
+    }
+
+    /**
+     * The most memory the buffer has taken so far.
+     */
+    public synchronized int getPeakAllocatedBytes() {
+        return mPeakAllocatedBytes;
+    }
+
+    @Override
+    public void onPrepared() {
+        this.mDefaultLoadControl.onPrepared();
+    }
+
+    @Override
+    public void onTracksSelected(Renderer[] renderers, TrackGroupArray trackGroups,
+                                 TrackSelectionArray trackSelections) {
+        this.mDefaultLoadControl.onTracksSelected(renderers, trackGroups, trackSelections);
+    }
+
+    @Override
+    public void onStopped() {
+        this.mDefaultLoadControl.onStopped();
+    }
+
+    @Override
+    public void onReleased() {
+        this.mDefaultLoadControl.onReleased();
+    }
+
+    @Override
+    public Allocator getAllocator() {
+        return this.mAllocator;
+    }
+
+    @Override
+    public boolean shouldStartPlayback(long bufferedDurationUs, boolean rebuffering) {
+        return this.mDefaultLoadControl.shouldStartPlayback(bufferedDurationUs, rebuffering);
+    }
+
+    @Override
+    public boolean shouldContinueLoading(long bufferedDurationUs) {
+        int allocatedBytes = this.mAllocator.getTotalBytesAllocated();
+
+        synchronized (this) {
+            this.mPeakAllocatedBytes = Math.max(this.mPeakAllocatedBytes, allocatedBytes);
+        }
+
+        // Never take more memory than the profile allows, unless there isn't enough buffered
+        // to play yet, since stopping there would stall playback forever
+        if (allocatedBytes >= this.mBufferingProfile.getMemoryCapBytes() &&
+                bufferedDurationUs >=
+                        this.mBufferingProfile.getBufferForPlaybackAfterRebufferMs() * 1000) {
+            return false;
+        }
+        return this.mDefaultLoadControl.shouldContinueLoading(bufferedDurationUs);
+    }
+}
@@ -0,0 +1,547 @@
+/*
+ * Copyright (c) 2017 Igor Scaglia.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package br.com.scagliabaroni.bakingapp.common;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.net.Uri;
+import android.support.v4.content.LocalBroadcastManager;
+import android.text.TextUtils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import br.com.scagliabaroni.bakingapp.R;
+import br.com.scagliabaroni.bakingapp.model.Recipe;
+import br.com.scagliabaroni.bakingapp.model.RecipeDetailSection;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import timber.log.Timber;
+
+/**
+ * Keeps recipes available offline. Pinning a recipe downloads its card image and its step videos
+ * and thumbnails into the app files folder, in background and resuming partial files where they
+ * stopped. The recipe data itself is already kept by the ContentProvider. When the files go over
+ * the quota the least recently used recipes are removed. The player and the image loader ask
+ * this store for a local copy before going to the network. Recipes are kept by name, since
+ * every load of the recipes renumbers their ids.
+ */
+public class RecipesOfflineStore {
+    public static final String ACTION_BROADCAST_PROGRESS =
+            "br.com.scagliabaroni.bakingapp.OFFLINE_PROGRESS";
+    public static final String EXTENDED_DATA_RECIPE_NAME =
+            "br.com.scagliabaroni.bakingapp.OFFLINE_RECIPE_NAME";
+    public static final String EXTENDED_DATA_STATE =
+            "br.com.scagliabaroni.bakingapp.OFFLINE_STATE";
+    public static final String EXTENDED_DATA_FILES_DONE =
+            "br.com.scagliabaroni.bakingapp.OFFLINE_FILES_DONE";
+    public static final String EXTENDED_DATA_FILES_TOTAL =
+            "br.com.scagliabaroni.bakingapp.OFFLINE_FILES_TOTAL";
+    public static final String EXTENDED_DATA_BYTES_DOWNLOADED =
+            "br.com.scagliabaroni.bakingapp.OFFLINE_BYTES_DOWNLOADED";
+    public static final int STATE_DOWNLOADING = 0;
+    public static final int STATE_COMPLETED = 1;
+    public static final int STATE_FAILED = 2;
+    private static final String FOLDER = "offline";
+    private static final String PARTIAL_SUFFIX = ".part";
+    private static final String PREFERENCES_NAME = "offline_recipes";
+    private static final String KEY_FILES_PREFIX = "files_";
+    private static final String KEY_USED_PREFIX = "used_";
+    private static final String KEY_COMPLETE_PREFIX = "complete_";
+    private static final int BUFFER_SIZE = 16 * 1024;
+    // Progress is broadcast at most once for each of these bytes downloaded
+    private static final long PROGRESS_INTERVAL_BYTES = 256 * 1024;
+    private static RecipesOfflineStore sInstance;
+    private final Context mContext;
+    private final File mFolder;
+    private final SharedPreferences mSharedPreferences;
+    private final long mQuotaBytes;
+    private final OkHttpClient mHttpClient = new OkHttpClient();
+    // The downloads queued or running, by recipe name
+    private final Map<String, Download> mDownloads = new HashMap<>();
+    // The files being written, a file shared by two recipes is downloaded by one at a time
+    private final Set<String> mClaimedFileNames = new HashSet<>();
+
+    private RecipesOfflineStore(Context context) {
+        this.mContext = context;
+        this.mFolder = new File(context.getFilesDir(), FOLDER);
+        this.mSharedPreferences = context
+                .getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+        this.mQuotaBytes = context.getResources().getInteger(R.integer.offline_quota_bytes);
+    }
+
+    public static synchronized RecipesOfflineStore getInstance(Context context) {
+
+        if (sInstance == null) {
+            sInstance = new RecipesOfflineStore(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * If the recipe was chosen to be kept offline, downloaded or not yet.
+     */
+    public boolean isPinned(Recipe recipe) {
+        return this.isPinned(recipe.getName());
+    }
+
+    /**
+     * If all files of the recipe are stored.
+     */
+    public boolean isAvailableOffline(Recipe recipe) {
+        return this.mSharedPreferences.getBoolean(KEY_COMPLETE_PREFIX + recipe.getName(), false);
+    }
+
+    public synchronized boolean isDownloading(Recipe recipe) {
+        return this.mDownloads.containsKey(recipe.getName());
+    }
+
+    /**
+     * Keep the recipe offline. Its files are downloaded in background, the progress is broadcast
+     * with {@link #ACTION_BROADCAST_PROGRESS}. Pinning it again resumes a failed download.
+     */
+    public synchronized void pin(Recipe recipe) {
+        String recipeName = recipe.getName();
+
+        // Already downloading or downloaded
+        if (this.mDownloads.containsKey(recipeName) || this.isAvailableOffline(recipe)) {
+            return;
+        }
+        SharedPreferences.Editor editor = this.mSharedPreferences.edit()
+                .putLong(KEY_USED_PREFIX + recipeName, System.currentTimeMillis());
+
+        // The files are known once the download starts
+        if (!this.isPinned(recipeName)) {
+            editor.putStringSet(KEY_FILES_PREFIX + recipeName, new HashSet<String>());
+        }
+        editor.apply();
+        Download download = new Download(recipe);
+        // The download lane threads limit how many recipes download at the same time, a
+        // download waiting for a shared file blocks only that lane
+        download.mTask = RecipesTaskExecutor.getInstance().execute(
+                RecipesTaskExecutor.LaneType.DOWNLOAD, RecipesTaskExecutor.PRIORITY_NORMAL,
+                download);
+        this.mDownloads.put(recipeName, download);
+    }
+
+    /**
+     * Stop keeping the recipe offline and delete its files, unless another recipe uses them.
+     */
+    public void unpin(Recipe recipe) {
+        this.unpin(recipe.getName());
+    }
+
+    /**
+     * Tell the recipe was used, so it's the last one removed when over the quota.
+     */
+    public void markUsed(Recipe recipe) {
+
+        if (this.isPinned(recipe)) {
+            this.mSharedPreferences.edit()
+                    .putLong(KEY_USED_PREFIX + recipe.getName(), System.currentTimeMillis())
+                    .apply();
+        }
+    }
+
+    private boolean isPinned(String key) {
+        return this.mSharedPreferences.contains(KEY_FILES_PREFIX + key);
+    }
+
+    private synchronized void unpin(String key) {
+        Download download = this.mDownloads.remove(key);
+
+        if (download != null) {
+            download.mCanceled = true;
+            RecipesTaskExecutor.getInstance().cancel(download.mTask);
+            // A download waiting for a file claimed by another one gives up
+            this.notifyAll();
+        }
+        Set<String> fileNames = this.getFileNames(key);
+        this.mSharedPreferences.edit()
+                .remove(KEY_FILES_PREFIX + key)
+                .remove(KEY_USED_PREFIX + key)
+                .remove(KEY_COMPLETE_PREFIX + key)
+                .apply();
+        // Files shared with other pinned recipes stay
+        fileNames.removeAll(this.getPinnedFileNames());
+
+        for (String fileName : fileNames) {
+            this.delete(new File(this.mFolder, fileName));
+            this.delete(new File(this.mFolder, fileName + PARTIAL_SUFFIX));
+        }
+    }
+
+    /**
+     * The local copy of the given url, or null when it isn't stored.
+     */
+    public File getLocalFile(String url) {
+
+        if (TextUtils.isEmpty(url)) {
+            return null;
+        }
+        File file = new File(this.mFolder, fileNameFor(url));
+        return file.exists() ? file : null;
+    }
+
+    /**
+     * The local copy of the given url as a file uri, or the url itself when it isn't stored.
+     */
+    public String resolve(String url) {
+        File file = this.getLocalFile(url);
+        return file == null ? url : Uri.fromFile(file).toString();
+    }
+
+    private Set<String> getFileNames(String key) {
+        return new HashSet<>(this.mSharedPreferences
+                .getStringSet(KEY_FILES_PREFIX + key, new HashSet<String>()));
+    }
+
+    @SuppressWarnings("unchecked")
+    private Set<String> getPinnedFileNames() {
+        Set<String> result = new HashSet<>();
+
+        for (Map.Entry<String, ?> entry : this.mSharedPreferences.getAll().entrySet()) {
+
+            if (entry.getKey().startsWith(KEY_FILES_PREFIX)) {
+                result.addAll((Set<String>) entry.getValue());
+            }
+        }
+        return result;
+    }
+
+    private void delete(File file) {
+
+        if (file.exists() && !file.delete()) {
+            Timber.w("Couldn't delete %s", file);
+        }
+    }
+
+    /**
+     * Remove the least recently used recipes until the files fit in the quota. The recipe just
+     * downloaded is never removed.
+     */
+    private synchronized void enforceQuota(String keepKey) {
+        File[] files = this.mFolder.listFiles();
+        long totalBytes = 0;
+
+        for (File file : files == null ? new File[0] : files) {
+            totalBytes += file.length();
+        }
+
+        while (totalBytes > this.mQuotaBytes) {
+            String oldestKey = null;
+            long oldestUsedAt = Long.MAX_VALUE;
+
+            // Find the least recently used recipe
+            for (Map.Entry<String, ?> entry : this.mSharedPreferences.getAll().entrySet()) {
+
+                if (entry.getKey().startsWith(KEY_USED_PREFIX)) {
+                    String key = entry.getKey().substring(KEY_USED_PREFIX.length());
+
+                    if (!key.equals(keepKey) && (Long) entry.getValue() < oldestUsedAt &&
+                            !this.mDownloads.containsKey(key)) {
+                        oldestKey = key;
+                        oldestUsedAt = (Long) entry.getValue();
+                    }
+                }
+            }
+
+            // Nothing else can be removed
+            if (oldestKey == null) {
+                Timber.w("Offline recipes take %d bytes, over the quota", totalBytes);
+                return;
+            }
+            Timber.i("Removing offline recipe %s to fit in the quota", oldestKey);
+            long before = this.folderSize();
+            this.unpin(oldestKey);
+            totalBytes -= before - this.folderSize();
+        }
+    }
+
+    private long folderSize() {
+        File[] files = this.mFolder.listFiles();
+        long result = 0;
+
+        for (File file : files == null ? new File[0] : files) {
+            result += file.length();
+        }
+        return result;
+    }
+
+    /**
+     * The local file name of an url, its SHA-1 hash, so it's the same for all recipes using it.
+     */
+    private static String fileNameFor(String url) {
+        try {
+            MessageDigest messageDigest = MessageDigest.getInstance("SHA-1");
+            StringBuilder result = new StringBuilder();
+
+            for (byte b : messageDigest.digest(url.getBytes("UTF-8"))) {
+                result.append(String.format("%02x", b));
+            }
+            return result.toString();
+        } catch (NoSuchAlgorithmException | IOException e) {
+            // Every platform has SHA-1 and UTF-8
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void broadcastProgress(String recipeName, int state, int filesDone, int filesTotal,
+                                   long bytesDownloaded) {
+        Intent localIntent = new Intent(ACTION_BROADCAST_PROGRESS)
+                .putExtra(EXTENDED_DATA_RECIPE_NAME, recipeName)
+                .putExtra(EXTENDED_DATA_STATE, state)
+                .putExtra(EXTENDED_DATA_FILES_DONE, filesDone)
+                .putExtra(EXTENDED_DATA_FILES_TOTAL, filesTotal)
+                .putExtra(EXTENDED_DATA_BYTES_DOWNLOADED, bytesDownloaded);
+        LocalBroadcastManager.getInstance(this.mContext).sendBroadcast(localIntent);
+    }
+
+    /**
+     * Downloads all files of one recipe, one after another.
+     */
+    private class Download implements Runnable {
+        private final Recipe mRecipe;
+        private RecipesTaskExecutor.Task mTask;
+        private volatile boolean mCanceled;
+        private long mBytesDownloaded;
+        private long mBytesBroadcast;
+
+        Download(Recipe recipe) {
+            this.mRecipe = recipe;
+        }
+
+        @Override
+        public void run() {
+            String key = this.mRecipe.getName();
+            List<String> urls = this.getUrls();
+            int filesDone = 0;
+            Set<String> fileNames = new HashSet<>();
+
+            for (String url : urls) {
+                fileNames.add(fileNameFor(url));
+            }
+
+            synchronized (RecipesOfflineStore.this) {
+
+                // Unpinned before starting
+                if (this.mCanceled) {
+                    return;
+                }
+                mSharedPreferences.edit().putStringSet(KEY_FILES_PREFIX + key, fileNames)
+                        .apply();
+            }
+
+            if (!mFolder.exists() && !mFolder.mkdirs()) {
+                Timber.e("Couldn't create %s", mFolder);
+            }
+            broadcastProgress(key, STATE_DOWNLOADING, 0, urls.size(), 0);
+            try {
+
+                for (String url : urls) {
+                    this.downloadFile(url, filesDone, urls.size());
+
+                    if (this.mCanceled) {
+                        return;
+                    }
+                    filesDone++;
+                    broadcastProgress(key, STATE_DOWNLOADING, filesDone, urls.size(),
+                            this.mBytesDownloaded);
+                }
+
+                synchronized (RecipesOfflineStore.this) {
+
+                    if (this.mCanceled) {
+                        return;
+                    }
+                    mDownloads.remove(key);
+                    mSharedPreferences.edit().putBoolean(KEY_COMPLETE_PREFIX + key, true)
+                            .apply();
+                }
+                enforceQuota(key);
+                broadcastProgress(key, STATE_COMPLETED, filesDone, urls.size(),
+                        this.mBytesDownloaded);
+            } catch (IOException e) {
+                Timber.w(e, "Offline download of recipe %s failed", key);
+
+                // Partial files stay, so pinning again resumes them
+                synchronized (RecipesOfflineStore.this) {
+                    mDownloads.remove(key);
+                }
+                broadcastProgress(key, STATE_FAILED, filesDone, urls.size(),
+                        this.mBytesDownloaded);
+            }
+        }
+
+        /**
+         * The card image, then the step videos and thumbnails, without repetitions.
+         */
+        private List<String> getUrls() {
+            Set<String> result = new LinkedHashSet<>();
+            // The recipe may come from before the last load, which gave it another id
+            Recipe recipe = RecipesUtils.getRecipeByName(mContext, this.mRecipe.getName());
+
+            if (recipe == null) {
+                return new ArrayList<>();
+            }
+
+            if (!TextUtils.isEmpty(recipe.getImage())) {
+                result.add(recipe.getImage());
+            }
+
+            for (RecipeDetailSection section : RecipesUtils
+                    .getRecipeDetailSections(mContext, recipe.getId())) {
+
+                if (section.getStep() == null) {
+                    continue;
+                }
+
+                if (!TextUtils.isEmpty(section.getStep().getVideoURL())) {
+                    result.add(section.getStep().getVideoURL());
+                }
+
+                if (!TextUtils.isEmpty(section.getStep().getThumbnailURL())) {
+                    result.add(section.getStep().getThumbnailURL());
+                }
+            }
+            return new ArrayList<>(result);
+        }
+
+        /**
+         * Download one file into a partial file, continuing from its end when the server
+         * supports ranges, and then rename it to the final name. A file shared with a recipe
+         * downloading at the same time is written by one of them, the other waits for it.
+         */
+        private void downloadFile(String url, int filesDone, int filesTotal) throws IOException {
+            String fileName = fileNameFor(url);
+
+            if (!this.claim(fileName)) {
+                return;
+            }
+            try {
+                this.downloadClaimedFile(url, fileName, filesDone, filesTotal);
+            } finally {
+                this.release(fileName);
+            }
+        }
+
+        /**
+         * Wait until no other download writes the file and take it.
+         *
+         * @return False if the download was canceled while waiting.
+         */
+        private boolean claim(String fileName) throws IOException {
+
+            synchronized (RecipesOfflineStore.this) {
+
+                while (mClaimedFileNames.contains(fileName) && !this.mCanceled) {
+                    try {
+                        RecipesOfflineStore.this.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted waiting for " + fileName);
+                    }
+                }
+
+                if (this.mCanceled) {
+                    return false;
+                }
+                mClaimedFileNames.add(fileName);
+                return true;
+            }
+        }
+
+        private void release(String fileName) {
+
+            synchronized (RecipesOfflineStore.this) {
+                mClaimedFileNames.remove(fileName);
+                RecipesOfflineStore.this.notifyAll();
+            }
+        }
+
+        private void downloadClaimedFile(String url, String fileName, int filesDone,
+                                         int filesTotal) throws IOException {
+            File target = new File(mFolder, fileName);
+
+            // Already stored, maybe by another recipe
+            if (target.exists()) {
+                return;
+            }
+            File partial = new File(mFolder, target.getName() + PARTIAL_SUFFIX);
+            long offset = partial.length();
+            Request.Builder requestBuilder = new Request.Builder().url(url);
+
+            if (offset > 0) {
+                requestBuilder.header("Range", "bytes=" + offset + "-");
+            }
+            Response response = mHttpClient.newCall(requestBuilder.build()).execute();
+            try {
+
+                if (!response.isSuccessful()) {
+                    throw new IOException("HTTP " + response.code() + " for " + url);
+                }
+                // Without partial content the server sends the whole file again
+                boolean append = offset > 0 && response.code() == 206;
+                InputStream inputStream = response.body().byteStream();
+                OutputStream outputStream = new FileOutputStream(partial, append);
+                try {
+                    byte[] buffer = new byte[BUFFER_SIZE];
+                    int read;
+
+                    while ((read = inputStream.read(buffer)) != -1) {
+
+                        if (this.mCanceled) {
+                            return;
+                        }
+                        outputStream.write(buffer, 0, read);
+                        this.mBytesDownloaded += read;
+
+                        if (this.mBytesDownloaded - this.mBytesBroadcast >=
+                                PROGRESS_INTERVAL_BYTES) {
+                            this.mBytesBroadcast = this.mBytesDownloaded;
+                            broadcastProgress(this.mRecipe.getName(), STATE_DOWNLOADING,
+                                    filesDone, filesTotal, this.mBytesDownloaded);
+                        }
+                    }
+                } finally {
+                    outputStream.close();
+                }
+            } finally {
+                response.close();
+            }
+
+            if (!partial.renameTo(target)) {
+                throw new IOException("Couldn't rename " + partial);
+            }
+        }
+    }
+}
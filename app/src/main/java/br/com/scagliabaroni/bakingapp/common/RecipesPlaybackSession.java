@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2017 Igor Scaglia.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package br.com.scagliabaroni.bakingapp.common;
+
+import android.content.Context;
+import android.content.Intent;
+import android.support.v4.media.session.MediaButtonReceiver;
+import android.support.v4.media.session.MediaSessionCompat;
+import android.support.v4.media.session.PlaybackStateCompat;
+
+/**
+ * Owns the {@link MediaSessionCompat} of the app. The session is created and released by
+ * {@link br.com.scagliabaroni.bakingapp.service.RecipesPlaybackService}, each player just attaches
+ * its callback while it's the active one, so media buttons and other clients always reach the
+ * player that is playing.
+ */
+public class RecipesPlaybackSession {
+    private static final String TAG = "BakingAppPlaybackSession";
+    private final MediaSessionCompat mMediaSession;
+    // The callback of the active player
+    private MediaSessionCompat.Callback mActiveCallback;
+
+    public RecipesPlaybackSession(Context context) {
+        // Create a MediaSessionCompat.
+        this.mMediaSession = new MediaSessionCompat(context, TAG);
+        // Enable callbacks from MediaButtons and TransportControls.
+        this.mMediaSession.setFlags(
+                MediaSessionCompat.FLAG_HANDLES_MEDIA_BUTTONS |
+                        MediaSessionCompat.FLAG_HANDLES_TRANSPORT_CONTROLS);
+        // Do not let MediaButtons restart the player when the app is not visible.
+        this.mMediaSession.setMediaButtonReceiver(null);
+    }
+
+    public MediaSessionCompat.Token getSessionToken() {
+        return this.mMediaSession.getSessionToken();
+    }
+
+    /**
+     * Route the session to the given player callback and activate it. Should be called on main
+     * thread.
+     */
+    public void activate(MediaSessionCompat.Callback callback,
+                         PlaybackStateCompat playbackState) {
+
+        if (this.mActiveCallback != callback) {
+            this.mActiveCallback = callback;
+            this.mMediaSession.setCallback(callback);
+            this.mMediaSession.setPlaybackState(playbackState);
+        }
+
+        if (!this.mMediaSession.isActive()) {
+            this.mMediaSession.setActive(true);
+        }
+    }
+
+    /**
+     * Deactivate the session, only if the given player callback is still the active one.
+     */
+    public void deactivate(MediaSessionCompat.Callback callback) {
+
+        if (this.mActiveCallback == callback) {
+            this.mActiveCallback = null;
+            this.mMediaSession.setCallback(null);
+            this.mMediaSession.setActive(false);
+        }
+    }
+
+    /**
+     * Publish the state of the given player, ignored when it isn't the active one.
+     */
+    public void setPlaybackState(MediaSessionCompat.Callback callback,
+                                 PlaybackStateCompat playbackState) {
+
+        if (this.mActiveCallback == callback) {
+            this.mMediaSession.setPlaybackState(playbackState);
+        }
+    }
+
+    /**
+     * Hand a MEDIA_BUTTON intent, forwarded by {@link MediaButtonReceiver}, to the active player.
+     */
+    public void handleMediaButton(Intent intent) {
+        MediaButtonReceiver.handleIntent(this.mMediaSession, intent);
+    }
+
+    /**
+     * Release the session, it can't be used anymore.
+     */
+    public void release() {
+        this.mActiveCallback = null;
+        this.mMediaSession.setCallback(null);
+        this.mMediaSession.release();
+    }
+}
@@ -19,8 +19,10 @@ package br.com.scagliabaroni.bakingapp.common;
 import java.util.List;
 
 import br.com.scagliabaroni.bakingapp.model.Recipe;
+import okhttp3.ResponseBody;
 import retrofit2.Call;
 import retrofit2.http.GET;
+import retrofit2.http.Streaming;
 
 /**
  * This interface is required by retrofit to inform what kind of callings we will do.
@@ -34,4 +36,14 @@ public interface RecipesRetrofitContract {
      */
     @GET(".")
     Call<List<Recipe>> getRecipes();
+
+    /**
+     * The same list, but with the body left in the network stream, to be decoded while it
+     * downloads.
+     *
+     * @return A response whose body is the JSON list of recipes.
+     */
+    @Streaming
+    @GET(".")
+    Call<ResponseBody> getRecipesStream();
 }
\ No newline at end of file
@@ -0,0 +1,228 @@
+/*
+ * Copyright (c) 2017 Igor Scaglia.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package br.com.scagliabaroni.bakingapp.common;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import br.com.scagliabaroni.bakingapp.model.Ingredient;
+import br.com.scagliabaroni.bakingapp.model.Recipe;
+import br.com.scagliabaroni.bakingapp.model.Step;
+
+/**
+ * Compact binary form of the whole recipes catalog. Every distinct string is stored once in a
+ * pool at the start of the snapshot, and the recipes refer to it by index, so the repeated
+ * measures, ingredients and URLs cost four bytes each. All values are length-prefixed and
+ * big-endian:
+ * <pre>
+ * magic, version,
+ * string count, (byte length, UTF-8 bytes) per string,
+ * recipe count, per recipe:
+ *   id, name, servings, image,
+ *   ingredient count, (quantity, measure, ingredient) per ingredient,
+ *   step count, (id, short description, description, video, thumbnail, position) per step
+ * </pre>
+ * Strings are pool indexes with {@link #NULL_REFERENCE} for null, null numbers are
+ * {@link Integer#MIN_VALUE} and {@link Double#NaN}.
+ */
+public class RecipesSnapshotCodec {
+    private static final int MAGIC = 0x52435053;
+    private static final int VERSION = 1;
+    private static final int NULL_REFERENCE = -1;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private RecipesSnapshotCodec() {
+    }
+
+    public static byte[] encode(List<Recipe> recipes) throws IOException {
+        // First pass, the pool has to be written before the recipes pointing to it
+        StringPool pool = new StringPool();
+
+        for (Recipe recipe : recipes) {
+            pool.add(recipe.getName());
+            pool.add(recipe.getImage());
+
+            for (Ingredient ingredient : recipe.getIngredients()) {
+                pool.add(ingredient.getMeasure());
+                pool.add(ingredient.getIngredient());
+            }
+
+            for (Step step : recipe.getSteps()) {
+                pool.add(step.getShortDescription());
+                pool.add(step.getDescription());
+                pool.add(step.getVideoURL());
+                pool.add(step.getThumbnailURL());
+            }
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+        output.writeInt(pool.mStrings.size());
+
+        for (String string : pool.mStrings) {
+            byte[] encoded = string.getBytes(UTF_8);
+            output.writeInt(encoded.length);
+            output.write(encoded);
+        }
+        output.writeInt(recipes.size());
+
+        for (Recipe recipe : recipes) {
+            writeInteger(output, recipe.getId());
+            output.writeInt(pool.indexOf(recipe.getName()));
+            writeInteger(output, recipe.getServings());
+            output.writeInt(pool.indexOf(recipe.getImage()));
+            output.writeInt(recipe.getIngredients().size());
+
+            for (Ingredient ingredient : recipe.getIngredients()) {
+                output.writeDouble(ingredient.getQuantity() == null ?
+                        Double.NaN : ingredient.getQuantity());
+                output.writeInt(pool.indexOf(ingredient.getMeasure()));
+                output.writeInt(pool.indexOf(ingredient.getIngredient()));
+            }
+            output.writeInt(recipe.getSteps().size());
+
+            for (Step step : recipe.getSteps()) {
+                writeInteger(output, step.getId());
+                output.writeInt(pool.indexOf(step.getShortDescription()));
+                output.writeInt(pool.indexOf(step.getDescription()));
+                output.writeInt(pool.indexOf(step.getVideoURL()));
+                output.writeInt(pool.indexOf(step.getThumbnailURL()));
+                writeInteger(output, step.getPosition());
+            }
+        }
+        output.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decode a snapshot from the buffer position, for example a memory-mapped file.
+     *
+     * @throws IOException If the buffer is not a snapshot of this version or is truncated.
+     */
+    public static List<Recipe> decode(ByteBuffer buffer) throws IOException {
+        try {
+
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                throw new IOException("Not a recipes snapshot of version " + VERSION);
+            }
+            String[] strings = new String[buffer.getInt()];
+            // Reused for each string when the buffer has no array, like a mapped one
+            byte[] scratch = new byte[256];
+
+            for (int i = 0; i < strings.length; i++) {
+                int length = buffer.getInt();
+
+                if (buffer.hasArray()) {
+                    strings[i] = new String(buffer.array(),
+                            buffer.arrayOffset() + buffer.position(), length, UTF_8);
+                    buffer.position(buffer.position() + length);
+                } else {
+
+                    if (scratch.length < length) {
+                        scratch = new byte[Math.max(length, scratch.length * 2)];
+                    }
+                    buffer.get(scratch, 0, length);
+                    strings[i] = new String(scratch, 0, length, UTF_8);
+                }
+            }
+            int recipeCount = buffer.getInt();
+            List<Recipe> recipes = new ArrayList<>(recipeCount);
+
+            for (int i = 0; i < recipeCount; i++) {
+                Recipe recipe = new Recipe();
+                recipe.setId(readInteger(buffer));
+                recipe.setName(readString(buffer, strings));
+                recipe.setServings(readInteger(buffer));
+                recipe.setImage(readString(buffer, strings));
+                int ingredientCount = buffer.getInt();
+                List<Ingredient> ingredients = new ArrayList<>(ingredientCount);
+
+                for (int j = 0; j < ingredientCount; j++) {
+                    Ingredient ingredient = new Ingredient();
+                    double quantity = buffer.getDouble();
+                    ingredient.setQuantity(Double.isNaN(quantity) ? null : quantity);
+                    ingredient.setMeasure(readString(buffer, strings));
+                    ingredient.setIngredient(readString(buffer, strings));
+                    ingredients.add(ingredient);
+                }
+                recipe.setIngredients(ingredients);
+                int stepCount = buffer.getInt();
+                List<Step> steps = new ArrayList<>(stepCount);
+
+                for (int j = 0; j < stepCount; j++) {
+                    Step step = new Step();
+                    step.setId(readInteger(buffer));
+                    step.setShortDescription(readString(buffer, strings));
+                    step.setDescription(readString(buffer, strings));
+                    step.setVideoURL(readString(buffer, strings));
+                    step.setThumbnailURL(readString(buffer, strings));
+                    step.setPosition(readInteger(buffer));
+                    steps.add(step);
+                }
+                recipe.setSteps(steps);
+                recipes.add(recipe);
+            }
+            return recipes;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException |
+                NegativeArraySizeException e) {
+            throw new IOException("Truncated recipes snapshot", e);
+        }
+    }
+
+    private static void writeInteger(DataOutputStream output, Integer value) throws IOException {
+        output.writeInt(value == null ? Integer.MIN_VALUE : value);
+    }
+
+    private static Integer readInteger(ByteBuffer buffer) {
+        int value = buffer.getInt();
+        return value == Integer.MIN_VALUE ? null : value;
+    }
+
+    private static String readString(ByteBuffer buffer, String[] strings) {
+        int reference = buffer.getInt();
+        return reference == NULL_REFERENCE ? null : strings[reference];
+    }
+
+    /**
+     * The distinct strings of the catalog, in the order they were first seen.
+     */
+    private static class StringPool {
+        private final List<String> mStrings = new ArrayList<>();
+        private final Map<String, Integer> mIndexes = new HashMap<>();
+
+        private void add(String string) {
+
+            if (string != null && !this.mIndexes.containsKey(string)) {
+                this.mIndexes.put(string, this.mStrings.size());
+                this.mStrings.add(string);
+            }
+        }
+
+        private int indexOf(String string) {
+            return string == null ? NULL_REFERENCE : this.mIndexes.get(string);
+        }
+    }
+}
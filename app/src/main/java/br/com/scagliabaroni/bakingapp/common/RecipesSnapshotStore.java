@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2017 Igor Scaglia.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package br.com.scagliabaroni.bakingapp.common;
+
+import android.content.ContentProviderOperation;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.content.res.AssetFileDescriptor;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.support.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import br.com.scagliabaroni.bakingapp.model.Recipe;
+import br.com.scagliabaroni.bakingapp.provider.RecipesProvider;
+import timber.log.Timber;
+
+/**
+ * Keeps a {@link RecipesSnapshotCodec} snapshot of the catalog, written after each successful
+ * sync. On a cold start with an empty database the snapshot, or the one bundled in the assets
+ * on a first install, is memory-mapped and seeds the database without waiting for the network.
+ */
+public class RecipesSnapshotStore {
+    // Also the name of the bundled asset, which must be stored uncompressed to be mapped
+    public static final String SNAPSHOT_NAME = "catalog.snapshot";
+    private static RecipesSnapshotStore sInstance;
+    private final Context mContext;
+    private final File mSnapshotFile;
+
+    private RecipesSnapshotStore(Context context) {
+        this.mContext = context;
+        this.mSnapshotFile = new File(context.getFilesDir(), SNAPSHOT_NAME);
+    }
+
+    public static synchronized RecipesSnapshotStore getInstance(Context context) {
+
+        if (sInstance == null) {
+            sInstance = new RecipesSnapshotStore(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Replace the snapshot. A reader never sees a half written one.
+     */
+    public synchronized void write(List<Recipe> recipes) {
+        File temporaryFile = new File(this.mSnapshotFile.getPath() + ".tmp");
+        try {
+            byte[] snapshot = RecipesSnapshotCodec.encode(recipes);
+
+            try (FileOutputStream output = new FileOutputStream(temporaryFile)) {
+                output.write(snapshot);
+                output.getFD().sync();
+            }
+
+            if (!temporaryFile.renameTo(this.mSnapshotFile)) {
+                throw new IOException("Could not replace " + this.mSnapshotFile);
+            }
+            Timber.d("Recipes snapshot written, %d recipes in %d bytes", recipes.size(),
+                    snapshot.length);
+        } catch (IOException e) {
+            Timber.d(e);
+            //noinspection ResultOfMethodCallIgnored
+            temporaryFile.delete();
+        }
+    }
+
+    /**
+     * The catalog of the last sync, or of the bundled asset when the app never synced.
+     *
+     * @return The recipes, or null when there is no readable snapshot.
+     */
+    @Nullable
+    public synchronized List<Recipe> read() {
+        long start = SystemClock.elapsedRealtime();
+        List<Recipe> recipes = null;
+        try {
+
+            if (this.mSnapshotFile.exists()) {
+                recipes = this.readFile();
+            } else {
+                recipes = this.readAsset();
+            }
+        } catch (IOException e) {
+            Timber.d(e);
+        }
+
+        if (recipes != null) {
+            Timber.d("Recipes snapshot read, %d recipes in %d ms", recipes.size(),
+                    SystemClock.elapsedRealtime() - start);
+        }
+        return recipes;
+    }
+
+    /**
+     * Fill an empty database with the snapshot, on the calling thread.
+     *
+     * @return The total of recipes added in database.
+     */
+    public int seed() {
+        List<Recipe> recipes = this.read();
+
+        if (recipes == null || recipes.isEmpty()) {
+            return 0;
+        }
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+
+        for (Recipe recipe : recipes) {
+            RecipesCatalogLoader.addRecipeOperations(recipe, operations);
+        }
+        try {
+            // One transaction, the list shows all the recipes at once
+            this.mContext.getContentResolver().applyBatch(RecipesProvider.AUTHORITY, operations);
+            return recipes.size();
+        } catch (RemoteException | OperationApplicationException e) {
+            Timber.d(e);
+        }
+        return 0;
+    }
+
+    private List<Recipe> readFile() throws IOException {
+
+        try (FileInputStream input = new FileInputStream(this.mSnapshotFile);
+             FileChannel channel = input.getChannel()) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+            return RecipesSnapshotCodec.decode(buffer);
+        }
+    }
+
+    @Nullable
+    private List<Recipe> readAsset() throws IOException {
+        AssetFileDescriptor descriptor;
+        try {
+            descriptor = this.mContext.getAssets().openFd(SNAPSHOT_NAME);
+        } catch (FileNotFoundException e) {
+            // No bundled snapshot, or a compressed one which can't be mapped
+            return null;
+        }
+        try (FileInputStream input = descriptor.createInputStream();
+             FileChannel channel = input.getChannel()) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+                    descriptor.getStartOffset(), descriptor.getLength());
+            return RecipesSnapshotCodec.decode(buffer);
+        } finally {
+            descriptor.close();
+        }
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright (c) 2017 Igor Scaglia.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package br.com.scagliabaroni.bakingapp.common;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.os.SystemClock;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import br.com.scagliabaroni.bakingapp.R;
+import br.com.scagliabaroni.bakingapp.service.RecipesLoadIntentService;
+import timber.log.Timber;
+
+/**
+ * Single-flight runner of the recipes loads. At most one load runs at a time, a request made
+ * while it runs attaches to it and gets its result, including its result broadcast. A full
+ * load request made while a lighter load runs, like a seed from the snapshot, waits for it
+ * instead. A request that waited in a queue is dropped when a run completed after it was made,
+ * or a successful run completed within the coalescing window, and the last result is broadcast
+ * again instead.
+ */
+public class RecipesSyncCoordinator {
+    private static final String PREFERENCES_NAME = "recipes_sync";
+    private static final String KEY_LAST_SYNC = "last_sync";
+    private static RecipesSyncCoordinator sInstance;
+    private final Context mContext;
+    private final SharedPreferences mSharedPreferences;
+    private final long mCoalescingWindowMs;
+    // The load running now, guarded by this
+    private Run mInFlight;
+    // The last completed load, in elapsed realtime, guarded by this
+    private long mLastCompletedAt;
+    private Run mLastRun;
+    private final AtomicLong mRequests = new AtomicLong();
+    private final AtomicLong mAttachedRequests = new AtomicLong();
+    private final AtomicLong mCoalescedRequests = new AtomicLong();
+    private final AtomicLong mRuns = new AtomicLong();
+    private final AtomicLong mFailedRuns = new AtomicLong();
+
+    private RecipesSyncCoordinator(Context context) {
+        this.mContext = context;
+        this.mSharedPreferences = context
+                .getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+        this.mCoalescingWindowMs = TimeUnit.SECONDS.toMillis(context.getResources()
+                .getInteger(R.integer.sync_coalescing_window_seconds));
+    }
+
+    public static synchronized RecipesSyncCoordinator getInstance(Context context) {
+
+        if (sInstance == null) {
+            sInstance = new RecipesSyncCoordinator(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Load the recipes from the server into the database, on the calling thread.
+     *
+     * @param intent      The load request, with the action of {@link RecipesLoadIntentService},
+     *                    or null to replace the local recipes.
+     * @param requestedAt When the load was requested, in {@link SystemClock#elapsedRealtime()}.
+     * @return False if the server could not be reached and the local recipes were kept.
+     */
+    public boolean load(Intent intent, long requestedAt) {
+        this.mRequests.incrementAndGet();
+        // Only a full load answers a full load request, any load answers the others
+        boolean fullLoad = intent == null || intent.getAction() == null;
+        Run run;
+        Run coveringRun = null;
+        boolean owner = false;
+
+        while (true) {
+            Run blockingRun = null;
+
+            synchronized (this) {
+
+                // Attach to the running load
+                if (this.mInFlight != null && this.mInFlight.covers(fullLoad)) {
+                    this.mAttachedRequests.incrementAndGet();
+                    run = this.mInFlight;
+                } else if (this.mInFlight != null) {
+                    // A lighter load runs, ours starts after it
+                    run = null;
+                    blockingRun = this.mInFlight;
+                } else if (this.isCovered(requestedAt, fullLoad)) {
+                    // A completed load already answers this request
+                    this.mCoalescedRequests.incrementAndGet();
+                    run = null;
+                    coveringRun = this.mLastRun;
+                } else {
+                    run = this.mInFlight = new Run(fullLoad);
+                    owner = true;
+                }
+            }
+
+            if (blockingRun == null) {
+                break;
+            }
+            blockingRun.await();
+        }
+
+        if (coveringRun != null) {
+            // Whoever waits for this request still gets a result broadcast
+            RecipesUtils.sendRecipesLoadedBroadcast(this.mContext,
+                    coveringRun.mTotalRecipesLoaded);
+            return coveringRun.mSuccess;
+        } else if (!owner) {
+            return run.await();
+        }
+        try {
+            this.execute(run, intent);
+        } finally {
+
+            synchronized (this) {
+                this.mInFlight = null;
+                this.mLastRun = run;
+                this.mLastCompletedAt = SystemClock.elapsedRealtime();
+            }
+            run.complete();
+            Timber.d("Recipes loads: %s", this.getMetrics());
+        }
+        return run.mSuccess;
+    }
+
+    /**
+     * If a load is running now.
+     */
+    public synchronized boolean isRunning() {
+        return this.mInFlight != null;
+    }
+
+    /**
+     * When the recipes were last loaded from the server, in wall time, or 0 if never.
+     */
+    public long getLastSync() {
+        return this.mSharedPreferences.getLong(KEY_LAST_SYNC, 0);
+    }
+
+    public Metrics getMetrics() {
+        return new Metrics(this);
+    }
+
+    private boolean isCovered(long requestedAt, boolean fullLoad) {
+
+        if (this.mLastRun == null || !this.mLastRun.covers(fullLoad)) {
+            return false;
+        }
+        // Made while waiting behind the last load, which already did the work
+        if (this.mLastCompletedAt >= requestedAt) {
+            return true;
+        }
+        return this.mLastRun.mSuccess &&
+                SystemClock.elapsedRealtime() - this.mLastCompletedAt < this.mCoalescingWindowMs;
+    }
+
+    private void execute(Run run, Intent intent) {
+        this.mRuns.incrementAndGet();
+
+        if (intent == null) {
+            intent = new Intent(this.mContext, RecipesLoadIntentService.class);
+        }
+        run.mTotalRecipesLoaded = RecipesUtils.loadRecipes(intent, this.mContext);
+
+        if (run.mTotalRecipesLoaded > 0) {
+            this.mSharedPreferences.edit()
+                    .putLong(KEY_LAST_SYNC, System.currentTimeMillis())
+                    .apply();
+            run.mSuccess = true;
+        } else if (!run.mFullLoad) {
+            // Nothing to load is a success for the lighter actions
+            run.mSuccess = true;
+        } else {
+            this.mFailedRuns.incrementAndGet();
+        }
+    }
+
+    /**
+     * One load and the requests waiting for it.
+     */
+    private static class Run {
+        private final CountDownLatch mDone = new CountDownLatch(1);
+        private final boolean mFullLoad;
+        private volatile boolean mSuccess;
+        private volatile int mTotalRecipesLoaded;
+
+        private Run(boolean fullLoad) {
+            this.mFullLoad = fullLoad;
+        }
+
+        private boolean covers(boolean fullLoad) {
+            return this.mFullLoad || !fullLoad;
+        }
+
+        private void complete() {
+            this.mDone.countDown();
+        }
+
+        private boolean await() {
+            try {
+                this.mDone.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            return this.mSuccess;
+        }
+    }
+
+    /**
+     * Snapshot of the load counters.
+     */
+    public static class Metrics {
+        public final long requests;
+        public final long attachedRequests;
+        public final long coalescedRequests;
+        public final long runs;
+        public final long failedRuns;
+
+        private Metrics(RecipesSyncCoordinator coordinator) {
+            this.requests = coordinator.mRequests.get();
+            this.attachedRequests = coordinator.mAttachedRequests.get();
+            this.coalescedRequests = coordinator.mCoalescedRequests.get();
+            this.runs = coordinator.mRuns.get();
+            this.failedRuns = coordinator.mFailedRuns.get();
+        }
+
+        /**
+         * The requests answered without a load of their own.
+         */
+        public long getDeduplicatedRequests() {
+            return attachedRequests + coalescedRequests;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("requests=%1$d, attached=%2$d, coalesced=%3$d, runs=%4$d, " +
+                            "failed=%5$d", requests, attachedRequests, coalescedRequests, runs,
+                    failedRuns);
+        }
+    }
+}
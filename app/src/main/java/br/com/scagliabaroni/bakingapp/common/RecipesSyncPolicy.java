@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2017 Igor Scaglia.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package br.com.scagliabaroni.bakingapp.common;
+
+import android.content.Context;
+import android.content.res.Resources;
+
+import java.util.concurrent.TimeUnit;
+
+import br.com.scagliabaroni.bakingapp.R;
+
+/**
+ * How fresh the local recipes must be and when the background sync may run. The recipes rarely
+ * change, so they are refreshed at most once a window, preferably on an unmetered network while
+ * the device charges. A launch only waits for the network when the local recipes are missing or
+ * older than the window.
+ */
+public class RecipesSyncPolicy {
+    // How long the local recipes are served without asking the server again
+    public final long freshnessWindowMs;
+    // How often the periodic sync runs
+    public final long periodicIntervalMs;
+    // If the periodic sync waits for an unmetered network
+    public final boolean requiresUnmeteredNetwork;
+    // If the periodic sync waits for the device to charge
+    public final boolean requiresCharging;
+
+    public RecipesSyncPolicy(long freshnessWindowMs, long periodicIntervalMs,
+                             boolean requiresUnmeteredNetwork, boolean requiresCharging) {
+        this.freshnessWindowMs = freshnessWindowMs;
+        this.periodicIntervalMs = periodicIntervalMs;
+        this.requiresUnmeteredNetwork = requiresUnmeteredNetwork;
+        this.requiresCharging = requiresCharging;
+    }
+
+    /**
+     * The policy set in config.xml.
+     */
+    public static RecipesSyncPolicy fromConfig(Context context) {
+        Resources resources = context.getResources();
+        int freshnessWindowHours = resources.getInteger(R.integer.sync_freshness_window_hours);
+        int periodicIntervalHours = resources.getInteger(R.integer.sync_periodic_interval_hours);
+        return new RecipesSyncPolicy(
+                TimeUnit.HOURS.toMillis(freshnessWindowHours),
+                TimeUnit.HOURS.toMillis(periodicIntervalHours),
+                resources.getBoolean(R.bool.sync_requires_unmetered_network),
+                resources.getBoolean(R.bool.sync_requires_charging));
+    }
+
+    /**
+     * If recipes synced at lastSyncMs can still be served at nowMs. Never synced recipes, or a
+     * clock moved backwards, are never fresh.
+     */
+    public boolean isFresh(long lastSyncMs, long nowMs) {
+        return lastSyncMs > 0 && nowMs >= lastSyncMs && nowMs - lastSyncMs < freshnessWindowMs;
+    }
+}
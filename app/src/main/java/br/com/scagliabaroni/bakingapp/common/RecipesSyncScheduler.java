@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 2017 Igor Scaglia.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package br.com.scagliabaroni.bakingapp.common;
+
+import android.app.job.JobInfo;
+import android.app.job.JobScheduler;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.os.SystemClock;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import br.com.scagliabaroni.bakingapp.service.RecipesLoadIntentService;
+import br.com.scagliabaroni.bakingapp.service.RecipesSyncJobService;
+import timber.log.Timber;
+
+/**
+ * Decides when the recipes are synced with the server. Launches are served from the local
+ * database and only request a sync when {@link RecipesSyncPolicy} says the recipes are stale.
+ * A periodic job keeps them fresh in background under the policy constraints. Requests made
+ * while a sync is pending or running are dropped, since that sync already covers them. The
+ * syncs themselves run through {@link RecipesSyncCoordinator}.
+ */
+public class RecipesSyncScheduler {
+    public static final int JOB_ID_PERIODIC_SYNC = 1;
+    public static final int JOB_ID_ON_DEMAND_SYNC = 2;
+    private static RecipesSyncScheduler sInstance;
+    private final Context mContext;
+    private final JobScheduler mJobScheduler;
+    private final RecipesSyncPolicy mPolicy;
+    private final AtomicLong mRequests = new AtomicLong();
+    private final AtomicLong mDeduplicatedRequests = new AtomicLong();
+
+    private RecipesSyncScheduler(Context context) {
+        this.mContext = context;
+        this.mJobScheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        this.mPolicy = RecipesSyncPolicy.fromConfig(context);
+    }
+
+    public static synchronized RecipesSyncScheduler getInstance(Context context) {
+
+        if (sInstance == null) {
+            sInstance = new RecipesSyncScheduler(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    public RecipesSyncPolicy getPolicy() {
+        return this.mPolicy;
+    }
+
+    /**
+     * Called when the app is opened. Makes sure the periodic sync is scheduled and requests a
+     * sync only when the local recipes are stale.
+     *
+     * @return True if a sync was requested, otherwise the local recipes are served as they are.
+     */
+    public boolean onAppLaunch() {
+        this.schedulePeriodicSync();
+
+        // Never synced, show the snapshot recipes while the network is awaited
+        if (this.getLastSync() == 0) {
+            this.seedFromSnapshot();
+        }
+
+        if (this.getPolicy().isFresh(this.getLastSync(), System.currentTimeMillis())) {
+            Timber.d("Local recipes are fresh, no sync needed");
+            return false;
+        }
+        return this.requestSync();
+    }
+
+    /**
+     * Fill the database from the catalog snapshot, in background, when it is empty.
+     */
+    public void seedFromSnapshot() {
+        final Intent intent = new Intent(this.mContext, RecipesLoadIntentService.class)
+                .setAction(RecipesLoadIntentService.ACTION_SEED_FROM_SNAPSHOT);
+        final long requestedAt = SystemClock.elapsedRealtime();
+        RecipesTaskExecutor.getInstance().execute(RecipesTaskExecutor.LaneType.BACKGROUND,
+                RecipesTaskExecutor.PRIORITY_HIGH, new Runnable() {
+                    @Override
+                    public void run() {
+
+                        // Recipes already there are kept until the sync replaces them
+                        if (RecipesUtils.getRecipesCount(mContext) == 0) {
+                            RecipesSyncCoordinator.getInstance(mContext)
+                                    .load(intent, requestedAt);
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Schedule the background sync, unless it is already scheduled. The job survives reboots.
+     */
+    public void schedulePeriodicSync() {
+
+        if (this.isJobPending(JOB_ID_PERIODIC_SYNC)) {
+            return;
+        }
+        RecipesSyncPolicy policy = this.getPolicy();
+        JobInfo jobInfo = new JobInfo.Builder(JOB_ID_PERIODIC_SYNC,
+                new ComponentName(this.mContext, RecipesSyncJobService.class))
+                .setPeriodic(policy.periodicIntervalMs)
+                .setRequiredNetworkType(policy.requiresUnmeteredNetwork ?
+                        JobInfo.NETWORK_TYPE_UNMETERED : JobInfo.NETWORK_TYPE_ANY)
+                .setRequiresCharging(policy.requiresCharging)
+                .setPersisted(true)
+                .build();
+        this.mJobScheduler.schedule(jobInfo);
+    }
+
+    /**
+     * Sync as soon as there is any network.
+     *
+     * @return False if the request was dropped because a sync is pending or running already.
+     */
+    public boolean requestSync() {
+        this.mRequests.incrementAndGet();
+
+        if (this.isSyncing()) {
+            this.mDeduplicatedRequests.incrementAndGet();
+            Timber.d("Sync requests: %s", this.getMetrics());
+            return false;
+        }
+        JobInfo jobInfo = new JobInfo.Builder(JOB_ID_ON_DEMAND_SYNC,
+                new ComponentName(this.mContext, RecipesSyncJobService.class))
+                .setRequiredNetworkType(JobInfo.NETWORK_TYPE_ANY)
+                .build();
+        this.mJobScheduler.schedule(jobInfo);
+        return true;
+    }
+
+    /**
+     * If a requested sync is waiting for the network or running.
+     */
+    public boolean isSyncing() {
+        return RecipesSyncCoordinator.getInstance(this.mContext).isRunning() ||
+                this.isJobPending(JOB_ID_ON_DEMAND_SYNC);
+    }
+
+    /**
+     * When the recipes were last loaded from the server, or 0 if never.
+     */
+    public long getLastSync() {
+        return RecipesSyncCoordinator.getInstance(this.mContext).getLastSync();
+    }
+
+    public Metrics getMetrics() {
+        return new Metrics(this);
+    }
+
+    private boolean isJobPending(int jobId) {
+
+        for (JobInfo jobInfo : this.mJobScheduler.getAllPendingJobs()) {
+
+            if (jobInfo.getId() == jobId) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Snapshot of the sync request counters.
+     */
+    public static class Metrics {
+        public final long requests;
+        public final long deduplicatedRequests;
+
+        private Metrics(RecipesSyncScheduler scheduler) {
+            this.requests = scheduler.mRequests.get();
+            this.deduplicatedRequests = scheduler.mDeduplicatedRequests.get();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("requests=%1$d, deduplicated=%2$d", requests,
+                    deduplicatedRequests);
+        }
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright (c) 2017 Igor Scaglia.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package br.com.scagliabaroni.bakingapp.common;
+
+import android.os.Process;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import timber.log.Timber;
+
+/**
+ * App-wide task execution layer. Instead of sharing one serial executor, the work is split in
+ * small pools (lanes): one for reads the user is waiting on, one for background work and one
+ * for the long downloads of the recipes kept offline.
+ * Inside a lane the tasks are ordered by priority and then by arrival. Each lane keeps
+ * queue-depth and latency metrics.
+ */
+public class RecipesTaskExecutor {
+    public static final int PRIORITY_HIGH = 0;
+    public static final int PRIORITY_NORMAL = 1;
+    public static final int PRIORITY_LOW = 2;
+    // Tasks that wait more than this in the queue are logged
+    private static final long SLOW_WAIT_MS = 100;
+    private static RecipesTaskExecutor sInstance;
+    private final Lane[] mLanes;
+
+    /**
+     * The pools available to run tasks.
+     */
+    public enum LaneType {
+        // Reads the user is waiting on, like step navigation and lists
+        UI_CRITICAL("ui", 2, Process.THREAD_PRIORITY_DEFAULT),
+        // Work the user isn't waiting on, like widget updates and prefetching
+        BACKGROUND("background", 2, Process.THREAD_PRIORITY_BACKGROUND),
+        // Whole recipe downloads, which take minutes and would hold the background lane
+        DOWNLOAD("download", 2, Process.THREAD_PRIORITY_BACKGROUND);
+
+        private final String mName;
+        private final int mThreads;
+        private final int mThreadPriority;
+
+        LaneType(String name, int threads, int threadPriority) {
+            this.mName = name;
+            this.mThreads = threads;
+            this.mThreadPriority = threadPriority;
+        }
+    }
+
+    private RecipesTaskExecutor() {
+        this.mLanes = new Lane[LaneType.values().length];
+
+        for (LaneType laneType : LaneType.values()) {
+            this.mLanes[laneType.ordinal()] = new Lane(laneType);
+        }
+    }
+
+    public static synchronized RecipesTaskExecutor getInstance() {
+
+        if (sInstance == null) {
+            sInstance = new RecipesTaskExecutor();
+        }
+        return sInstance;
+    }
+
+    /**
+     * Queue a runnable to be executed in a lane.
+     *
+     * @param laneType The pool where the runnable will run.
+     * @param priority One of PRIORITY_HIGH, PRIORITY_NORMAL or PRIORITY_LOW.
+     * @param runnable The work itself.
+     * @return The queued task, that can be used to cancel it.
+     */
+    public Task execute(LaneType laneType, int priority, Runnable runnable) {
+        Lane lane = this.mLanes[laneType.ordinal()];
+        Task task = new Task(lane, priority, runnable);
+        lane.mSubmitted.incrementAndGet();
+        lane.mExecutor.execute(task);
+        // Keep the deepest queue seen
+        updateMax(lane.mMaxQueueDepth, lane.mExecutor.getQueue().size());
+        return task;
+    }
+
+    /**
+     * Remove a task that has not started yet.
+     *
+     * @return True if the task was removed and never will run, otherwise, false.
+     */
+    public boolean cancel(Task task) {
+        boolean removed = task.mLane.mExecutor.remove(task);
+
+        if (removed) {
+            task.mLane.mCanceled.incrementAndGet();
+        }
+        return removed;
+    }
+
+    /**
+     * Get a snapshot of the lane metrics.
+     */
+    public Metrics getMetrics(LaneType laneType) {
+        return new Metrics(this.mLanes[laneType.ordinal()]);
+    }
+
+    private static void updateMax(AtomicLong max, long value) {
+        long current = max.get();
+
+        // Retry until we set the value or another thread set a greater one
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    /**
+     * A runnable with priority that measures its own latency.
+     */
+    public static class Task implements Runnable, Comparable<Task> {
+        private static final AtomicLong sSequence = new AtomicLong();
+        private final Lane mLane;
+        private final int mPriority;
+        private final long mSequence;
+        private final long mQueuedAt;
+        private final Runnable mRunnable;
+
+        private Task(Lane lane, int priority, Runnable runnable) {
+            this.mLane = lane;
+            this.mPriority = priority;
+            this.mSequence = sSequence.getAndIncrement();
+            this.mQueuedAt = SystemClock.elapsedRealtime();
+            this.mRunnable = runnable;
+        }
+
+        @Override
+        public void run() {
+            long startedAt = SystemClock.elapsedRealtime();
+            long waitMs = startedAt - this.mQueuedAt;
+            this.mLane.mTotalWaitMs.addAndGet(waitMs);
+            updateMax(this.mLane.mMaxWaitMs, waitMs);
+
+            // A slow wait is logged with the lane metrics, to see how deep and slow it got
+            if (waitMs > SLOW_WAIT_MS) {
+                Timber.w("Task waited %d ms in %s lane: %s", waitMs, this.mLane.mType.mName,
+                        RecipesTaskExecutor.getInstance().getMetrics(this.mLane.mType));
+            }
+            try {
+                this.mRunnable.run();
+            } finally {
+                this.mLane.mTotalRunMs.addAndGet(SystemClock.elapsedRealtime() - startedAt);
+                this.mLane.mCompleted.incrementAndGet();
+            }
+        }
+
+        @Override
+        public int compareTo(@NonNull Task other) {
+
+            // Lower priority value first, then first in first out
+            if (this.mPriority != other.mPriority) {
+                return this.mPriority < other.mPriority ? -1 : 1;
+            }
+            return this.mSequence < other.mSequence ? -1 :
+                    (this.mSequence == other.mSequence ? 0 : 1);
+        }
+    }
+
+    /**
+     * Immutable snapshot of a lane metrics.
+     */
+    public static class Metrics {
+        public final int queueDepth;
+        public final long maxQueueDepth;
+        public final long submitted;
+        public final long completed;
+        public final long canceled;
+        public final long averageWaitMs;
+        public final long maxWaitMs;
+        public final long averageRunMs;
+
+        private Metrics(Lane lane) {
+            long completed = lane.mCompleted.get();
+            this.queueDepth = lane.mExecutor.getQueue().size();
+            this.maxQueueDepth = lane.mMaxQueueDepth.get();
+            this.submitted = lane.mSubmitted.get();
+            this.completed = completed;
+            this.canceled = lane.mCanceled.get();
+            this.averageWaitMs = completed == 0 ? 0 : lane.mTotalWaitMs.get() / completed;
+            this.maxWaitMs = lane.mMaxWaitMs.get();
+            this.averageRunMs = completed == 0 ? 0 : lane.mTotalRunMs.get() / completed;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("queue=%1$d (max %2$d), submitted=%3$d, completed=%4$d, " +
+                            "canceled=%5$d, wait=%6$d ms (max %7$d ms), run=%8$d ms",
+                    queueDepth, maxQueueDepth, submitted, completed, canceled,
+                    averageWaitMs, maxWaitMs, averageRunMs);
+        }
+    }
+
+    /**
+     * One pool with its own queue and counters.
+     */
+    private static class Lane {
+        private final LaneType mType;
+        private final ThreadPoolExecutor mExecutor;
+        private final AtomicLong mMaxQueueDepth = new AtomicLong();
+        private final AtomicLong mSubmitted = new AtomicLong();
+        private final AtomicLong mCompleted = new AtomicLong();
+        private final AtomicLong mCanceled = new AtomicLong();
+        private final AtomicLong mTotalWaitMs = new AtomicLong();
+        private final AtomicLong mMaxWaitMs = new AtomicLong();
+        private final AtomicLong mTotalRunMs = new AtomicLong();
+
+        private Lane(final LaneType type) {
+            this.mType = type;
+            ThreadFactory threadFactory = new ThreadFactory() {
+                private final AtomicInteger mCount = new AtomicInteger(1);
+
+                @Override
+                public Thread newThread(@NonNull final Runnable runnable) {
+                    return new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(type.mThreadPriority);
+                            runnable.run();
+                        }
+                    }, "RecipesTask-" + type.mName + "-" + this.mCount.getAndIncrement());
+                }
+            };
+            // The queue is unbounded, so the pool never grows beyond its core size
+            this.mExecutor = new ThreadPoolExecutor(type.mThreads, type.mThreads,
+                    30, TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>(), threadFactory);
+            this.mExecutor.allowCoreThreadTimeOut(true);
+        }
+    }
+}
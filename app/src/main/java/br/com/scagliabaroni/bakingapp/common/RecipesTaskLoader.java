@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2017 Igor Scaglia.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package br.com.scagliabaroni.bakingapp.common;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v4.content.Loader;
+
+/**
+ * Works like an AsyncTaskLoader, but runs {@link #loadInBackground()} on a
+ * {@link RecipesTaskExecutor} lane with a priority instead of the shared AsyncTask executor.
+ * When the load is canceled, for example by a restartLoader, a load that has not started yet is
+ * removed from the queue, so stale requests never reach the database.
+ *
+ * @param <D> The data type loaded.
+ */
+public abstract class RecipesTaskLoader<D> extends Loader<D> {
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final RecipesTaskExecutor.LaneType mLaneType;
+    private final int mPriority;
+    // The load running or queued
+    private LoadTask mTask;
+    // The load canceled that still has to report its cancellation
+    private LoadTask mCancellingTask;
+
+    public RecipesTaskLoader(Context context, RecipesTaskExecutor.LaneType laneType,
+                             int priority) {
+        super(context);
+        this.mLaneType = laneType;
+        this.mPriority = priority;
+    }
+
+    /**
+     * Called on a worker thread to perform the actual load.
+     */
+    public abstract D loadInBackground();
+
+    /**
+     * Called on main thread with the result of a canceled load, so it could be released.
+     */
+    protected void onCanceled(D data) {
+    }
+
+    @Override
+    protected void onForceLoad() {
+        super.onForceLoad();
+        // Cancel the previous load, if any
+        this.cancelLoad();
+        this.mTask = new LoadTask();
+        this.mTask.mQueuedTask = RecipesTaskExecutor.getInstance()
+                .execute(this.mLaneType, this.mPriority, this.mTask);
+    }
+
+    @Override
+    protected boolean onCancelLoad() {
+
+        // If nothing is loading there is nothing to cancel
+        if (this.mTask == null) {
+            return false;
+        }
+        final LoadTask task = this.mTask;
+        this.mTask = null;
+        task.mCanceled = true;
+        this.mCancellingTask = task;
+
+        // If it has not started yet we report the cancellation right now, otherwise the task
+        // reports it when it finishes.
+        if (RecipesTaskExecutor.getInstance().cancel(task.mQueuedTask)) {
+            this.mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    dispatchOnLoadComplete(task, null);
+                }
+            });
+        }
+        return true;
+    }
+
+    private void dispatchOnLoadComplete(LoadTask task, D data) {
+
+        if (this.mTask != task) {
+            // It's a stale load, release it
+            this.onCanceled(data);
+
+            if (this.mCancellingTask == task) {
+                this.mCancellingTask = null;
+                this.deliverCancellation();
+            }
+        } else if (this.isAbandoned()) {
+            this.mTask = null;
+            this.onCanceled(data);
+        } else {
+            this.mTask = null;
+            this.deliverResult(data);
+        }
+    }
+
+    /**
+     * The work queued in the executor.
+     */
+    private final class LoadTask implements Runnable {
+        private volatile boolean mCanceled = false;
+        private RecipesTaskExecutor.Task mQueuedTask;
+
+        @Override
+        public void run() {
+            D data = null;
+
+            // Don't load if it was canceled while waiting in the queue
+            if (!this.mCanceled) {
+                data = loadInBackground();
+            }
+            final D result = data;
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    dispatchOnLoadComplete(LoadTask.this, result);
+                }
+            });
+        }
+    }
+}
@@ -16,36 +16,31 @@
 
 package br.com.scagliabaroni.bakingapp.common;
 
-import android.app.PendingIntent;
-import android.appwidget.AppWidgetManager;
-import android.content.ComponentName;
-import android.content.ContentUris;
-import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
 import android.database.Cursor;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
-import android.net.Uri;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.v4.content.LocalBroadcastManager;
-import android.widget.RemoteViews;
+import android.text.TextUtils;
 
 import java.io.IOException;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.List;
 
-import br.com.scagliabaroni.bakingapp.activity.RecipeDetailActivity;
 import br.com.scagliabaroni.bakingapp.model.Ingredient;
 import br.com.scagliabaroni.bakingapp.provider.RecipesProvider;
 import br.com.scagliabaroni.bakingapp.R;
 import br.com.scagliabaroni.bakingapp.model.Recipe;
+import br.com.scagliabaroni.bakingapp.model.RecipeDetailSection;
 import br.com.scagliabaroni.bakingapp.model.Step;
 import br.com.scagliabaroni.bakingapp.database.DatabaseContract;
 import br.com.scagliabaroni.bakingapp.service.RecipesLoadIntentService;
-import br.com.scagliabaroni.bakingapp.widget.RecipeIngredientsWidgetProvider;
+import br.com.scagliabaroni.bakingapp.widget.RecipeIngredientsWidgetService;
+import br.com.scagliabaroni.bakingapp.widget.RecipeIngredientsWidgetUpdateQueue;
 import retrofit2.Response;
 import retrofit2.Retrofit;
 import retrofit2.converter.gson.GsonConverterFactory;
@@ -94,14 +89,64 @@ public class RecipesUtils {
      *
      * @param intent  The incoming intent from {@link RecipesLoadIntentService}
      * @param context The {@link RecipesLoadIntentService} context
+     * @return The total of recipes loaded, 0 when the local recipes were kept
      */
-    public static void loadRecipes(Intent intent, Context context) {
+    public static int loadRecipes(Intent intent, Context context) {
         // Get the action if any
         final String action = intent.getAction();
         // Default behavior is load data
         boolean continueLoadingData = true;
-        int totalRecipesDatabase = 0;
         // Get the recipes count in database
+        int totalRecipesDatabase = getRecipesCount(context);
+
+        // An empty database is filled from the snapshot first, so the list shows recipes
+        // without waiting for the server, which then replaces them
+        int totalRecipesSeeded = 0;
+
+        if (totalRecipesDatabase == 0) {
+            totalRecipesSeeded = RecipesSnapshotStore.getInstance(context).seed();
+            totalRecipesDatabase = totalRecipesSeeded;
+        }
+
+        // If action is stop when data exists then we have to avoid the deletions.
+        if (totalRecipesDatabase > 0 &&
+                RecipesLoadIntentService.ACTION_STOP_WHEN_DATA_EXISTS.equals(action)) {
+            continueLoadingData = false;
+        }
+
+        // The seed is done, the server is left to the sync
+        if (RecipesLoadIntentService.ACTION_SEED_FROM_SNAPSHOT.equals(action)) {
+            continueLoadingData = false;
+        }
+        // The total of recipes added in database
+        int totalRecipesLoaded = 0;
+
+        // If the action passed agree with, we continue
+        if (continueLoadingData) {
+            // Recipes are decoded while they download. The first ones show up while the rest is
+            // on the way, and existing recipes are only replaced after the whole download.
+            totalRecipesLoaded = new RecipesCatalogLoader(context, totalRecipesDatabase > 0)
+                    .load();
+        }
+
+        // The list screen reads the recipes from a mapped copy of them
+        if (totalRecipesLoaded > 0 || totalRecipesSeeded > 0) {
+            RecipesListStore.getInstance(context).rebuild();
+        }
+        // The ingredients shown in the widgets may have changed, and the recipe ids in their
+        // clicks too
+        RecipesUtils.notifyIngredientsWidgetDataChanged(context);
+        // Until here we've done all inserts then it's time to signal who wants to know the changes
+        // by Broadcast
+        sendRecipesLoadedBroadcast(context, totalRecipesLoaded);
+        return totalRecipesLoaded;
+    }
+
+    /**
+     * This method get the total of recipes in database.
+     */
+    public static int getRecipesCount(Context context) {
+        int totalRecipesDatabase = 0;
         Cursor recipesCountCursor = context.getContentResolver()
                 .query(RecipesProvider
                         .Recipe.CONTENT_URI, new String[]{"count(*)"}, null, null, null);
@@ -113,100 +158,18 @@ public class RecipesUtils {
             totalRecipesDatabase = recipesCountCursor.getInt(0);
         }
 
-        // If exists data then delete all to accommodate new data
-        // We are doing this because we know that remote recipes data is static, normally we
-        // should update or add recipes accordingly
-        if (totalRecipesDatabase > 0) {
-
-            // If action is stop when data exists then we have to avoid the deletions.
-            if (RecipesLoadIntentService.ACTION_STOP_WHEN_DATA_EXISTS.equals(action)) {
-                continueLoadingData = false;
-            } else {
-                // Since we are using cascade support, we delete just the recipes for everything
-                // be deleted
-                context.getContentResolver()
-                        .delete(RecipesProvider
-                                .Recipe.CONTENT_URI, null, null);
-            }
-        }
         // Close the count query cursor
         recipesCountCursor.close();
-        // The total of recipes added in database
-        int totalRecipesLoaded = 0;
+        return totalRecipesDatabase;
+    }
 
-        // If the action passed agree with, we continue
-        if (continueLoadingData) {
-            // Get remote recipes
-            List<Recipe> remoteRecipes = retrieveRecipes(context.getResources()
-                    .getString(R.string.recipes_url));
-
-            // For each recipe add it to database
-            for (Recipe remoteRecipe : remoteRecipes) {
-                // Set the values to add
-                ContentValues values = new ContentValues();
-                // Prepare values
-                values.put(DatabaseContract.RecipeEntry.COLUMN_NAME,
-                        remoteRecipe.getName());
-                values.put(DatabaseContract.RecipeEntry.COLUMN_SERVINGS,
-                        remoteRecipe.getServings());
-                values.put(DatabaseContract.RecipeEntry.COLUMN_IMAGE,
-                        remoteRecipe.getImage());
-                // Add the recipe
-                Uri insertResult = context.getContentResolver()
-                        .insert(RecipesProvider
-                                .Recipe.CONTENT_URI, values);
-                // Hold the new recipe id
-                long idRecipe = ContentUris.parseId(insertResult);
-
-                // For each ingredient add it to database
-                for (Ingredient remoteIngredient : remoteRecipe.getIngredients()) {
-                    // Clear all previous values
-                    values.clear();
-                    // Prepare values
-                    values.put(DatabaseContract.IngredientEntry.COLUMN_ID_RECIPE,
-                            idRecipe);
-                    values.put(DatabaseContract.IngredientEntry.COLUMN_NAME,
-                            remoteIngredient.getIngredient());
-                    values.put(DatabaseContract.IngredientEntry.COLUMN_MEASURE,
-                            remoteIngredient.getMeasure());
-                    values.put(DatabaseContract.IngredientEntry.COLUMN_QUANTITY,
-                            remoteIngredient.getQuantity());
-                    // Add the ingredient
-                    context.getContentResolver()
-                            .insert(RecipesProvider.Ingredient.CONTENT_URI, values);
-                }
-                // To put a sequence in steps to facilitate the navigation between them
-                int position = 1;
-
-                // For each step add it to database
-                for (Step remoteStep : remoteRecipe.getSteps()) {
-                    // Clear all previous values
-                    values.clear();
-                    // Prepare values
-                    values.put(DatabaseContract.StepEntry.COLUMN_ID_RECIPE,
-                            idRecipe);
-                    values.put(DatabaseContract.StepEntry.COLUMN_SHORT_DESCRIPTION,
-                            remoteStep.getShortDescription());
-                    values.put(DatabaseContract.StepEntry.COLUMN_DESCRIPTION,
-                            remoteStep.getDescription());
-                    values.put(DatabaseContract.StepEntry.COLUMN_VIDEO_URL,
-                            remoteStep.getVideoURL());
-                    values.put(DatabaseContract.StepEntry.COLUMN_THUMBNAIL_URL,
-                            remoteStep.getThumbnailURL());
-                    values.put(DatabaseContract.StepEntry.COLUMN_POSITION,
-                            position);
-                    // Add the Step
-                    context.getContentResolver()
-                            .insert(RecipesProvider.Step.CONTENT_URI, values);
-                    // Increment position
-                    position++;
-                }
-                // Increment total recipes loaded
-                totalRecipesLoaded++;
-            } // end for
-        } // end if
-        // Until here we've done all inserts then it's time to signal who wants to know the changes
-        // by Broadcast
+    /**
+     * This method tells the app components a recipes load has finished.
+     *
+     * @param context            The context that you want to use.
+     * @param totalRecipesLoaded The total of recipes added in database by the load.
+     */
+    public static void sendRecipesLoadedBroadcast(Context context, int totalRecipesLoaded) {
         Intent localIntent = new Intent(RecipesLoadIntentService.ACTION_BROADCAST_RESULT)
                 .putExtra(RecipesLoadIntentService.EXTENDED_DATA_TOTAL_RECIPES_LOADED,
                         totalRecipesLoaded);
@@ -257,11 +220,7 @@ public class RecipesUtils {
 
         // If is a fake step
         if (calculatedPosition <= 0) {
-            Step step = new Step();
-            step.setId(0);
-            step.setIdRecipe(idRecipe);
-            step.setPosition(0);
-            return step;
+            return RecipesUtils.createIngredientsStep(idRecipe);
         } else {
             int lastPosition = RecipesUtils.getLastStepPosition(context, idRecipe);
 
@@ -274,6 +233,93 @@ public class RecipesUtils {
         }
     }
 
+    /**
+     * This method create the position 0 step, which represents the ingredients of a recipe.
+     */
+    public static Step createIngredientsStep(int idRecipe) {
+        Step step = new Step();
+        step.setId(0);
+        step.setIdRecipe(idRecipe);
+        step.setPosition(0);
+        return step;
+    }
+
+    /**
+     * This method materialize the recipe detail list: the ingredients header followed by all
+     * steps of a recipe ordered by position. Should not be called on main thread.
+     */
+    @NonNull
+    public static List<RecipeDetailSection> getRecipeDetailSections(Context context,
+                                                                    int idRecipe) {
+        List<RecipeDetailSection> result = new ArrayList<>();
+        // The ingredients header is always the first section
+        result.add(RecipeDetailSection.ingredients(RecipesUtils.createIngredientsStep(idRecipe)));
+        // Get all steps from recipe id
+        try (Cursor stepsCursor = context.getContentResolver().query(
+                RecipesProvider.Step.fromRecipe(String.valueOf(idRecipe)),
+                RecipesProvider.Step.PROJECTION,
+                null,
+                null,
+                DatabaseContract.StepEntry.COLUMN_POSITION + " ASC")) {
+
+            // If is a valid cursor
+            if (stepsCursor != null) {
+
+                // For each step add a new section
+                while (stepsCursor.moveToNext()) {
+                    result.add(RecipeDetailSection.step(Step.from(stepsCursor)));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * This method get all steps from a recipe that have a video, ordered by position. Should not
+     * be called on main thread.
+     */
+    @NonNull
+    public static List<Step> getStepsWithVideo(Context context, int idRecipe) {
+        List<Step> result = new ArrayList<>();
+        List<RecipeDetailSection> sections =
+                RecipesUtils.getRecipeDetailSections(context, idRecipe);
+
+        // For each step section keep the ones with video
+        for (RecipeDetailSection section : sections) {
+
+            if (section.getType() == RecipeDetailSection.TYPE_STEP &&
+                    !TextUtils.isEmpty(section.getStep().getVideoURL())) {
+                result.add(section.getStep());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * This method finds a recipe by its name, which stays the same across the loads of the
+     * recipes while the id doesn't. Only the recipe columns are read.
+     *
+     * @return The recipe with the id of the last load, or null when there is no such recipe.
+     */
+    @Nullable
+    public static Recipe getRecipeByName(Context context, String recipeName) {
+
+        if (recipeName == null) {
+            return null;
+        }
+
+        try (Cursor cursor = context.getContentResolver().query(
+                RecipesProvider.Recipe.CONTENT_URI, RecipesProvider.Recipe.PROJECTION,
+                DatabaseContract.RecipeEntry.COLUMN_NAME + " = ?", new String[]{recipeName},
+                null)) {
+
+            if (cursor != null && cursor.moveToFirst()) {
+                return Recipe.from(cursor);
+            }
+        }
+        return null;
+    }
+
     /**
      * This method get the last step position based on searching all steps from a recipe
      */
@@ -314,19 +360,9 @@ public class RecipesUtils {
 
             // For each ingredient
             while (ingredientsCursor.moveToNext()) {
-                // Cast the ingredient
-                Ingredient ingredient = Ingredient.from(ingredientsCursor);
-                DecimalFormat df = new DecimalFormat("#.#");
-                // Format the quantity
-                String quantity = df.format(ingredient.getQuantity());
-                // Append the ingredient line
-                builder.append(String
-                        .format("- %1$s %2$s %3$s\n", new Object[]{
-                                quantity,
-                                ingredient.getMeasure(),
-                                Character.toUpperCase(ingredient.getIngredient().charAt(0)) +
-                                        ingredient.getIngredient().substring(1)
-                        }));
+                // Cast the ingredient and append its line
+                builder.append(RecipesUtils
+                        .formatIngredient(Ingredient.from(ingredientsCursor))).append('\n');
             }
         }
         // Return the summary list
@@ -334,32 +370,36 @@ public class RecipesUtils {
     }
 
     /**
-     * This method update the ingredients summary widget with a new ingredients summary list
-     * based on a recipe
+     * This method formats one ingredient line of the summary, like "- 2 CUP Flour"
+     */
+    @NonNull
+    public static String formatIngredient(Ingredient ingredient) {
+        DecimalFormat df = new DecimalFormat("#.#");
+        // Format the quantity
+        String quantity = df.format(ingredient.getQuantity());
+        return String.format("- %1$s %2$s %3$s", new Object[]{
+                quantity,
+                ingredient.getMeasure(),
+                Character.toUpperCase(ingredient.getIngredient().charAt(0)) +
+                        ingredient.getIngredient().substring(1)
+        });
+    }
+
+    /**
+     * This method shows a recipe in the ingredients widgets that were not configured with their
+     * own recipe. The rows are served by {@link RecipeIngredientsWidgetService} straight from
+     * the provider, so only the recipe name travels to the widgets. Updates are coalesced
+     * by {@link RecipeIngredientsWidgetUpdateQueue}.
      */
     public static void updateIngredientsSummaryWidget(Context context, Recipe recipe) {
-        // Generate ingredients summary from recipe id;
-        String ingredientsSummary = String.format("%1$s\n\n%2$s", recipe.getName(),
-                RecipesUtils.generateIngredientsSummary(context, recipe.getId()));
-        AppWidgetManager appWidgetManager = AppWidgetManager.getInstance(context);
-        ComponentName componentName =
-                new ComponentName(context, RecipeIngredientsWidgetProvider.class);
-        int[] appWidgetIds = appWidgetManager.getAppWidgetIds(componentName);
-        // Set the widget_recipe_ingredients layout to our widget
-        RemoteViews remoteViews = new RemoteViews(context.getPackageName(),
-                R.layout.widget_recipe_ingredients);
-        // Configure the RecipeDetailActivity activity to be opened when widget gets clicked
-        Intent recipeDetailIntent = new Intent(context, RecipeDetailActivity.class)
-                .putExtra(RecipesUtils.RECIPE_PARAM, recipe);
-        PendingIntent recipeDetailPendingIntent =
-                PendingIntent.getActivity(context, 0, recipeDetailIntent,
-                        PendingIntent.FLAG_UPDATE_CURRENT);
-        // Set the pending intent to the WidgetIngredientsSummaryTextView view
-        remoteViews.setOnClickPendingIntent(R.id.WidgetIngredientsSummaryTextView,
-                recipeDetailPendingIntent);
-        // Update the ingredients summary itself
-        remoteViews.setTextViewText(R.id.WidgetIngredientsSummaryTextView, ingredientsSummary);
-        // Send the update. Could be one id, but we update all widgets with the same information.
-        appWidgetManager.updateAppWidget(appWidgetIds, remoteViews);
+        RecipeIngredientsWidgetUpdateQueue.getInstance(context).requestRecipeChange(recipe);
+    }
+
+    /**
+     * This method rebuilds the ingredients widgets after the recipes were loaded, since the load
+     * gives the recipes new ids.
+     */
+    public static void notifyIngredientsWidgetDataChanged(Context context) {
+        RecipeIngredientsWidgetUpdateQueue.getInstance(context).requestDataChanged();
     }
 }
\ No newline at end of file
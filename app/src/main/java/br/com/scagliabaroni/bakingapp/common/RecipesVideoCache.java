@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2017 Igor Scaglia.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package br.com.scagliabaroni.bakingapp.common;
+
+import android.content.Context;
+
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.DefaultDataSourceFactory;
+import com.google.android.exoplayer2.upstream.FileDataSource;
+import com.google.android.exoplayer2.upstream.TransferListener;
+import com.google.android.exoplayer2.upstream.cache.Cache;
+import com.google.android.exoplayer2.upstream.cache.CacheDataSink;
+import com.google.android.exoplayer2.upstream.cache.CacheDataSource;
+import com.google.android.exoplayer2.upstream.cache.LeastRecentlyUsedCacheEvictor;
+import com.google.android.exoplayer2.upstream.cache.SimpleCache;
+import com.google.android.exoplayer2.util.Util;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicLong;
+
+import br.com.scagliabaroni.bakingapp.R;
+
+/**
+ * Process-wide, size bounded LRU cache for the step videos. The player reads through it, so
+ * rewatching a step or navigating back doesn't download the video again. There must be only one
+ * {@link SimpleCache} per folder, that's why this class is a singleton shared by all step
+ * screens.
+ */
+public class RecipesVideoCache {
+    private static final String CACHE_FOLDER = "videos";
+    // The whole cache size
+    private static final long MAX_CACHE_BYTES = 100 * 1024 * 1024;
+    // The size of each file the cache writes
+    private static final long MAX_CACHE_FILE_BYTES = 2 * 1024 * 1024;
+    private static RecipesVideoCache sInstance;
+    private final Cache mCache;
+    private final DataSource.Factory mUpstreamFactory;
+    private final DataSource.Factory mCacheDataSourceFactory;
+    private final AtomicLong mCacheReads = new AtomicLong();
+    private final AtomicLong mCachedBytesRead = new AtomicLong();
+    private final AtomicLong mNetworkReads = new AtomicLong();
+    private final AtomicLong mNetworkBytesRead = new AtomicLong();
+
+    private RecipesVideoCache(Context context) {
+        this.mCache = new SimpleCache(new File(context.getCacheDir(), CACHE_FOLDER),
+                new LeastRecentlyUsedCacheEvictor(MAX_CACHE_BYTES));
+        String userAgent = Util.getUserAgent(context, context.getResources()
+                .getString(R.string.app_name));
+        // Count what really comes from the network
+        this.mUpstreamFactory = new DefaultDataSourceFactory(context, userAgent,
+                new TransferListener<DataSource>() {
+                    @Override
+                    public void onTransferStart(DataSource source, DataSpec dataSpec) {
+                        mNetworkReads.incrementAndGet();
+                    }
+
+                    @Override
+                    public void onBytesTransferred(DataSource source, int bytesTransferred) {
+                        mNetworkBytesRead.addAndGet(bytesTransferred);
+                    }
+
+                    @Override
+                    public void onTransferEnd(DataSource source) {
+                    }
+                });
+        // Count what comes from the cache
+        final CacheDataSource.EventListener cacheListener = new CacheDataSource.EventListener() {
+            @Override
+            public void onCachedBytesRead(long cacheSizeBytes, long cachedBytesRead) {
+                mCacheReads.incrementAndGet();
+                mCachedBytesRead.addAndGet(cachedBytesRead);
+            }
+        };
+        this.mCacheDataSourceFactory = new DataSource.Factory() {
+            @Override
+            public DataSource createDataSource() {
+                return new CacheDataSource(mCache,
+                        mUpstreamFactory.createDataSource(),
+                        new FileDataSource(),
+                        new CacheDataSink(mCache, MAX_CACHE_FILE_BYTES),
+                        CacheDataSource.FLAG_BLOCK_ON_CACHE |
+                                CacheDataSource.FLAG_IGNORE_CACHE_ON_ERROR,
+                        cacheListener);
+            }
+        };
+    }
+
+    public static synchronized RecipesVideoCache getInstance(Context context) {
+
+        if (sInstance == null) {
+            sInstance = new RecipesVideoCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * The factory that media sources should use to read through the cache.
+     */
+    public DataSource.Factory getDataSourceFactory() {
+        return this.mCacheDataSourceFactory;
+    }
+
+    /**
+     * Get a snapshot of the cache metrics.
+     */
+    public Metrics getMetrics() {
+        return new Metrics(this);
+    }
+
+    /**
+     * Immutable snapshot of the cache metrics.
+     */
+    public static class Metrics {
+        public final long cacheSizeBytes;
+        public final long cacheReads;
+        public final long cachedBytesRead;
+        public final long networkReads;
+        public final long networkBytesRead;
+
+        private Metrics(RecipesVideoCache videoCache) {
+            this.cacheSizeBytes = videoCache.mCache.getCacheSpace();
+            this.cacheReads = videoCache.mCacheReads.get();
+            this.cachedBytesRead = videoCache.mCachedBytesRead.get();
+            this.networkReads = videoCache.mNetworkReads.get();
+            this.networkBytesRead = videoCache.mNetworkBytesRead.get();
+        }
+
+        /**
+         * The fraction of bytes read from the cache instead of the network.
+         */
+        public float getByteHitRatio() {
+            long total = this.cachedBytesRead + this.networkBytesRead;
+            return total == 0 ? 0f : (float) this.cachedBytesRead / total;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("size=%1$d bytes, cache reads=%2$d (%3$d bytes), " +
+                            "network reads=%4$d (%5$d bytes), byte hit ratio=%6$.2f",
+                    cacheSizeBytes, cacheReads, cachedBytesRead, networkReads,
+                    networkBytesRead, getByteHitRatio());
+        }
+    }
+}
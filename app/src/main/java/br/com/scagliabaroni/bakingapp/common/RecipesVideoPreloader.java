@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2017 Igor Scaglia.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package br.com.scagliabaroni.bakingapp.common;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Uri;
+import android.text.TextUtils;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import br.com.scagliabaroni.bakingapp.R;
+import br.com.scagliabaroni.bakingapp.model.Step;
+import timber.log.Timber;
+
+/**
+ * Responsible to prefetch the beginning of the next step video (and optionally the previous one)
+ * into {@link RecipesVideoCache} while a step is playing, so tapping Next starts playback almost
+ * instantly. Prefetching runs with low priority on the background lane, never on metered
+ * networks, and stops when the bandwidth budget is spent.
+ */
+public class RecipesVideoPreloader {
+    private static final int BUFFER_SIZE = 16 * 1024;
+    private static RecipesVideoPreloader sInstance;
+    private final Context mContext;
+    private final long mBytesPerStep;
+    private final long mBudgetBytes;
+    private final AtomicLong mPreloadedBytes = new AtomicLong();
+    private final boolean mEnabled;
+    private final boolean mPreloadPreviousStep;
+    // Incremented for each request, so a running prefetch knows it became obsolete
+    private volatile int mGeneration = 0;
+    private RecipesTaskExecutor.Task mTask;
+
+    private RecipesVideoPreloader(Context context) {
+        this.mContext = context;
+        this.mEnabled = context.getResources().getBoolean(R.bool.video_preload_enabled);
+        this.mPreloadPreviousStep = context.getResources()
+                .getBoolean(R.bool.video_preload_previous_step);
+        this.mBytesPerStep = context.getResources()
+                .getInteger(R.integer.video_preload_bytes_per_step);
+        this.mBudgetBytes = context.getResources()
+                .getInteger(R.integer.video_preload_budget_bytes);
+    }
+
+    public static synchronized RecipesVideoPreloader getInstance(Context context) {
+
+        if (sInstance == null) {
+            sInstance = new RecipesVideoPreloader(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Prefetch the videos of the steps around the given step. Should be called on main thread
+     * once the step starts playing. A previous request not started yet is dropped.
+     */
+    public synchronized void preloadAround(final Step step) {
+
+        if (!this.mEnabled || step == null || this.mPreloadedBytes.get() >= this.mBudgetBytes) {
+            return;
+        }
+        ConnectivityManager connectivityManager = (ConnectivityManager) this.mContext
+                .getSystemService(Context.CONNECTIVITY_SERVICE);
+
+        // Don't spend the user data plan on a guess
+        if (connectivityManager.isActiveNetworkMetered()) {
+            return;
+        }
+
+        // The previous request is obsolete now
+        if (this.mTask != null) {
+            RecipesTaskExecutor.getInstance().cancel(this.mTask);
+        }
+        final int generation = ++this.mGeneration;
+        this.mTask = RecipesTaskExecutor.getInstance().execute(
+                RecipesTaskExecutor.LaneType.BACKGROUND, RecipesTaskExecutor.PRIORITY_LOW,
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        List<Uri> uris = getNeighborVideoUris(step);
+
+                        for (Uri uri : uris) {
+
+                            // Stop if the user moved to another step or the budget is spent
+                            if (generation != mGeneration ||
+                                    mPreloadedBytes.get() >= mBudgetBytes) {
+                                return;
+                            }
+                            prefetch(uri, generation);
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Drop the request not started yet and make the running prefetch stop at its next read, so
+     * it releases the cache before the player reads the same video. Should be called before the
+     * player prepares a new media.
+     */
+    public synchronized void cancel() {
+
+        if (this.mTask != null) {
+            RecipesTaskExecutor.getInstance().cancel(this.mTask);
+            this.mTask = null;
+        }
+        this.mGeneration++;
+    }
+
+    private List<Uri> getNeighborVideoUris(Step step) {
+        List<Uri> result = new ArrayList<>();
+        int lastPosition = RecipesUtils.getLastStepPosition(this.mContext, step.getIdRecipe());
+        // Next step first, since it's the most likely
+        int[] positions = this.mPreloadPreviousStep ?
+                new int[]{step.getPosition() + 1, step.getPosition() - 1} :
+                new int[]{step.getPosition() + 1};
+
+        for (int position : positions) {
+
+            // The ingredients step has no video
+            if (position < 1 || position > lastPosition) {
+                continue;
+            }
+            Step neighbor = RecipesUtils
+                    .getOrCreateStep(this.mContext, step.getIdRecipe(), position);
+
+            // Videos kept offline don't need the network
+            if (neighbor != null && !TextUtils.isEmpty(neighbor.getVideoURL()) &&
+                    RecipesOfflineStore.getInstance(this.mContext)
+                            .getLocalFile(neighbor.getVideoURL()) == null) {
+                result.add(Uri.parse(neighbor.getVideoURL()));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Read the beginning of the video through the cache, which writes it to disk as a side
+     * effect. Bytes already cached are not downloaded again.
+     */
+    private void prefetch(Uri uri, int generation) {
+        long length = Math.min(this.mBytesPerStep, this.mBudgetBytes - this.mPreloadedBytes.get());
+        DataSource dataSource = RecipesVideoCache.getInstance(this.mContext)
+                .getDataSourceFactory().createDataSource();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try {
+            dataSource.open(new DataSpec(uri, 0, length, null));
+            int read;
+
+            // Read until the end or until the prefetch becomes obsolete
+            while (generation == this.mGeneration && (read = dataSource
+                    .read(buffer, 0, buffer.length)) != C.RESULT_END_OF_INPUT) {
+                this.mPreloadedBytes.addAndGet(read);
+            }
+        } catch (IOException e) {
+            Timber.d(e);
+        } finally {
+            try {
+                dataSource.close();
+            } catch (IOException e) {
+                Timber.d(e);
+            }
+        }
+    }
+}
@@ -17,56 +17,47 @@
 package br.com.scagliabaroni.bakingapp.common;
 
 import android.content.Context;
-import android.support.v4.content.AsyncTaskLoader;
 
 import br.com.scagliabaroni.bakingapp.model.Step;
 
 /**
- * Responsible for get the next step of a recipe
+ * Responsible for get the next step of a recipe. Step navigation is what the user is waiting on,
+ * so it runs with high priority on the UI critical lane.
  */
-public class StepAsyncTaskLoader extends AsyncTaskLoader<Step> {
+public class StepAsyncTaskLoader extends RecipesTaskLoader<Step> {
     private Integer mIdRecipe;
-    private Integer mActualPosition;
-    private Integer mCalculatedPosition;
-    private RecipeStepNavigationDirection mRecipeStepNavigationDirection;
+    private Integer mTargetPosition;
     private Step mStep;
 
-    public StepAsyncTaskLoader(Context context, Integer idRecipe, Integer idActualPosition,
-                               RecipeStepNavigationDirection recipeStepNavigationDirection) {
-        super(context);
+    /**
+     * @param targetPosition The position of the step to load. The taps on previous and next are
+     *                       accumulated before, so it can be many positions far from the actual
+     *                       step. It will be adjusted to the first or last step when out of range.
+     */
+    public StepAsyncTaskLoader(Context context, Integer idRecipe, Integer targetPosition) {
+        super(context, RecipesTaskExecutor.LaneType.UI_CRITICAL,
+                RecipesTaskExecutor.PRIORITY_HIGH);
         this.mIdRecipe = idRecipe;
-        this.mActualPosition = idActualPosition;
-        this.mRecipeStepNavigationDirection = recipeStepNavigationDirection;
+        this.mTargetPosition = targetPosition;
     }
 
     @Override
     public Step loadInBackground() {
         this.mStep = RecipesUtils
-                .getOrCreateStep(this.getContext(), this.mIdRecipe, this.mCalculatedPosition);
+                .getOrCreateStep(this.getContext(), this.mIdRecipe, this.mTargetPosition);
         return this.mStep;
     }
 
     @Override
     protected void onStartLoading() {
 
-        // Calculate de position
-        switch (this.mRecipeStepNavigationDirection) {
-            case PREVIOUS:
-                this.mCalculatedPosition = this.mActualPosition - 1;
-                break;
-            case NEXT:
-                this.mCalculatedPosition = this.mActualPosition + 1;
-                break;
-        }
-
+        // If not null then return cached version, since a loader is always created with a new
+        // target position
         if (this.mStep != null) {
-
-            // If not null and step position equals calculated position then return cached version
-            if (this.mStep.getPosition().equals(this.mCalculatedPosition)) {
-                this.deliverResult(this.mStep);
-            }
+            this.deliverResult(this.mStep);
+        } else {
+            // Force a new load
+            this.forceLoad();
         }
-        // Force a new load
-        this.forceLoad();
     }
-}
\ No newline at end of file
+}
@@ -71,4 +71,14 @@ public class DatabaseContract {
         public static final String COLUMN_POSITION = "position";
         public static final String COLUMN_MAX_POSITION = "max_position";
     }
-}
\ No newline at end of file
+
+    /**
+     * Columns of the full-text index, a virtual table so Schematic doesn't create it.
+     */
+    public static final class RecipeSearchEntry {
+        public static final String DOCID = "docid";
+        public static final String COLUMN_RECIPE_NAME = "recipe_name";
+        public static final String COLUMN_INGREDIENT_NAMES = "ingredient_names";
+        public static final String COLUMN_STEP_TEXTS = "step_texts";
+    }
+}
@@ -32,19 +32,26 @@ import net.simonvt.schematic.annotation.Table;
 @Database(version = RecipesDatabase.VERSION, fileName = RecipesDatabase.FILE_NAME,
         packageName = "br.com.scagliabaroni.bakingapp.infrastructure")
 public class RecipesDatabase {
-    public static final int VERSION = 1;
+    public static final int VERSION = 4;
     public static final String FILE_NAME = "recipes.db";
     private static final String ALTER_TABLE_STATEMENT = "ALTER TABLE ";
     private static final String ADD_COLUMN_STATEMENT = " ADD COLUMN ";
     private static final String INTEGER_STATEMENT = " INTEGER ";
     private static final String REFERENCES_STATEMENT = "REFERENCES ";
     private static final String ON_DELETE_CASCADE_STATEMENT = " ON DELETE CASCADE";
+    private static final String CREATE_INDEX_STATEMENT = "CREATE INDEX IF NOT EXISTS ";
+    private static final String ON_STATEMENT = " ON ";
+    private static final String CREATE_FTS_TABLE_STATEMENT = "CREATE VIRTUAL TABLE IF NOT EXISTS ";
+    private static final String CREATE_TRIGGER_STATEMENT = "CREATE TRIGGER IF NOT EXISTS ";
     @Table(DatabaseContract.RecipeEntry.class)
     public static final String RECIPE = "recipe";
     @Table(DatabaseContract.IngredientEntry.class)
     public static final String INGREDIENT = "ingredient";
     @Table(DatabaseContract.StepEntry.class)
     public static final String STEP = "step";
+    // Full-text index of the recipes, one document per recipe with the recipe id as docid.
+    // It is a virtual table, so it is created below instead of by @Table.
+    public static final String RECIPE_SEARCH = "recipe_search";
 
     @ExecOnCreate
     public static String sCreateColumnIdRecipeOnStep =
@@ -63,6 +70,62 @@ public class RecipesDatabase {
                     "(" + DatabaseContract.RecipeEntry._ID + ")" +
                     ON_DELETE_CASCADE_STATEMENT + ";";
 
+    // Widgets and the recipe detail read ingredients and steps by recipe, so they are indexed.
+    // These must come after the id_recipe columns are added.
+    @ExecOnCreate
+    public static String sCreateIndexIdRecipeOnIngredient =
+            CREATE_INDEX_STATEMENT + "ingredient_id_recipe_index" + ON_STATEMENT + INGREDIENT +
+                    "(" + DatabaseContract.IngredientEntry.COLUMN_ID_RECIPE + ");";
+
+    @ExecOnCreate
+    public static String sCreateIndexIdRecipeOnStep =
+            CREATE_INDEX_STATEMENT + "step_id_recipe_index" + ON_STATEMENT + STEP +
+                    "(" + DatabaseContract.StepEntry.COLUMN_ID_RECIPE + ");";
+
+    // The widgets keep the name of their recipe and read the recipe by it
+    @ExecOnCreate
+    public static String sCreateIndexNameOnRecipe =
+            CREATE_INDEX_STATEMENT + "recipe_name_index" + ON_STATEMENT + RECIPE +
+                    "(" + DatabaseContract.RecipeEntry.COLUMN_NAME + ");";
+
+    // Prefix indexes of 2 and 3 characters keep the prefix queries typed in the search fast
+    @ExecOnCreate
+    public static String sCreateRecipeSearch =
+            CREATE_FTS_TABLE_STATEMENT + RECIPE_SEARCH + " USING fts4(" +
+                    DatabaseContract.RecipeSearchEntry.COLUMN_RECIPE_NAME + ", " +
+                    DatabaseContract.RecipeSearchEntry.COLUMN_INGREDIENT_NAMES + ", " +
+                    DatabaseContract.RecipeSearchEntry.COLUMN_STEP_TEXTS + ", " +
+                    "prefix=\"2,3\");";
+
+    // The ingestion writes the documents, deleted recipes leave the index here, which also
+    // covers the delete cascade
+    @ExecOnCreate
+    public static String sCreateRecipeSearchDeleteTrigger =
+            CREATE_TRIGGER_STATEMENT + "recipe_search_delete AFTER DELETE" + ON_STATEMENT +
+                    RECIPE + " BEGIN DELETE FROM " + RECIPE_SEARCH + " WHERE " +
+                    DatabaseContract.RecipeSearchEntry.DOCID + " = old." +
+                    DatabaseContract.RecipeEntry._ID + "; END;";
+
+    // Builds the documents of the recipes already in database
+    private static final String FILL_RECIPE_SEARCH_STATEMENT =
+            "INSERT INTO " + RECIPE_SEARCH + "(" +
+                    DatabaseContract.RecipeSearchEntry.DOCID + ", " +
+                    DatabaseContract.RecipeSearchEntry.COLUMN_RECIPE_NAME + ", " +
+                    DatabaseContract.RecipeSearchEntry.COLUMN_INGREDIENT_NAMES + ", " +
+                    DatabaseContract.RecipeSearchEntry.COLUMN_STEP_TEXTS + ") SELECT r." +
+                    DatabaseContract.RecipeEntry._ID + ", r." +
+                    DatabaseContract.RecipeEntry.COLUMN_NAME + ", " +
+                    "(SELECT group_concat(i." + DatabaseContract.IngredientEntry.COLUMN_NAME +
+                    ", ' ') FROM " + INGREDIENT + " i WHERE i." +
+                    DatabaseContract.IngredientEntry.COLUMN_ID_RECIPE + " = r." +
+                    DatabaseContract.RecipeEntry._ID + "), " +
+                    "(SELECT group_concat(s." +
+                    DatabaseContract.StepEntry.COLUMN_SHORT_DESCRIPTION + " || ' ' || s." +
+                    DatabaseContract.StepEntry.COLUMN_DESCRIPTION +
+                    ", ' ') FROM " + STEP + " s WHERE s." +
+                    DatabaseContract.StepEntry.COLUMN_ID_RECIPE + " = r." +
+                    DatabaseContract.RecipeEntry._ID + ") FROM " + RECIPE + " r;";
+
     public static String createMaxQueryString(String columnName) {
         return String.format("MAX(%1$s)", columnName);
     }
@@ -74,6 +137,24 @@ public class RecipesDatabase {
     @OnUpgrade
     public static void onUpgrade(Context context, SQLiteDatabase db, int oldVersion,
                                  int newVersion) {
+
+        // Version 2 added the id_recipe indexes
+        if (oldVersion < 2) {
+            db.execSQL(sCreateIndexIdRecipeOnIngredient);
+            db.execSQL(sCreateIndexIdRecipeOnStep);
+        }
+
+        // Version 3 added the full-text index, filled with the recipes already there
+        if (oldVersion < 3) {
+            db.execSQL(sCreateRecipeSearch);
+            db.execSQL(sCreateRecipeSearchDeleteTrigger);
+            db.execSQL(FILL_RECIPE_SEARCH_STATEMENT);
+        }
+
+        // Version 4 added the recipe name index
+        if (oldVersion < 4) {
+            db.execSQL(sCreateIndexNameOnRecipe);
+        }
     }
 
     @OnConfigure
@@ -16,43 +16,55 @@
 
 package br.com.scagliabaroni.bakingapp.fragment;
 
-import android.database.Cursor;
-import android.database.MatrixCursor;
-import android.database.MergeCursor;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
 import android.os.Bundle;
 import android.support.annotation.Nullable;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.LoaderManager;
-import android.support.v4.content.AsyncTaskLoader;
+import android.support.v4.content.LocalBroadcastManager;
 import android.support.v4.content.Loader;
 import android.support.v7.widget.RecyclerView;
+import android.text.TextUtils;
 import android.view.LayoutInflater;
+import android.view.Menu;
+import android.view.MenuInflater;
+import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.Toast;
+
+import java.util.List;
 
 import br.com.scagliabaroni.bakingapp.R;
 import br.com.scagliabaroni.bakingapp.adapter.RecipeDetailAdapter;
 import br.com.scagliabaroni.bakingapp.common.RecipeDetail;
+import br.com.scagliabaroni.bakingapp.common.RecipeDetailAsyncTaskLoader;
 import br.com.scagliabaroni.bakingapp.common.RecipeDetailClickListener;
+import br.com.scagliabaroni.bakingapp.common.RecipesOfflineStore;
 import br.com.scagliabaroni.bakingapp.model.Recipe;
-import br.com.scagliabaroni.bakingapp.database.DatabaseContract;
-import br.com.scagliabaroni.bakingapp.provider.RecipesProvider;
+import br.com.scagliabaroni.bakingapp.model.RecipeDetailSection;
 import butterknife.BindView;
 import butterknife.ButterKnife;
-import timber.log.Timber;
 
 /**
  * This fragment will show the recipes's ingredients and steps.
  */
 public class RecipeDetailFragment extends Fragment implements
         RecipeDetail,
-        LoaderManager.LoaderCallbacks<Cursor> {
+        LoaderManager.LoaderCallbacks<List<RecipeDetailSection>> {
     private static final int LOADER_ID = 0;
     @BindView(R.id.RecipeDetailRecyclerView)
     RecyclerView mRecipeDetailRecyclerView;
     // This is the recipe chosen in RecipesActivity
     private Recipe mRecipe;
     private RecipeDetailAdapter mRecipeDetailAdapter;
+    private OfflineProgressBroadcastReceiver mOfflineProgressBroadcastReceiver;
+    // Progress of the offline download of the recipe, in files
+    private int mOfflineFilesDone;
+    private int mOfflineFilesTotal;
 
     @Override
     public RecipeDetailClickListener getRecipeDetailClickListener() {
@@ -70,6 +82,82 @@ public class RecipeDetailFragment extends Fragment implements
     public RecipeDetailFragment() {
     }
 
+    @Override
+    public void onCreate(@Nullable Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        // We have the download for offline option
+        this.setHasOptionsMenu(true);
+        this.mOfflineProgressBroadcastReceiver = new OfflineProgressBroadcastReceiver();
+    }
+
+    @Override
+    public void onResume() {
+        super.onResume();
+        // Register the OfflineProgressBroadcastReceiver
+        LocalBroadcastManager.getInstance(this.getContext())
+                .registerReceiver(this.mOfflineProgressBroadcastReceiver,
+                        new IntentFilter(RecipesOfflineStore.ACTION_BROADCAST_PROGRESS));
+    }
+
+    @Override
+    public void onPause() {
+        super.onPause();
+        // Disable Broadcast when UI is no longer visible to the user
+        LocalBroadcastManager.getInstance(this.getContext())
+                .unregisterReceiver(this.mOfflineProgressBroadcastReceiver);
+    }
+
+    @Override
+    public void onCreateOptionsMenu(Menu menu, MenuInflater inflater) {
+        inflater.inflate(R.menu.menu_recipe_detail, menu);
+        super.onCreateOptionsMenu(menu, inflater);
+    }
+
+    @Override
+    public void onPrepareOptionsMenu(Menu menu) {
+        super.onPrepareOptionsMenu(menu);
+        MenuItem offlineMenuItem = menu.findItem(R.id.OfflineMenuItem);
+        // Only available when a recipe is shown
+        offlineMenuItem.setVisible(this.mRecipe != null);
+
+        if (this.mRecipe == null) {
+            return;
+        }
+        RecipesOfflineStore offlineStore = RecipesOfflineStore.getInstance(this.getContext());
+
+        // The title tells what the item will do, or how the download is going
+        if (offlineStore.isDownloading(this.mRecipe)) {
+            offlineMenuItem.setEnabled(false);
+            offlineMenuItem.setTitle(this.getString(R.string.downloading_for_offline,
+                    this.mOfflineFilesDone, this.mOfflineFilesTotal));
+        } else if (offlineStore.isAvailableOffline(this.mRecipe)) {
+            offlineMenuItem.setEnabled(true);
+            offlineMenuItem.setTitle(R.string.remove_offline_copy);
+        } else {
+            offlineMenuItem.setEnabled(true);
+            offlineMenuItem.setTitle(R.string.download_for_offline);
+        }
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+
+        if (item.getItemId() == R.id.OfflineMenuItem) {
+            RecipesOfflineStore offlineStore = RecipesOfflineStore.getInstance(this.getContext());
+
+            if (offlineStore.isAvailableOffline(this.mRecipe)) {
+                offlineStore.unpin(this.mRecipe);
+            } else {
+                this.mOfflineFilesDone = 0;
+                this.mOfflineFilesTotal = 0;
+                offlineStore.pin(this.mRecipe);
+            }
+            this.getActivity().invalidateOptionsMenu();
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
     /**
      * Inflate the layout fragment fragment_recipe_detail.
      * This method is the onCreate version compared with an activity.
@@ -81,7 +169,7 @@ public class RecipeDetailFragment extends Fragment implements
         View view = inflater.inflate(R.layout.fragment_recipe_detail, container, false);
         // Enable ButterKnife
         ButterKnife.bind(this, view);
-        // Initialize adapter with null cursor
+        // Initialize adapter with no sections
         this.mRecipeDetailAdapter = new RecipeDetailAdapter(this.getContext(), null);
         // Set adapter to recyclerview
         this.mRecipeDetailRecyclerView.setAdapter(this.mRecipeDetailAdapter);
@@ -94,92 +182,34 @@ public class RecipeDetailFragment extends Fragment implements
     }
 
     @Override
-    public Loader<Cursor> onCreateLoader(int id, Bundle args) {
-        // Create a new async loader anonymous class for
-        // get the recipe steps from database by ContentProvider
+    public Loader<List<RecipeDetailSection>> onCreateLoader(int id, Bundle args) {
+        // Return new instance of loader. It will get the ingredients header and the recipe steps
+        // from database by ContentProvider.
         // Note that we won't load the ingredients list since it will not be showed to the user
         // from this fragment.
-        return new AsyncTaskLoader<Cursor>(this.getContext()) {
-            // This will hold all data and act as cache
-            Cursor mCursor = null;
-
-            @Override
-            protected void onStartLoading() {
-
-                // If is not null then there is data already loaded in mCursor
-                if (mCursor != null) {
-                    // Delivers loaded data immediately
-                    deliverResult(mCursor);
-                } else {
-                    // Force a new load
-                    forceLoad();
-                }
-            }
-
-            @Override
-            public Cursor loadInBackground() {
-
-                // If no recipe then return null
-                if (mRecipe == null) {
-                    return null;
-                }
-                try {
-                    Timber.i("All steps from recipe id: %s", mRecipe.getId());
-                    // Get all steps from recipe id
-                    Cursor stepsCursor = this.getContext().getContentResolver().query(
-                            RecipesProvider.Step.fromRecipe(String.valueOf(mRecipe.getId())),
-                            RecipesProvider.Step.PROJECTION,
-                            null,
-                            null,
-                            null);
-                    // Adding new fake row on the top. By this way the first element will hold
-                    // the recipe id. Even though all data items are steps, the first view item
-                    // is a ingredient summary (see the layout). The detail step will get the
-                    // ingredients list based on this row.
-                    MatrixCursor fakeCursor = new MatrixCursor(
-                            new String[]{DatabaseContract.StepEntry._ID,
-                                    DatabaseContract.StepEntry.COLUMN_ID_RECIPE,
-                                    DatabaseContract.StepEntry.COLUMN_SHORT_DESCRIPTION,
-                                    DatabaseContract.StepEntry.COLUMN_DESCRIPTION,
-                                    DatabaseContract.StepEntry.COLUMN_VIDEO_URL,
-                                    DatabaseContract.StepEntry.COLUMN_THUMBNAIL_URL,
-                                    DatabaseContract.StepEntry.COLUMN_POSITION});
-                    fakeCursor.addRow(new Object[]{0, String.valueOf(mRecipe.getId()),
-                            "", "", "", "", 0});
-                    // Create a new merge cursor
-                    MergeCursor mergeCursor = new MergeCursor(
-                            new Cursor[]{fakeCursor, stepsCursor});
-                    return mergeCursor;
-                } catch (Exception e) {
-                    Timber.d(e);
-                }
-                return null;
-            }
-
-            @Override
-            public void deliverResult(Cursor data) {
-                // Set the cache and deliver it
-                mCursor = data;
-                super.deliverResult(mCursor);
-            }
-        };
+        return new RecipeDetailAsyncTaskLoader(this.getContext(),
+                this.mRecipe == null ? null : this.mRecipe.getId());
     }
 
     @Override
-    public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
+    public void onLoadFinished(Loader<List<RecipeDetailSection>> loader,
+                               List<RecipeDetailSection> data) {
         // Set new dataset for adapter
-        this.mRecipeDetailAdapter.swapCursor(data);
+        this.mRecipeDetailAdapter.swapSections(data);
     }
 
     @Override
-    public void onLoaderReset(Loader<Cursor> loader) {
+    public void onLoaderReset(Loader<List<RecipeDetailSection>> loader) {
         // Just set null for adapter dataset
-        this.mRecipeDetailAdapter.swapCursor(null);
+        this.mRecipeDetailAdapter.swapSections(null);
     }
 
     @Override
     public void show(Recipe recipe) {
         this.mRecipe = recipe;
+        // Using a recipe kept offline keeps it from being removed first
+        RecipesOfflineStore.getInstance(this.getContext()).markUsed(recipe);
+        this.getActivity().invalidateOptionsMenu();
         // Restart loader
         this.getLoaderManager().restartLoader(LOADER_ID, null, this);
     }
@@ -188,4 +218,35 @@ public class RecipeDetailFragment extends Fragment implements
     public Recipe getRecipe() {
         return this.mRecipe;
     }
-}
\ No newline at end of file
+
+    /**
+     * This {@link BroadcastReceiver} shows the progress of the offline download of the recipe.
+     */
+    public class OfflineProgressBroadcastReceiver extends BroadcastReceiver {
+
+        @Override
+        public void onReceive(Context context, Intent intent) {
+
+            // Only the download of the shown recipe matters
+            if (mRecipe == null || !TextUtils.equals(mRecipe.getName(), intent.getStringExtra(
+                    RecipesOfflineStore.EXTENDED_DATA_RECIPE_NAME))) {
+                return;
+            }
+            mOfflineFilesDone = intent.getIntExtra(RecipesOfflineStore.EXTENDED_DATA_FILES_DONE,
+                    0);
+            mOfflineFilesTotal = intent.getIntExtra(
+                    RecipesOfflineStore.EXTENDED_DATA_FILES_TOTAL, 0);
+            int state = intent.getIntExtra(RecipesOfflineStore.EXTENDED_DATA_STATE,
+                    RecipesOfflineStore.STATE_DOWNLOADING);
+
+            if (state == RecipesOfflineStore.STATE_COMPLETED) {
+                Toast.makeText(context, getString(R.string.recipe_available_offline,
+                        mRecipe.getName()), Toast.LENGTH_SHORT).show();
+            } else if (state == RecipesOfflineStore.STATE_FAILED) {
+                Toast.makeText(context, R.string.offline_download_failed,
+                        Toast.LENGTH_LONG).show();
+            }
+            getActivity().invalidateOptionsMenu();
+        }
+    }
+}
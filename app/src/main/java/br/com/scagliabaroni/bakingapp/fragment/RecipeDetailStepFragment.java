@@ -16,9 +16,14 @@
 
 package br.com.scagliabaroni.bakingapp.fragment;
 
+import android.content.ComponentName;
+import android.content.ServiceConnection;
 import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
 import android.support.annotation.Nullable;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.LoaderManager;
@@ -26,6 +31,9 @@ import android.support.v4.content.Loader;
 import android.support.v7.app.ActionBar;
 import android.support.v7.app.AppCompatActivity;
 import android.view.LayoutInflater;
+import android.view.Menu;
+import android.view.MenuInflater;
+import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.Button;
@@ -34,7 +42,9 @@ import android.widget.TextView;
 import com.google.android.exoplayer2.ui.SimpleExoPlayerView;
 
 import java.util.Formatter;
+import java.util.List;
 import java.util.Locale;
+import java.util.Objects;
 
 import br.com.scagliabaroni.bakingapp.R;
 import br.com.scagliabaroni.bakingapp.common.IngredientsSummaryAsyncTaskLoader;
@@ -42,12 +52,16 @@ import br.com.scagliabaroni.bakingapp.common.RecipeStepNavigationDirection;
 import br.com.scagliabaroni.bakingapp.common.RecipeDetailStep;
 import br.com.scagliabaroni.bakingapp.common.RecipeDetailStepTargetContentIntent;
 import br.com.scagliabaroni.bakingapp.common.RecipeDetailTargetContentIntent;
+import br.com.scagliabaroni.bakingapp.common.RecipePlaylistListener;
 import br.com.scagliabaroni.bakingapp.common.RecipesExoPlayerManager;
+import br.com.scagliabaroni.bakingapp.common.RecipesTaskExecutor;
+import br.com.scagliabaroni.bakingapp.common.RecipesTaskLoader;
 import br.com.scagliabaroni.bakingapp.common.RecipesUtils;
 import br.com.scagliabaroni.bakingapp.common.StepAsyncTaskLoader;
 import br.com.scagliabaroni.bakingapp.common.TargetContentIntent;
 import br.com.scagliabaroni.bakingapp.model.Recipe;
 import br.com.scagliabaroni.bakingapp.model.Step;
+import br.com.scagliabaroni.bakingapp.service.RecipesPlaybackService;
 import butterknife.BindView;
 import butterknife.ButterKnife;
 import butterknife.OnClick;
@@ -61,15 +75,57 @@ public class RecipeDetailStepFragment extends Fragment
         implements RecipeDetailStep {
     private static final int INGREDIENTS_SUMMARY_LOADER_ID = 1;
     private static final int STEP_LOADER_ID = 2;
+    private static final int PLAYLIST_LOADER_ID = 3;
     private static final String STEP_STATE = "step_state";
     private static final String RECIPE_NAME_STATE = "recipe_name_state";
+    // How long we wait for more previous or next taps before loading the step
+    private static final long STEP_NAVIGATION_DELAY_MS = 250;
     private String mTitle;
     private Step mStep;
     private String mRecipeName;
     private LoaderManager.LoaderCallbacks<String> mIngredientsSummaryLoaderCallbacks;
     private LoaderManager.LoaderCallbacks<Step> mStepLoaderCallbacks;
-    private RecipeStepNavigationDirection mRecipeStepNavigationDirection;
+    private LoaderManager.LoaderCallbacks<List<Step>> mPlaylistLoaderCallbacks;
+    private RecipePlaylistListener mRecipePlaylistListener;
+    // Sum of the previous and next taps not resolved yet, relative to mStep
+    private int mPendingStepOffset = 0;
+    // The part of mPendingStepOffset the running step loader is resolving
+    private int mLoadingStepOffset = 0;
+    private final Handler mStepNavigationHandler = new Handler(Looper.getMainLooper());
+    private final Runnable mStepNavigationRunnable = new Runnable() {
+        @Override
+        public void run() {
+            // Execute step loader for all taps accumulated so far
+            executeStepLoader();
+        }
+    };
     private RecipesExoPlayerManager mRecipesExoPlayerManager;
+    // If this instance survived a configuration change
+    private boolean mRetained;
+    private boolean mViewCreated;
+    // If the player should start as soon as the playback service is bound
+    private boolean mPlayerStartPending;
+    private final ServiceConnection mPlaybackServiceConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder service) {
+            mRecipesExoPlayerManager =
+                    ((RecipesPlaybackService.LocalBinder) service).getPlayerManager();
+
+            // Show the player in the view, if it exists already
+            if (getView() != null) {
+                mRecipesExoPlayerManager.attachView(mSimpleExoPlayerView);
+            }
+
+            if (mPlayerStartPending) {
+                startExoPlayer();
+            }
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            mRecipesExoPlayerManager = null;
+        }
+    };
     private TargetContentIntent mTargetContentIntent;
     @BindView(R.id.RecipeDetailStepSimpleExoPlayerView)
     SimpleExoPlayerView mSimpleExoPlayerView;
@@ -126,17 +182,32 @@ public class RecipeDetailStepFragment extends Fragment
 
             @Override
             public Loader<Step> onCreateLoader(int id, Bundle args) {
+                // Remember which taps this loader is resolving
+                RecipeDetailStepFragment.this.mLoadingStepOffset =
+                        RecipeDetailStepFragment.this.mPendingStepOffset;
                 // Return new instance of loader
                 return new StepAsyncTaskLoader(
                         RecipeDetailStepFragment.this.getContext(),
                         RecipeDetailStepFragment.this.mStep.getIdRecipe(),
-                        RecipeDetailStepFragment.this.mStep.getPosition(),
-                        RecipeDetailStepFragment.this.mRecipeStepNavigationDirection);
+                        RecipeDetailStepFragment.this.mStep.getPosition() +
+                                RecipeDetailStepFragment.this.mLoadingStepOffset);
             }
 
             @Override
             public void onLoadFinished(Loader<Step> loader, Step data) {
+
+                // A step of another recipe, loaded before a new one was shown
+                if (!Objects.equals(data.getIdRecipe(),
+                        RecipeDetailStepFragment.this.mStep.getIdRecipe())) {
+                    return;
+                }
+                // The taps made after this loader was created are still pending, now relative
+                // to the resolved step
+                RecipeDetailStepFragment.this.mPendingStepOffset -=
+                        RecipeDetailStepFragment.this.mLoadingStepOffset;
+                RecipeDetailStepFragment.this.mLoadingStepOffset = 0;
                 RecipeDetailStepFragment.this.setStep(data);
+                // The player is only initialized for the final resolved step
                 RecipeDetailStepFragment.this.updateUI();
             }
 
@@ -144,6 +215,159 @@ public class RecipeDetailStepFragment extends Fragment
             public void onLoaderReset(Loader<Step> loader) {
             }
         };
+        // Initiate the playlist loader callback
+        this.mPlaylistLoaderCallbacks = new LoaderManager.LoaderCallbacks<List<Step>>() {
+
+            @Override
+            public Loader<List<Step>> onCreateLoader(int id, Bundle args) {
+                final int idRecipe = RecipeDetailStepFragment.this.mStep.getIdRecipe();
+                // Return new instance of loader for all steps with video
+                return new RecipesTaskLoader<List<Step>>(
+                        RecipeDetailStepFragment.this.getContext(),
+                        RecipesTaskExecutor.LaneType.UI_CRITICAL,
+                        RecipesTaskExecutor.PRIORITY_NORMAL) {
+                    // This will hold the steps and act as cache
+                    private List<Step> mSteps;
+
+                    @Override
+                    protected void onStartLoading() {
+
+                        // Deliver the steps already loaded instead of querying them again
+                        if (this.mSteps != null) {
+                            this.deliverResult(this.mSteps);
+                        } else {
+                            this.forceLoad();
+                        }
+                    }
+
+                    @Override
+                    protected void onStopLoading() {
+                        // Attempt to cancel the current load task if possible
+                        this.cancelLoad();
+                    }
+
+                    @Override
+                    protected void onReset() {
+                        super.onReset();
+                        // Ensure the loader is stopped
+                        this.onStopLoading();
+                        this.mSteps = null;
+                    }
+
+                    @Override
+                    public List<Step> loadInBackground() {
+                        return RecipesUtils.getStepsWithVideo(this.getContext(), idRecipe);
+                    }
+
+                    @Override
+                    public void deliverResult(List<Step> data) {
+                        // Set the cache and deliver it
+                        this.mSteps = data;
+
+                        if (this.isStarted()) {
+                            super.deliverResult(data);
+                        }
+                    }
+                };
+            }
+
+            @Override
+            public void onLoadFinished(Loader<List<Step>> loader, List<Step> data) {
+                RecipeDetailStepFragment.this.startPlaylist(data);
+                // The playlist is started once, a later start of this screen must not start it
+                // again, maybe after it was turned off
+                RecipeDetailStepFragment.this.getLoaderManager()
+                        .destroyLoader(PLAYLIST_LOADER_ID);
+            }
+
+            @Override
+            public void onLoaderReset(Loader<List<Step>> loader) {
+            }
+        };
+        // Keep the description and title in sync with the step the playlist is playing
+        this.mRecipePlaylistListener = new RecipePlaylistListener() {
+            @Override
+            public void onPlaylistStepChanged(Step step) {
+                RecipeDetailStepFragment.this.setStep(step);
+                RecipeDetailStepFragment.this.updateStepDetails();
+                RecipeDetailStepFragment.this.updateTitle();
+
+                if (RecipeDetailStepFragment.this.mRecipesExoPlayerManager != null) {
+                    RecipeDetailStepFragment.this.mRecipesExoPlayerManager
+                            .setNotificationTitle(RecipeDetailStepFragment.this.mTitle);
+                }
+            }
+        };
+    }
+
+    @Override
+    public void onCreate(@Nullable Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        // We have the play whole recipe option
+        this.setHasOptionsMenu(true);
+        // Keep this instance, and so its binding to the player, across configuration changes
+        this.setRetainInstance(true);
+        // The player lives in the playback service, so it survives this screen
+        RecipesPlaybackService.bind(this.getContext().getApplicationContext(),
+                this.mPlaybackServiceConnection);
+    }
+
+    @Override
+    public void onCreateOptionsMenu(Menu menu, MenuInflater inflater) {
+        inflater.inflate(R.menu.menu_recipe_detail_step, menu);
+        super.onCreateOptionsMenu(menu, inflater);
+    }
+
+    @Override
+    public void onPrepareOptionsMenu(Menu menu) {
+        super.onPrepareOptionsMenu(menu);
+        MenuItem playWholeRecipeMenuItem = menu.findItem(R.id.PlayWholeRecipeMenuItem);
+        // Only available when a step is shown
+        playWholeRecipeMenuItem.setVisible(this.mStep != null);
+        playWholeRecipeMenuItem.setChecked(this.mRecipesExoPlayerManager != null &&
+                this.mRecipesExoPlayerManager.isPlayingPlaylist());
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+
+        if (item.getItemId() == R.id.PlayWholeRecipeMenuItem &&
+                this.mRecipesExoPlayerManager != null) {
+
+            // If the whole recipe is playing go back to the actual step alone
+            if (this.mRecipesExoPlayerManager.isPlayingPlaylist()) {
+                this.getLoaderManager().destroyLoader(PLAYLIST_LOADER_ID);
+                this.updateUI();
+            } else {
+                this.getLoaderManager().restartLoader(PLAYLIST_LOADER_ID, null,
+                        this.mPlaylistLoaderCallbacks);
+            }
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
+    /**
+     * Play all steps with video from the actual step on, hands-free.
+     */
+    private void startPlaylist(List<Step> steps) {
+        int startIndex = 0;
+
+        // Start from the actual step or the first one after it with video
+        for (int i = steps.size() - 1; i >= 0; i--) {
+
+            if (steps.get(i).getPosition() >= this.mStep.getPosition()) {
+                startIndex = i;
+            }
+        }
+
+        if (!steps.isEmpty() && this.mRecipesExoPlayerManager != null) {
+            this.setStep(steps.get(startIndex));
+            this.updateStepDetails();
+            this.updateTitle();
+            this.mRecipesExoPlayerManager.playPlaylist(steps, startIndex, this.mTitle,
+                    this.mTargetContentIntent, this.mRecipePlaylistListener);
+        }
     }
 
     /**
@@ -160,9 +384,21 @@ public class RecipeDetailStepFragment extends Fragment
         // Default load the app icon as the background image.
         this.mSimpleExoPlayerView.setDefaultArtwork(BitmapFactory
                 .decodeResource(getResources(), R.drawable.ic_launcher));
-        // Initiate ExoPlayer manager
-        this.mRecipesExoPlayerManager =
-                new RecipesExoPlayerManager(this.getContext(), this.mSimpleExoPlayerView);
+        // A retained instance already has its player playing, so only show it in the new view
+        this.mRetained = this.mViewCreated;
+        this.mViewCreated = true;
+
+        if (this.mRetained) {
+
+            if (this.mRecipesExoPlayerManager != null) {
+                this.mRecipesExoPlayerManager.attachView(this.mSimpleExoPlayerView);
+            }
+
+            if (this.mStep != null) {
+                this.updateStepDetails();
+            }
+            return view;
+        }
 
         // If has extras
         if (this.getActivity().getIntent().hasExtra(RecipesUtils.STEP_PARAM) &&
@@ -200,8 +436,8 @@ public class RecipeDetailStepFragment extends Fragment
     public void onActivityCreated(@Nullable Bundle savedInstanceState) {
         super.onActivityCreated(savedInstanceState);
 
-        // If there is any instance state to be restore
-        if (savedInstanceState != null) {
+        // If there is any instance state to be restore. A retained instance still has its state
+        if (savedInstanceState != null && !this.mRetained) {
             // Restore step instance state
             this.mStep = savedInstanceState.getParcelable(STEP_STATE);
             // Restore recipe name instance state
@@ -225,9 +461,17 @@ public class RecipeDetailStepFragment extends Fragment
     }
 
     /**
-     * This method update description text of a step considering its position.
+     * This method update description text of a step considering its position and start its video.
      */
     private void updateUI() {
+        this.updateStepDetails();
+        this.startExoPlayer();
+    }
+
+    /**
+     * This method update description text of a step considering its position.
+     */
+    private void updateStepDetails() {
 
         // If is ingredient summary
         if (this.mStep.getPosition() == 0) {
@@ -248,10 +492,16 @@ public class RecipeDetailStepFragment extends Fragment
                     mStep.getShortDescription(), this.mStep.getDescription());
             this.updateDescriptionText(createdStepSummary);
         }
-        this.startExoPlayer();
     }
 
     private void startExoPlayer() {
+
+        // Not bound to the playback service yet, it starts once connected
+        if (this.mRecipesExoPlayerManager == null) {
+            this.mPlayerStartPending = true;
+            return;
+        }
+        this.mPlayerStartPending = false;
         Uri uri = Uri.EMPTY;
         try {
             uri = Uri.parse(this.mStep.getVideoURL());
@@ -259,7 +509,7 @@ public class RecipeDetailStepFragment extends Fragment
             Timber.e(e);
         }
         // Start player
-        this.mRecipesExoPlayerManager.initializePlayer(uri, this.mTitle,
+        this.mRecipesExoPlayerManager.initializePlayer(this.mStep, uri, this.mTitle,
                 this.mStep.getShortDescription(),
                 this.mTargetContentIntent);
     }
@@ -284,10 +534,31 @@ public class RecipeDetailStepFragment extends Fragment
         this.updateTitle();
     }
 
+    @Override
+    public void onPause() {
+        super.onPause();
+        // Remember where the video stopped, in case we don't come back to this instance
+        if (this.mRecipesExoPlayerManager != null) {
+            this.mRecipesExoPlayerManager.saveCurrentPosition();
+        }
+    }
+
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        // The view goes away but the player stays in the playback service
+        if (this.mRecipesExoPlayerManager != null) {
+            this.mRecipesExoPlayerManager.detachView();
+        }
+    }
+
     @Override
     public void onDestroy() {
         super.onDestroy();
-        this.mRecipesExoPlayerManager.destroy();
+        this.mStepNavigationHandler.removeCallbacks(this.mStepNavigationRunnable);
+        // The service keeps playing, or stops if there is nothing playing
+        this.getContext().getApplicationContext().unbindService(this.mPlaybackServiceConnection);
+        this.mRecipesExoPlayerManager = null;
     }
 
     /**
@@ -297,6 +568,13 @@ public class RecipeDetailStepFragment extends Fragment
     public void show(Recipe recipe, Step step) {
         // Cache the step
         this.mStep = step;
+        // Forget the taps not resolved yet, since they were relative to the previous step, and
+        // the step or playlist being loaded for them, so it doesn't replace the one shown now
+        this.mStepNavigationHandler.removeCallbacks(this.mStepNavigationRunnable);
+        this.getLoaderManager().destroyLoader(STEP_LOADER_ID);
+        this.getLoaderManager().destroyLoader(PLAYLIST_LOADER_ID);
+        this.mPendingStepOffset = 0;
+        this.mLoadingStepOffset = 0;
 
         // If is a ingredients step
         if (this.mStep.getPosition() == 0) {
@@ -319,9 +597,7 @@ public class RecipeDetailStepFragment extends Fragment
     @Optional
     public void previous() {
         // We've selected the previous step position
-        this.mRecipeStepNavigationDirection = RecipeStepNavigationDirection.PREVIOUS;
-        // Execute step loader
-        this.executeStepLoader();
+        this.navigate(RecipeStepNavigationDirection.PREVIOUS);
     }
 
     @Override
@@ -329,9 +605,23 @@ public class RecipeDetailStepFragment extends Fragment
     @Optional
     public void next() {
         // We've selected the next step position
-        this.mRecipeStepNavigationDirection = RecipeStepNavigationDirection.NEXT;
-        // Execute step loader
-        this.executeStepLoader();
+        this.navigate(RecipeStepNavigationDirection.NEXT);
+    }
+
+    /**
+     * Accumulate the tap and postpone the step loading a little, so fast repeated taps end up
+     * in one database hit and one player preparation.
+     */
+    private void navigate(RecipeStepNavigationDirection direction) {
+        this.mPendingStepOffset += direction.getOffset();
+
+        // There is nothing before the ingredients step
+        if (this.mStep.getPosition() + this.mPendingStepOffset < 0) {
+            this.mPendingStepOffset = -this.mStep.getPosition();
+        }
+        this.mStepNavigationHandler.removeCallbacks(this.mStepNavigationRunnable);
+        this.mStepNavigationHandler.postDelayed(this.mStepNavigationRunnable,
+                STEP_NAVIGATION_DELAY_MS);
     }
 
     private void executeIngredientsSummaryLoader() {
@@ -351,6 +641,11 @@ public class RecipeDetailStepFragment extends Fragment
     }
 
     private void executeStepLoader() {
+
+        // If all taps cancel each other there is nothing new to load
+        if (this.mPendingStepOffset == this.mLoadingStepOffset) {
+            return;
+        }
         Object stepLoader = getLoaderManager()
                 .getLoader(STEP_LOADER_ID);
 
@@ -360,7 +655,8 @@ public class RecipeDetailStepFragment extends Fragment
             this.getLoaderManager().initLoader(STEP_LOADER_ID, null,
                     this.mStepLoaderCallbacks);
         } else {
-            // The loader has been loaded, so we restart the loader
+            // The loader has been loaded, so we restart the loader. An obsolete load still
+            // running or queued is canceled.
             this.getLoaderManager().restartLoader(STEP_LOADER_ID, null,
                     this.mStepLoaderCallbacks);
         }
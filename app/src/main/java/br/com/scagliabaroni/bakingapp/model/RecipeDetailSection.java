@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2017 Igor Scaglia.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package br.com.scagliabaroni.bakingapp.model;
+
+import java.util.Objects;
+
+/**
+ * Represents one row of the recipe detail list. The first section of a recipe is always the
+ * ingredients header, followed by one section for each step. Both kinds hold a {@link Step}, the
+ * ingredients header holding the position 0 step, so the detail step screen can show the
+ * ingredients summary from it.
+ */
+public class RecipeDetailSection {
+    public static final int TYPE_INGREDIENTS = 0;
+    public static final int TYPE_STEP = 1;
+    private final int mType;
+    private final Step mStep;
+
+    private RecipeDetailSection(int type, Step step) {
+        this.mType = type;
+        this.mStep = step;
+    }
+
+    /**
+     * Create the ingredients header section based on the position 0 step of a recipe.
+     */
+    public static RecipeDetailSection ingredients(Step ingredientsStep) {
+        return new RecipeDetailSection(TYPE_INGREDIENTS, ingredientsStep);
+    }
+
+    /**
+     * Create a step section.
+     */
+    public static RecipeDetailSection step(Step step) {
+        return new RecipeDetailSection(TYPE_STEP, step);
+    }
+
+    public int getType() {
+        return mType;
+    }
+
+    public Step getStep() {
+        return mStep;
+    }
+
+    /**
+     * Used when diffing two lists to know if both sections represents the same row.
+     */
+    public boolean isSameSection(RecipeDetailSection other) {
+        return this.mType == other.mType &&
+                Objects.equals(this.mStep.getId(), other.mStep.getId());
+    }
+
+    /**
+     * Used when diffing two lists to know if the row has to be bound again.
+     */
+    public boolean hasSameContents(RecipeDetailSection other) {
+        return this.isSameSection(other) &&
+                Objects.equals(this.mStep.getPosition(), other.mStep.getPosition()) &&
+                Objects.equals(this.mStep.getShortDescription(),
+                        other.mStep.getShortDescription());
+    }
+}
@@ -25,6 +25,7 @@ import net.simonvt.schematic.annotation.MapColumns;
 import net.simonvt.schematic.annotation.TableEndpoint;
 
 import java.util.HashMap;
+import java.util.Locale;
 import java.util.Map;
 
 import br.com.scagliabaroni.bakingapp.database.DatabaseContract;
@@ -54,6 +55,7 @@ public final class RecipesProvider {
         final static String STEPS = "steps";
         final static String FROM_RECIPE = "fromRecipe";
         final static String WITH_ONE_FAKE_ROW = "withOneFakeRow";
+        final static String SEARCH = "search";
     }
 
     @TableEndpoint(table = RecipesDatabase.RECIPE)
@@ -163,4 +165,95 @@ public final class RecipesProvider {
             return buildUri(Path.STEPS, Path.FROM_RECIPE, idRecipe);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * The full-text index of the recipes. The ingestion inserts one document per recipe in
+     * {@link #CONTENT_URI}, and {@link #RECIPES_URI} answers the search with the matching
+     * recipes, queried with {@link #SELECTION}, {@link #matchQuery(String)} and
+     * {@link #rankedPage(String, int, int)}.
+     */
+    @TableEndpoint(table = RecipesDatabase.RECIPE_SEARCH)
+    public static class Search {
+        public static final String SELECTION = RecipesDatabase.RECIPE_SEARCH + " MATCH ?";
+        private static final String RECIPE_ID =
+                RecipesDatabase.RECIPE + "." + DatabaseContract.RecipeEntry._ID;
+        private static final String DOCID =
+                RecipesDatabase.RECIPE_SEARCH + "." + DatabaseContract.RecipeSearchEntry.DOCID;
+        // Each hit adds four numbers to the offsets, so the spaces left once the digits are
+        // removed count the hits. offsets() reads the document again, so it's called only once.
+        private static final String HITS_RANK = hitsRank();
+
+        @ContentUri(path = Path.SEARCH,
+                type = "vnd.android.cursor.dir/recipe_search")
+        public static final Uri CONTENT_URI = buildUri(Path.SEARCH);
+
+        @ContentUri(path = Path.SEARCH + "/" + Path.RECIPES,
+                type = "vnd.android.cursor.dir/recipe",
+                join = "JOIN " + RecipesDatabase.RECIPE + " ON " + RECIPE_ID + " = " + DOCID)
+        public static final Uri RECIPES_URI = buildUri(Path.SEARCH, Path.RECIPES);
+
+        /**
+         * Turn the text typed by the user into a full-text query. Every word must be found,
+         * as a word or as the beginning of one.
+         *
+         * @return The query, or null when there is no word to search.
+         */
+        public static String matchQuery(String text) {
+
+            if (text == null) {
+                return null;
+            }
+            StringBuilder query = new StringBuilder();
+            int length = text.length();
+            int start = -1;
+
+            // Only letters and digits go to the query, so there is no syntax to escape
+            for (int i = 0; i <= length; i++) {
+                boolean wordChar = i < length && Character.isLetterOrDigit(text.charAt(i));
+
+                if (wordChar && start < 0) {
+                    start = i;
+                } else if (!wordChar && start >= 0) {
+
+                    if (query.length() > 0) {
+                        query.append(' ');
+                    }
+                    // The index folds ASCII only, so the user locale, like the Turkish dotless
+                    // i, must not change the words
+                    query.append(text.substring(start, i).toLowerCase(Locale.ROOT)).append('*');
+                    start = -1;
+                }
+            }
+            return query.length() == 0 ? null : query.toString();
+        }
+
+        /**
+         * The order of the search results, given as the sort order of {@link #RECIPES_URI}.
+         * Recipes whose name matches come first, then the ones with more hits. The page is
+         * appended to the order, since Schematic has no other way to take a limit.
+         *
+         * @param matchQuery A query made by {@link #matchQuery(String)}.
+         * @param offset     Results skipped.
+         * @param limit      Results returned.
+         */
+        public static String rankedPage(String matchQuery, int offset, int limit) {
+            // matchQuery only has letters, digits, spaces and stars, so it is safe inline
+            String nameMatches = DOCID + " IN (SELECT " +
+                    DatabaseContract.RecipeSearchEntry.DOCID + " FROM " +
+                    RecipesDatabase.RECIPE_SEARCH + " WHERE " +
+                    DatabaseContract.RecipeSearchEntry.COLUMN_RECIPE_NAME + " MATCH '" +
+                    matchQuery + "')";
+            return String.format(Locale.US, "%1$s DESC, %2$s DESC, %3$s ASC LIMIT %4$d OFFSET %5$d",
+                    nameMatches, HITS_RANK, RECIPE_ID, limit, offset);
+        }
+
+        private static String hitsRank() {
+            String offsets = "offsets(" + RecipesDatabase.RECIPE_SEARCH + ")";
+
+            for (char digit = '0'; digit <= '9'; digit++) {
+                offsets = "replace(" + offsets + ", '" + digit + "', '')";
+            }
+            return "length(" + offsets + ")";
+        }
+    }
+}
@@ -19,14 +19,17 @@ package br.com.scagliabaroni.bakingapp.service;
 import android.app.IntentService;
 import android.content.Context;
 import android.content.Intent;
+import android.os.SystemClock;
 import android.support.annotation.Nullable;
 
-import br.com.scagliabaroni.bakingapp.common.RecipesUtils;
+import br.com.scagliabaroni.bakingapp.common.RecipesSyncCoordinator;
+import br.com.scagliabaroni.bakingapp.common.RecipesSyncScheduler;
 
 /**
  * This service is responsible for load recipes from internet to the local recipes database.
  * Is an {@link IntentService} subclass for handling asynchronous task requests in
- * a service on a separate handler thread.
+ * a service on a separate handler thread. The app itself syncs through
+ * {@link RecipesSyncScheduler}, this service is kept for explicit loads.
  */
 public class RecipesLoadIntentService extends IntentService {
     /**
@@ -35,12 +38,36 @@ public class RecipesLoadIntentService extends IntentService {
      */
     public static final String ACTION_STOP_WHEN_DATA_EXISTS =
             "br.com.scagliabaroni.bakingapp.action.stop_when_data_exists";
+    /**
+     * This custom action only fills an empty database from the catalog snapshot, without
+     * asking the server.
+     */
+    public static final String ACTION_SEED_FROM_SNAPSHOT =
+            "br.com.scagliabaroni.bakingapp.action.seed_from_snapshot";
     // Defines a custom Intent action for broadcast receivers
     public static final String ACTION_BROADCAST_RESULT =
             "br.com.scagliabaroni.bakingapp.action.broadcast_result";
     // Defines the extra key for total recipes loaded
     public static final String EXTENDED_DATA_TOTAL_RECIPES_LOADED =
             "br.com.scagliabaroni.bakingapp.data.total_recipes_loaded";
+    // Defines a custom Intent action for the progress of a load
+    public static final String ACTION_BROADCAST_PROGRESS =
+            "br.com.scagliabaroni.bakingapp.action.broadcast_progress";
+    // Defines the extra key for the recipes decoded so far
+    public static final String EXTENDED_DATA_RECIPES_DECODED =
+            "br.com.scagliabaroni.bakingapp.data.recipes_decoded";
+    // Defines the extra key for the recipes already in database
+    public static final String EXTENDED_DATA_RECIPES_COMMITTED =
+            "br.com.scagliabaroni.bakingapp.data.recipes_committed";
+    // Defines the extra key for the bytes downloaded so far
+    public static final String EXTENDED_DATA_BYTES_READ =
+            "br.com.scagliabaroni.bakingapp.data.bytes_read";
+    // Defines the extra key for the bytes of the whole download, -1 when unknown
+    public static final String EXTENDED_DATA_BYTES_TOTAL =
+            "br.com.scagliabaroni.bakingapp.data.bytes_total";
+    // When the load was requested, to drop it if a load completed meanwhile
+    private static final String EXTRA_REQUESTED_AT =
+            "br.com.scagliabaroni.bakingapp.extra.requested_at";
 
     /**
      * Creates an IntentService. Invoked by your subclass's constructor.
@@ -57,17 +84,26 @@ public class RecipesLoadIntentService extends IntentService {
 
     @Override
     protected void onHandleIntent(@Nullable Intent intent) {
-        RecipesUtils.loadRecipes(intent, this.getBaseContext());
+
+        if (intent == null) {
+            return;
+        }
+        // Queued requests already answered by a completed load are dropped, and a load never
+        // runs along with a scheduled sync
+        RecipesSyncCoordinator.getInstance(this.getBaseContext()).load(intent,
+                intent.getLongExtra(EXTRA_REQUESTED_AT, SystemClock.elapsedRealtime()));
     }
 
     /**
      * Starts this service to perform data load action. If the service is already performing a
-     * task this action will be queued automatic by the IntentService engine.
+     * task this action will be queued automatic by the IntentService engine, and dropped if
+     * that task already loaded the recipes.
      *
      * @see IntentService
      */
     public static void startRecipesLoad(Context context) {
-        Intent intent = new Intent(context, RecipesLoadIntentService.class);
+        Intent intent = new Intent(context, RecipesLoadIntentService.class)
+                .putExtra(EXTRA_REQUESTED_AT, SystemClock.elapsedRealtime());
         context.startService(intent);
     }
 
@@ -80,7 +116,8 @@ public class RecipesLoadIntentService extends IntentService {
      * @see IntentService
      */
     public static void startRecipesLoadStopWhenDataExists(Context context) {
-        Intent intent = new Intent(context, RecipesLoadIntentService.class);
+        Intent intent = new Intent(context, RecipesLoadIntentService.class)
+                .putExtra(EXTRA_REQUESTED_AT, SystemClock.elapsedRealtime());
         intent.setAction(ACTION_STOP_WHEN_DATA_EXISTS);
         context.startService(intent);
     }
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2017 Igor Scaglia.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package br.com.scagliabaroni.bakingapp.service;
+
+import android.app.Notification;
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.os.Binder;
+import android.os.IBinder;
+
+import br.com.scagliabaroni.bakingapp.common.PlaybackNotificationListener;
+import br.com.scagliabaroni.bakingapp.common.PlaybackQoeMetrics;
+import br.com.scagliabaroni.bakingapp.common.RecipesExoPlayerManager;
+import br.com.scagliabaroni.bakingapp.common.RecipesPlaybackSession;
+import timber.log.Timber;
+
+/**
+ * Owns the step video player, so playback, buffers and connections survive the step screen
+ * being left or recreated. The step screen binds to it and attaches its view to the player.
+ * While a video plays the service runs in foreground with the media notification, once nothing
+ * is bound and nothing plays it stops by itself.
+ */
+public class RecipesPlaybackService extends Service implements PlaybackNotificationListener {
+    private final IBinder mBinder = new LocalBinder();
+    private RecipesPlaybackSession mPlaybackSession;
+    private RecipesExoPlayerManager mRecipesExoPlayerManager;
+    private int mBoundClients;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        // The media session lives as long as the service
+        this.mPlaybackSession = new RecipesPlaybackSession(this);
+        // The player has no view until a step screen attaches one
+        this.mRecipesExoPlayerManager = new RecipesExoPlayerManager(this, null,
+                this.mPlaybackSession);
+        this.mRecipesExoPlayerManager.setNotificationListener(this);
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+
+        // Media buttons reach the service through MediaButtonReceiver
+        if (intent != null && Intent.ACTION_MEDIA_BUTTON.equals(intent.getAction())) {
+            this.mPlaybackSession.handleMediaButton(intent);
+            // A button pressed with nothing to play shouldn't keep the service running
+            this.stopIfIdle();
+        }
+        // Don't come back by itself after being killed, there would be nothing to play
+        return START_NOT_STICKY;
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        this.mBoundClients++;
+        return this.mBinder;
+    }
+
+    @Override
+    public void onRebind(Intent intent) {
+        this.mBoundClients++;
+    }
+
+    @Override
+    public boolean onUnbind(Intent intent) {
+        this.mBoundClients--;
+        this.stopIfIdle();
+        // We want onRebind when a step screen comes back
+        return true;
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        this.mRecipesExoPlayerManager.destroy();
+        this.mPlaybackSession.release();
+        // The player is gone, so the totals of all its playbacks are final
+        Timber.i("Playback QoE totals: %s", PlaybackQoeMetrics.getInstance().dump());
+    }
+
+    @Override
+    public void onNotificationPosted(int notificationId, Notification notification,
+                                     boolean playing) {
+
+        if (playing) {
+            // Playing in background must not be killed
+            this.startForeground(notificationId, notification);
+        } else {
+            // Paused, keep the notification so it can be resumed, but let it be dismissed
+            this.stopForeground(false);
+        }
+    }
+
+    @Override
+    public void onPlaybackIdle() {
+        // Paused or ended from the notification or a media button, with no step screen open
+        this.stopIfIdle();
+    }
+
+    /**
+     * Stop when no step screen is bound and nothing is playing.
+     */
+    private void stopIfIdle() {
+
+        if (this.mBoundClients <= 0 && !this.mRecipesExoPlayerManager.isPlaying()) {
+            this.stopSelf();
+        }
+    }
+
+    /**
+     * Start and bind the service. It's started too, so it keeps playing once unbound.
+     */
+    public static void bind(Context context, ServiceConnection serviceConnection) {
+        Intent intent = new Intent(context, RecipesPlaybackService.class);
+        context.startService(intent);
+        context.bindService(intent, serviceConnection, Context.BIND_AUTO_CREATE);
+    }
+
+    /**
+     * Returned to bound clients, gives the player manager the service owns.
+     */
+    public class LocalBinder extends Binder {
+        public RecipesExoPlayerManager getPlayerManager() {
+            return mRecipesExoPlayerManager;
+        }
+    }
+}
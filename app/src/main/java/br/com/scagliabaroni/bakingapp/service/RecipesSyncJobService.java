@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2017 Igor Scaglia.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package br.com.scagliabaroni.bakingapp.service;
+
+import android.app.job.JobParameters;
+import android.app.job.JobService;
+import android.os.SystemClock;
+import android.util.SparseArray;
+
+import br.com.scagliabaroni.bakingapp.common.RecipesSyncCoordinator;
+import br.com.scagliabaroni.bakingapp.common.RecipesSyncScheduler;
+import br.com.scagliabaroni.bakingapp.common.RecipesTaskExecutor;
+
+/**
+ * Runs the recipes syncs scheduled by {@link RecipesSyncScheduler}. The work goes to the
+ * background lane of {@link RecipesTaskExecutor}, so it never competes with the UI loaders.
+ */
+public class RecipesSyncJobService extends JobService {
+    // The running task of each job, to cancel it when the system stops the job
+    private final SparseArray<RecipesTaskExecutor.Task> mTasks = new SparseArray<>();
+
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        // A sync the user is waiting for goes before the periodic one
+        int priority = params.getJobId() == RecipesSyncScheduler.JOB_ID_ON_DEMAND_SYNC ?
+                RecipesTaskExecutor.PRIORITY_NORMAL : RecipesTaskExecutor.PRIORITY_LOW;
+        RecipesTaskExecutor.Task task = RecipesTaskExecutor.getInstance().execute(
+                RecipesTaskExecutor.LaneType.BACKGROUND, priority, new Runnable() {
+                    @Override
+                    public void run() {
+                        boolean success = RecipesSyncCoordinator
+                                .getInstance(getApplicationContext())
+                                .load(null, SystemClock.elapsedRealtime());
+
+                        synchronized (mTasks) {
+                            mTasks.remove(params.getJobId());
+                        }
+                        // A failed sync is retried with the system back off
+                        jobFinished(params, !success);
+                    }
+                });
+
+        synchronized (this.mTasks) {
+            this.mTasks.put(params.getJobId(), task);
+        }
+        // The work goes on in background
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        RecipesTaskExecutor.Task task;
+
+        synchronized (this.mTasks) {
+            task = this.mTasks.get(params.getJobId());
+            this.mTasks.remove(params.getJobId());
+        }
+
+        // A sync not started yet is dropped, a running one ends by itself
+        if (task != null) {
+            RecipesTaskExecutor.getInstance().cancel(task);
+        }
+        // Run it again when the constraints are met
+        return true;
+    }
+}
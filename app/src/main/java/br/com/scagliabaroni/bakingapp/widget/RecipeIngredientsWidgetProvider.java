@@ -1,8 +1,17 @@
 package br.com.scagliabaroni.bakingapp.widget;
 
+import android.app.PendingIntent;
 import android.appwidget.AppWidgetManager;
 import android.appwidget.AppWidgetProvider;
 import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
+import android.widget.RemoteViews;
+
+import br.com.scagliabaroni.bakingapp.R;
+import br.com.scagliabaroni.bakingapp.activity.RecipeDetailActivity;
+import br.com.scagliabaroni.bakingapp.common.RecipesUtils;
+import br.com.scagliabaroni.bakingapp.model.Recipe;
 
 /**
  * App widget BroadcastReceiver implementation.
@@ -12,9 +21,19 @@ public class RecipeIngredientsWidgetProvider extends AppWidgetProvider {
     @Override
     public void onUpdate(Context context, AppWidgetManager appWidgetManager, int[] appWidgetIds) {
 
-        // There may be multiple active instances of the same widget, so update all of them.
+        // There may be multiple active instances of the same widget, so update all of them. The
+        // queue builds them off the main thread, along with the other pending updates.
         for (int appWidgetId : appWidgetIds) {
-            updateAppWidget(context, appWidgetManager, appWidgetId);
+            RecipeIngredientsWidgetUpdateQueue.getInstance(context).requestUpdate(appWidgetId);
+        }
+    }
+
+    @Override
+    public void onDeleted(Context context, int[] appWidgetIds) {
+
+        // Forget the recipe of the removed widgets
+        for (int appWidgetId : appWidgetIds) {
+            RecipeIngredientsWidgetStore.remove(context, appWidgetId);
         }
     }
 
@@ -28,9 +47,46 @@ public class RecipeIngredientsWidgetProvider extends AppWidgetProvider {
         // Enter relevant functionality for when the last widget is disabled
     }
 
-    static void updateAppWidget(Context context, AppWidgetManager appWidgetManager,
-                                int appWidgetId) {
-        // Since the update on widget are not persisted in database, we don't have to
-        // implement nothing here
+    /**
+     * Build the whole widget: the recipe name, the list served by
+     * {@link RecipeIngredientsWidgetService} and what a tap opens. The rows themselves are not
+     * sent here, the list asks for them.
+     */
+    public static void updateAppWidget(Context context, AppWidgetManager appWidgetManager,
+                                       int appWidgetId) {
+        // Set the widget_recipe_ingredients layout to our widget
+        RemoteViews remoteViews = new RemoteViews(context.getPackageName(),
+                R.layout.widget_recipe_ingredients);
+        String recipeName = RecipeIngredientsWidgetStore.getRecipeName(context, appWidgetId);
+
+        // Until a recipe is chosen the widget shows only its empty view
+        if (recipeName != null) {
+            remoteViews.setTextViewText(R.id.WidgetRecipeNameTextView, recipeName);
+        }
+        // The list rows come from RecipeIngredientsWidgetService, one factory for each widget
+        Intent serviceIntent = new Intent(context, RecipeIngredientsWidgetService.class)
+                .putExtra(AppWidgetManager.EXTRA_APPWIDGET_ID, appWidgetId);
+        // Extras don't make intents different, the data does
+        serviceIntent.setData(Uri.parse(serviceIntent.toUri(Intent.URI_INTENT_SCHEME)));
+        remoteViews.setRemoteAdapter(R.id.WidgetIngredientsListView, serviceIntent);
+        remoteViews.setEmptyView(R.id.WidgetIngredientsListView,
+                R.id.WidgetIngredientsSummaryTextView);
+        // The recipe alone, without its ingredients and steps, so the click intent stays small
+        Recipe recipe = RecipesUtils.getRecipeByName(context, recipeName);
+
+        if (recipe != null) {
+            // Configure the RecipeDetailActivity activity to be opened when widget gets clicked
+            Intent recipeDetailIntent = new Intent(context, RecipeDetailActivity.class)
+                    .putExtra(RecipesUtils.RECIPE_PARAM, recipe);
+            // One request code for each widget, so each keeps its own recipe
+            PendingIntent recipeDetailPendingIntent =
+                    PendingIntent.getActivity(context, appWidgetId, recipeDetailIntent,
+                            PendingIntent.FLAG_UPDATE_CURRENT);
+            remoteViews.setOnClickPendingIntent(R.id.WidgetRecipeNameTextView,
+                    recipeDetailPendingIntent);
+            remoteViews.setPendingIntentTemplate(R.id.WidgetIngredientsListView,
+                    recipeDetailPendingIntent);
+        }
+        appWidgetManager.updateAppWidget(appWidgetId, remoteViews);
     }
-}
\ No newline at end of file
+}
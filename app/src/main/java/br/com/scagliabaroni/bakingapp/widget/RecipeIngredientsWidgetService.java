@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2017 Igor Scaglia.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package br.com.scagliabaroni.bakingapp.widget;
+
+import android.appwidget.AppWidgetManager;
+import android.content.Context;
+import android.content.Intent;
+import android.database.Cursor;
+import android.os.Binder;
+import android.widget.RemoteViews;
+import android.widget.RemoteViewsService;
+
+import br.com.scagliabaroni.bakingapp.R;
+import br.com.scagliabaroni.bakingapp.common.RecipesUtils;
+import br.com.scagliabaroni.bakingapp.database.DatabaseContract;
+import br.com.scagliabaroni.bakingapp.model.Ingredient;
+import br.com.scagliabaroni.bakingapp.model.Recipe;
+import br.com.scagliabaroni.bakingapp.provider.RecipesProvider;
+
+/**
+ * Serves the rows of the ingredients widget list. Each row is built only when the launcher
+ * shows it, reading the ingredients straight from the provider.
+ */
+public class RecipeIngredientsWidgetService extends RemoteViewsService {
+
+    @Override
+    public RemoteViewsFactory onGetViewFactory(Intent intent) {
+        return new IngredientsRemoteViewsFactory(this.getApplicationContext(),
+                intent.getIntExtra(AppWidgetManager.EXTRA_APPWIDGET_ID,
+                        AppWidgetManager.INVALID_APPWIDGET_ID));
+    }
+
+    /**
+     * One row for each ingredient of the recipe shown by one widget.
+     */
+    private static class IngredientsRemoteViewsFactory implements RemoteViewsFactory {
+        private final Context mContext;
+        private final int mAppWidgetId;
+        private Cursor mCursor;
+
+        IngredientsRemoteViewsFactory(Context context, int appWidgetId) {
+            this.mContext = context;
+            this.mAppWidgetId = appWidgetId;
+        }
+
+        @Override
+        public void onCreate() {
+        }
+
+        /**
+         * Called on a binder thread when the widget is created or after
+         * notifyAppWidgetViewDataChanged, so the provider can be queried here.
+         */
+        @Override
+        public void onDataSetChanged() {
+
+            if (this.mCursor != null) {
+                this.mCursor.close();
+                this.mCursor = null;
+            }
+            String recipeName = RecipeIngredientsWidgetStore
+                    .getRecipeName(this.mContext, this.mAppWidgetId);
+
+            if (recipeName == null) {
+                return;
+            }
+            // The provider is not exported, so query it as the app, not as the launcher
+            long identity = Binder.clearCallingIdentity();
+            try {
+                // The recipe id changes with every load, so it's found by name
+                Recipe recipe = RecipesUtils.getRecipeByName(this.mContext, recipeName);
+
+                if (recipe != null) {
+                    this.mCursor = this.mContext.getContentResolver().query(
+                            RecipesProvider.Ingredient.fromRecipe(String.valueOf(recipe.getId())),
+                            RecipesProvider.Ingredient.PROJECTION, null, null, null);
+                }
+            } finally {
+                Binder.restoreCallingIdentity(identity);
+            }
+        }
+
+        @Override
+        public void onDestroy() {
+
+            if (this.mCursor != null) {
+                this.mCursor.close();
+                this.mCursor = null;
+            }
+        }
+
+        @Override
+        public int getCount() {
+            return this.mCursor == null ? 0 : this.mCursor.getCount();
+        }
+
+        @Override
+        public RemoteViews getViewAt(int position) {
+            RemoteViews remoteViews = new RemoteViews(this.mContext.getPackageName(),
+                    R.layout.widget_ingredient_item);
+
+            if (this.mCursor != null && this.mCursor.moveToPosition(position)) {
+                remoteViews.setTextViewText(R.id.WidgetIngredientTextView,
+                        RecipesUtils.formatIngredient(Ingredient.from(this.mCursor)));
+                // Tapping a row opens the recipe, through the template of the list
+                remoteViews.setOnClickFillInIntent(R.id.WidgetIngredientTextView, new Intent());
+            }
+            return remoteViews;
+        }
+
+        @Override
+        public RemoteViews getLoadingView() {
+            // Use the default loading view
+            return null;
+        }
+
+        @Override
+        public int getViewTypeCount() {
+            return 1;
+        }
+
+        @Override
+        public long getItemId(int position) {
+
+            if (this.mCursor != null && this.mCursor.moveToPosition(position)) {
+                return this.mCursor.getLong(this.mCursor
+                        .getColumnIndex(DatabaseContract.IngredientEntry._ID));
+            }
+            return position;
+        }
+
+        @Override
+        public boolean hasStableIds() {
+            return true;
+        }
+    }
+}
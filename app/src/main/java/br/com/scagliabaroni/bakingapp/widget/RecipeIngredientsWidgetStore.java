@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2017 Igor Scaglia.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package br.com.scagliabaroni.bakingapp.widget;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * Persisted map from each ingredients widget to the recipe it shows, so widgets are rebuilt at
+ * any time, after a reboot or a launcher restart, with one lookup and without opening the app.
+ * A widget configured with its own recipe keeps it, the others follow the recipe last chosen
+ * in the app. The recipes are kept by name, since every load of the recipes renumbers their
+ * ids.
+ */
+public class RecipeIngredientsWidgetStore {
+    private static final String PREFERENCES_NAME = "ingredients_widget";
+    private static final String KEY_RECIPE_NAME = "recipe_name";
+    private static final String KEY_WIDGET_PREFIX = "widget_";
+
+    private RecipeIngredientsWidgetStore() {
+    }
+
+    /**
+     * Bind the widget to its own recipe.
+     */
+    public static void setRecipe(Context context, int appWidgetId, String recipeName) {
+        getPreferences(context).edit()
+                .putString(widgetKey(appWidgetId, KEY_RECIPE_NAME), recipeName)
+                .apply();
+    }
+
+    /**
+     * The recipe chosen in the app, shown by the widgets without their own recipe.
+     */
+    public static void setFollowedRecipe(Context context, String recipeName) {
+        getPreferences(context).edit()
+                .putString(KEY_RECIPE_NAME, recipeName)
+                .apply();
+    }
+
+    /**
+     * If the widget was configured with its own recipe.
+     */
+    public static boolean isBound(Context context, int appWidgetId) {
+        return getPreferences(context).contains(widgetKey(appWidgetId, KEY_RECIPE_NAME));
+    }
+
+    /**
+     * The name of the recipe the widget shows, or null when none was chosen yet.
+     */
+    public static String getRecipeName(Context context, int appWidgetId) {
+        SharedPreferences preferences = getPreferences(context);
+        return preferences.getString(widgetKey(appWidgetId, KEY_RECIPE_NAME),
+                preferences.getString(KEY_RECIPE_NAME, null));
+    }
+
+    /**
+     * Forget a widget removed from the home screen.
+     */
+    public static void remove(Context context, int appWidgetId) {
+        getPreferences(context).edit()
+                .remove(widgetKey(appWidgetId, KEY_RECIPE_NAME))
+                .apply();
+    }
+
+    private static String widgetKey(int appWidgetId, String key) {
+        return KEY_WIDGET_PREFIX + appWidgetId + "_" + key;
+    }
+
+    private static SharedPreferences getPreferences(Context context) {
+        return context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+    }
+}
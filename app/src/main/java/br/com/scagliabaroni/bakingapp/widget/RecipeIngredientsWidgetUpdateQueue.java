@@ -0,0 +1,228 @@
+/*
+ * Copyright (c) 2017 Igor Scaglia.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package br.com.scagliabaroni.bakingapp.widget;
+
+import android.appwidget.AppWidgetManager;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.widget.Toast;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import br.com.scagliabaroni.bakingapp.R;
+import br.com.scagliabaroni.bakingapp.model.Recipe;
+import timber.log.Timber;
+
+/**
+ * Every ingredients widget update goes through this queue. Requests arriving within the
+ * coalescing window set in config.xml are collapsed per widget id and only the final state is pushed to
+ * the launcher, so repeated long presses or a sync changing many recipes cost one update per
+ * widget. Updates run on a dedicated background thread.
+ */
+public class RecipeIngredientsWidgetUpdateQueue {
+    private static RecipeIngredientsWidgetUpdateQueue sInstance;
+    private final Context mContext;
+    // How long requests are collected before being pushed
+    private final long mCoalesceWindowMs;
+    private final Handler mHandler;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+    // The pending state, guarded by this
+    private Recipe mPendingRecipe;
+    private final Set<Integer> mPendingFullUpdates = new HashSet<>();
+    private boolean mPendingDataChanged;
+    private boolean mFlushScheduled;
+    private final AtomicLong mRequests = new AtomicLong();
+    private final AtomicLong mCoalescedRequests = new AtomicLong();
+    private final AtomicLong mFlushes = new AtomicLong();
+    private final AtomicLong mExecutedUpdates = new AtomicLong();
+
+    private RecipeIngredientsWidgetUpdateQueue(Context context) {
+        this.mContext = context;
+        this.mCoalesceWindowMs = context.getResources()
+                .getInteger(R.integer.widget_update_coalesce_window_ms);
+        HandlerThread handlerThread = new HandlerThread("widget-updates",
+                Process.THREAD_PRIORITY_BACKGROUND);
+        handlerThread.start();
+        this.mHandler = new Handler(handlerThread.getLooper());
+    }
+
+    public static synchronized RecipeIngredientsWidgetUpdateQueue getInstance(Context context) {
+
+        if (sInstance == null) {
+            sInstance = new RecipeIngredientsWidgetUpdateQueue(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Show the recipe in the widgets without their own recipe. Only the last recipe requested
+     * within the window is shown.
+     */
+    public synchronized void requestRecipeChange(Recipe recipe) {
+        this.mPendingRecipe = recipe;
+        this.schedule();
+    }
+
+    /**
+     * Rebuild one widget, like when the launcher asks for it or the widget gets its recipe.
+     */
+    public synchronized void requestUpdate(int appWidgetId) {
+        this.mPendingFullUpdates.add(appWidgetId);
+        this.schedule();
+    }
+
+    /**
+     * Rebuild all widgets after the recipes were loaded. The load renumbers the recipes, so the
+     * click of each widget is built again with the new id, along with its rows.
+     */
+    public synchronized void requestDataChanged() {
+        this.mPendingDataChanged = true;
+        this.schedule();
+    }
+
+    private void schedule() {
+        this.mRequests.incrementAndGet();
+
+        // Already waiting, this request joins the pending ones
+        if (this.mFlushScheduled) {
+            this.mCoalescedRequests.incrementAndGet();
+            return;
+        }
+        this.mFlushScheduled = true;
+        this.mHandler.postDelayed(this.mFlushRunnable, this.mCoalesceWindowMs);
+    }
+
+    /**
+     * Push the final state of the pending requests, on the queue thread.
+     */
+    private void flush() {
+        final Recipe recipe;
+        Set<Integer> fullUpdates;
+        boolean dataChanged;
+
+        // Take the pending state, new requests start a new window
+        synchronized (this) {
+            recipe = this.mPendingRecipe;
+            fullUpdates = new HashSet<>(this.mPendingFullUpdates);
+            dataChanged = this.mPendingDataChanged;
+            this.mPendingRecipe = null;
+            this.mPendingFullUpdates.clear();
+            this.mPendingDataChanged = false;
+            this.mFlushScheduled = false;
+        }
+        this.mFlushes.incrementAndGet();
+        AppWidgetManager appWidgetManager = AppWidgetManager.getInstance(this.mContext);
+        int[] appWidgetIds = appWidgetManager.getAppWidgetIds(
+                new ComponentName(this.mContext, RecipeIngredientsWidgetProvider.class));
+
+        // The load renumbered the recipes, every widget is rebuilt
+        if (dataChanged) {
+
+            for (int appWidgetId : appWidgetIds) {
+                fullUpdates.add(appWidgetId);
+            }
+        }
+
+        if (recipe != null) {
+            // Remember the recipe, the widgets are rebuilt from it after a reboot
+            RecipeIngredientsWidgetStore.setFollowedRecipe(this.mContext, recipe.getName());
+
+            // The title, the click and the rows of the widgets following the app change
+            for (int appWidgetId : appWidgetIds) {
+
+                if (!RecipeIngredientsWidgetStore.isBound(this.mContext, appWidgetId)) {
+                    fullUpdates.add(appWidgetId);
+                }
+            }
+        }
+        Set<Integer> dataUpdates = new HashSet<>();
+
+        // One push for each widget, whatever was requested for it
+        for (int appWidgetId : appWidgetIds) {
+
+            if (fullUpdates.contains(appWidgetId)) {
+                RecipeIngredientsWidgetProvider
+                        .updateAppWidget(this.mContext, appWidgetManager, appWidgetId);
+                dataUpdates.add(appWidgetId);
+                this.mExecutedUpdates.incrementAndGet();
+            }
+        }
+
+        if (!dataUpdates.isEmpty()) {
+            int[] dataUpdateIds = new int[dataUpdates.size()];
+            int i = 0;
+
+            for (Integer appWidgetId : dataUpdates) {
+                dataUpdateIds[i++] = appWidgetId;
+            }
+            appWidgetManager.notifyAppWidgetViewDataChanged(dataUpdateIds,
+                    R.id.WidgetIngredientsListView);
+        }
+        Timber.d("Widget updates: %s", this.getMetrics());
+
+        // Show to the user that ingredients summary was updated, once for the final recipe
+        if (recipe != null) {
+            this.mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    Toast.makeText(mContext, mContext.getString(R.string.widget_updated,
+                            recipe.getName()), Toast.LENGTH_SHORT).show();
+                }
+            });
+        }
+    }
+
+    public Metrics getMetrics() {
+        return new Metrics(this);
+    }
+
+    /**
+     * Snapshot of the queue counters.
+     */
+    public static class Metrics {
+        public final long requests;
+        public final long coalescedRequests;
+        public final long flushes;
+        public final long executedUpdates;
+
+        private Metrics(RecipeIngredientsWidgetUpdateQueue queue) {
+            this.requests = queue.mRequests.get();
+            this.coalescedRequests = queue.mCoalescedRequests.get();
+            this.flushes = queue.mFlushes.get();
+            this.executedUpdates = queue.mExecutedUpdates.get();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("requests=%1$d, coalesced=%2$d, flushes=%3$d, " +
+                            "executed widget updates=%4$d", requests, coalescedRequests,
+                    flushes, executedUpdates);
+        }
+    }
+}
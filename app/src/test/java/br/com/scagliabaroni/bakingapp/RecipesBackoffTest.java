@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2017 Igor Scaglia.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package br.com.scagliabaroni.bakingapp;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import br.com.scagliabaroni.bakingapp.common.RecipesBackoff;
+
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+public class RecipesBackoffTest {
+    private final RecipesBackoff mBackoff = new RecipesBackoff(100, 1000, 4, new Random(42));
+
+    @Test
+    public void delayDoublesWithinJitter() {
+
+        for (int attempt = 1; attempt <= 3; attempt++) {
+            long ceiling = 100 << (attempt - 1);
+
+            for (int i = 0; i < 100; i++) {
+                long delay = this.mBackoff.getDelayMs(attempt);
+                assertTrue(delay >= ceiling / 2 && delay <= ceiling);
+            }
+        }
+    }
+
+    @Test
+    public void delayIsBounded() {
+
+        for (int attempt = 5; attempt < 100; attempt++) {
+            long delay = this.mBackoff.getDelayMs(attempt);
+            assertTrue(delay >= 500 && delay <= 1000);
+        }
+    }
+
+    @Test
+    public void attemptsAreBounded() {
+        assertTrue(this.mBackoff.canRetry(3));
+        assertFalse(this.mBackoff.canRetry(4));
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2017 Igor Scaglia.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package br.com.scagliabaroni.bakingapp;
+
+import org.junit.Test;
+
+import br.com.scagliabaroni.bakingapp.common.RecipesCircuitBreaker;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+public class RecipesCircuitBreakerTest {
+    private static final long OPEN_MS = 1000;
+    private final RecipesCircuitBreaker mCircuitBreaker = new RecipesCircuitBreaker(3, OPEN_MS);
+
+    @Test
+    public void opensAfterThresholdFailures() {
+        this.mCircuitBreaker.onFailure(0);
+        this.mCircuitBreaker.onFailure(0);
+        assertTrue(this.mCircuitBreaker.allowRequest(0));
+        this.mCircuitBreaker.onFailure(0);
+        assertEquals(RecipesCircuitBreaker.State.OPEN, this.mCircuitBreaker.getState());
+        assertFalse(this.mCircuitBreaker.allowRequest(OPEN_MS - 1));
+    }
+
+    @Test
+    public void successResetsFailures() {
+        this.mCircuitBreaker.onFailure(0);
+        this.mCircuitBreaker.onFailure(0);
+        this.mCircuitBreaker.onSuccess();
+        this.mCircuitBreaker.onFailure(0);
+        assertEquals(RecipesCircuitBreaker.State.CLOSED, this.mCircuitBreaker.getState());
+    }
+
+    @Test
+    public void singleTrialAfterOpenDuration() {
+        this.open();
+        assertTrue(this.mCircuitBreaker.allowRequest(OPEN_MS));
+        // Only the trial goes through until it reports back
+        assertFalse(this.mCircuitBreaker.allowRequest(OPEN_MS));
+        this.mCircuitBreaker.onSuccess();
+        assertTrue(this.mCircuitBreaker.allowRequest(OPEN_MS));
+    }
+
+    @Test
+    public void failedTrialOpensAgain() {
+        this.open();
+        assertTrue(this.mCircuitBreaker.allowRequest(OPEN_MS));
+        this.mCircuitBreaker.onFailure(OPEN_MS);
+        assertFalse(this.mCircuitBreaker.allowRequest(2 * OPEN_MS - 1));
+        assertTrue(this.mCircuitBreaker.allowRequest(2 * OPEN_MS));
+    }
+
+    private void open() {
+
+        for (int i = 0; i < 3; i++) {
+            this.mCircuitBreaker.onFailure(0);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2017 Igor Scaglia.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package br.com.scagliabaroni.bakingapp;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import br.com.scagliabaroni.bakingapp.common.RecipesSnapshotCodec;
+import br.com.scagliabaroni.bakingapp.common.RecipesSnapshotStore;
+import br.com.scagliabaroni.bakingapp.model.Ingredient;
+import br.com.scagliabaroni.bakingapp.model.Recipe;
+import br.com.scagliabaroni.bakingapp.model.Step;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+public class RecipesSnapshotCodecTest {
+    private static final int CATALOG_RECIPES = 5000;
+
+    @Test
+    public void roundTripKeepsEveryField() throws Exception {
+        List<Recipe> recipes = catalog(3);
+        recipes.get(0).setImage(null);
+        recipes.get(1).getIngredients().get(0).setQuantity(null);
+
+        List<Recipe> decoded = RecipesSnapshotCodec
+                .decode(ByteBuffer.wrap(RecipesSnapshotCodec.encode(recipes)));
+
+        assertEquals(recipes.size(), decoded.size());
+        assertEquals(new Gson().toJson(recipes), new Gson().toJson(decoded));
+        assertNull(decoded.get(0).getImage());
+        assertNull(decoded.get(1).getIngredients().get(0).getQuantity());
+    }
+
+    @Test
+    public void repeatedStringsAreStoredOnce() throws Exception {
+        List<Recipe> recipes = catalog(CATALOG_RECIPES);
+        byte[] snapshot = RecipesSnapshotCodec.encode(recipes);
+        byte[] json = new Gson().toJson(recipes).getBytes("UTF-8");
+
+        assertTrue(snapshot.length < json.length);
+    }
+
+    /**
+     * The snapshot bundled in the assets is the catalog.json fixture encoded. When the fixture
+     * or the format changes, encode it again with
+     * {@code ./gradlew testDebugUnitTest -PregenerateSnapshot}, which writes the asset before
+     * checking it.
+     */
+    @Test
+    public void bundledSnapshotMatchesFixture() throws Exception {
+        Gson gson = new Gson();
+        List<Recipe> fixture = gson.fromJson(new InputStreamReader(this.getClass()
+                        .getClassLoader().getResourceAsStream("catalog.json"), "UTF-8"),
+                new TypeToken<List<Recipe>>() {
+                }.getType());
+        // Unit tests run from the module directory
+        File asset = new File("src/main/assets", RecipesSnapshotStore.SNAPSHOT_NAME);
+        byte[] snapshot;
+
+        if (Boolean.getBoolean("regenerateSnapshot")) {
+
+            try (FileOutputStream output = new FileOutputStream(asset)) {
+                output.write(RecipesSnapshotCodec.encode(fixture));
+            }
+        }
+
+        try (RandomAccessFile file = new RandomAccessFile(asset, "r")) {
+            snapshot = new byte[(int) file.length()];
+            file.readFully(snapshot);
+        }
+
+        assertEquals(gson.toJson(fixture),
+                gson.toJson(RecipesSnapshotCodec.decode(ByteBuffer.wrap(snapshot))));
+    }
+
+    /**
+     * Recipes shaped like the real ones, sharing measures, ingredients and thumbnails.
+     */
+    private static List<Recipe> catalog(int size) {
+        String[] measures = {"CUP", "TBLSP", "TSP", "K", "G", "OZ", "UNIT"};
+        List<Recipe> recipes = new ArrayList<>(size);
+
+        for (int i = 0; i < size; i++) {
+            Recipe recipe = new Recipe();
+            recipe.setId(i + 1);
+            recipe.setName("Recipe " + i);
+            recipe.setServings(8);
+            recipe.setImage("");
+            List<Ingredient> ingredients = new ArrayList<>();
+
+            for (int j = 0; j < 9; j++) {
+                Ingredient ingredient = new Ingredient();
+                ingredient.setQuantity(j * 0.5);
+                ingredient.setMeasure(measures[j % measures.length]);
+                ingredient.setIngredient("ingredient " + (i + j) % 40);
+                ingredients.add(ingredient);
+            }
+            recipe.setIngredients(ingredients);
+            List<Step> steps = new ArrayList<>();
+
+            for (int j = 0; j < 10; j++) {
+                Step step = new Step();
+                step.setId(j);
+                step.setShortDescription("Step " + j);
+                step.setDescription(j + ". Mix the ingredients of recipe " + i + " well.");
+                step.setVideoURL(j % 3 == 0 ? "" : "https://example.com/" + i + "/" + j + ".mp4");
+                step.setThumbnailURL("");
+                steps.add(step);
+            }
+            recipe.setSteps(steps);
+            recipes.add(recipe);
+        }
+        return recipes;
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2017 Igor Scaglia.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package br.com.scagliabaroni.bakingapp;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import br.com.scagliabaroni.bakingapp.common.RecipesSyncPolicy;
+
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+public class RecipesSyncPolicyTest {
+    private static final long WINDOW_MS = TimeUnit.HOURS.toMillis(24);
+    private static final long NOW_MS = TimeUnit.DAYS.toMillis(1000);
+    private final RecipesSyncPolicy mPolicy =
+            new RecipesSyncPolicy(WINDOW_MS, WINDOW_MS, true, true);
+
+    @Test
+    public void neverSyncedIsStale() {
+        assertFalse(this.mPolicy.isFresh(0, NOW_MS));
+    }
+
+    @Test
+    public void syncedInsideWindowIsFresh() {
+        assertTrue(this.mPolicy.isFresh(NOW_MS - WINDOW_MS + 1, NOW_MS));
+    }
+
+    @Test
+    public void syncedOutsideWindowIsStale() {
+        assertFalse(this.mPolicy.isFresh(NOW_MS - WINDOW_MS, NOW_MS));
+    }
+
+    @Test
+    public void clockMovedBackwardsIsStale() {
+        assertFalse(this.mPolicy.isFresh(NOW_MS + 1, NOW_MS));
+    }
+}